@@ -0,0 +1,102 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Capture jobs started through <code>POST /captures</code>, kept after they
+ * finish so that clients can fetch or re-fetch the result. Finished jobs are
+ * evicted once they are older than the TTL, and the oldest finished jobs make
+ * room when the store is full. Running jobs are never evicted.
+ */
+@Component
+public class CaptureJobStore {
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	/* Jobs in insertion order, guarded by this. */
+	private final LinkedHashMap<String, Entry> jobs = new LinkedHashMap<String, Entry>();
+
+	public CaptureJobStore(@Value("${ib.jobs.max-entries:256}") int maxEntries,
+			@Value("${ib.jobs.ttl:600000}") long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Store a job unless one with the same ID is already known.
+	 *
+	 * @return the job already stored under that ID, or <code>null</code> if the
+	 *         given session was stored
+	 * @throws IllegalStateException if the store is full of running jobs
+	 */
+	public synchronized CaptureSession putIfAbsent(CaptureSession session) {
+		long now = System.currentTimeMillis();
+		evictExpired(now);
+		Entry existing = jobs.get(session.getId());
+		if (existing != null) {
+			return existing.session;
+		}
+		if (jobs.size() >= maxEntries && !evictOldestFinished()) {
+			throw new IllegalStateException("Too many capture jobs in progress");
+		}
+		final Entry entry = new Entry(session);
+		jobs.put(session.getId(), entry);
+		session.getResult().whenComplete((r, ex) -> entry.finishedAt = System.currentTimeMillis());
+		return null;
+	}
+
+	public synchronized CaptureSession get(String id) {
+		evictExpired(System.currentTimeMillis());
+		Entry entry = jobs.get(id);
+		return entry == null ? null : entry.session;
+	}
+
+	/**
+	 * Forget a job that was never started, e.g. because it was not admitted.
+	 */
+	public synchronized void remove(CaptureSession session) {
+		Entry entry = jobs.get(session.getId());
+		if (entry != null && entry.session == session) {
+			jobs.remove(session.getId());
+		}
+	}
+
+	public synchronized int size() {
+		return jobs.size();
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Entry> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			long finishedAt = it.next().finishedAt;
+			if (finishedAt != 0 && now - finishedAt > ttlMillis) {
+				it.remove();
+			}
+		}
+	}
+
+	private boolean evictOldestFinished() {
+		Iterator<Map.Entry<String, Entry>> it = jobs.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getValue().finishedAt != 0) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class Entry {
+		final CaptureSession session;
+		volatile long finishedAt;
+
+		Entry(CaptureSession session) {
+			this.session = session;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-phase capture latency, tagged by device serial number and image type, so
+ * a slow capture can be attributed to the scanner, the operator or the server.
+ * The phases follow a capture through the SDK: device open,
+ * <code>beginCaptureImage</code>, acquisition begun, acquisition completed,
+ * result delivered, segment NFIQ scoring, segment encoding and response
+ * write.
+ */
+@Component
+public class CaptureMetrics {
+
+	public static final String PHASE_TIMER = "ib.capture.phase";
+	public static final String FRAME_TIME = "ib.capture.frame.time";
+
+	public static final String OPEN = "open";
+	public static final String BEGIN = "beginCaptureImage";
+	public static final String ACQUISITION_BEGUN = "acquisitionBegun";
+	public static final String ACQUISITION_COMPLETED = "acquisitionCompleted";
+	public static final String RESULT = "result";
+	/* Background NFIQ scoring of a slap. */
+	public static final String SCORING = "scoring";
+	/* Encoding of one segment for a response: WSQ for finger records, BMP and base64 for JSON. */
+	public static final String ENCODING = "encoding";
+	public static final String RESPONSE_WRITE = "responseWrite";
+
+	/* Tag value for phases that are not tied to one image type. */
+	public static final String NONE = "none";
+
+	private final MeterRegistry registry;
+
+	@Autowired
+	public CaptureMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void record(String phase, String device, Object imageType, long nanos) {
+		timer(PHASE_TIMER, device, imageType).tag("phase", phase)
+				.description("Time spent in each phase of a capture").register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The SDK-reported frame time of a result image, in seconds.
+	 */
+	public void recordFrameTime(String device, Object imageType, double frameTime) {
+		timer(FRAME_TIME, device, imageType).description("Frame time reported by the SDK for result images")
+				.register(registry).record((long) (frameTime * 1e9), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Wrap a response body so that writing it is recorded as the response write
+	 * phase.
+	 */
+	public StreamingResponseBody timed(final StreamingResponseBody body, final String device,
+			final Object imageType) {
+		return out -> {
+			long start = System.nanoTime();
+			try {
+				body.writeTo(out);
+			} finally {
+				record(RESPONSE_WRITE, device, imageType, System.nanoTime() - start);
+			}
+		};
+	}
+
+	private static Timer.Builder timer(String name, String device, Object imageType) {
+		return Timer.builder(name).tag("device", device == null ? NONE : device)
+				.tag("imageType", imageType == null ? NONE : imageType.toString()).publishPercentileHistogram();
+	}
+}
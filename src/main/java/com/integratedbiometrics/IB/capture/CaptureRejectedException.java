@@ -0,0 +1,33 @@
+package com.integratedbiometrics.IB.capture;
+
+/**
+ * A capture that was not admitted because the queue is full or the client
+ * already has its maximum number of captures in progress.
+ */
+public class CaptureRejectedException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean clientLimit;
+	private final long retryAfterSeconds;
+
+	public CaptureRejectedException(String message, boolean clientLimit, long retryAfterSeconds) {
+		super(message);
+		this.clientLimit = clientLimit;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Whether the per-client limit was hit (rather than the shared queue).
+	 */
+	public boolean isClientLimit() {
+		return clientLimit;
+	}
+
+	/**
+	 * Suggested delay before retrying, in seconds.
+	 */
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
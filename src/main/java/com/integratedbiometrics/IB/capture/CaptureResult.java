@@ -0,0 +1,114 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+
+/**
+ * Outcome of a capture session: one slap per capture step. Encoding is left to
+ * whoever writes the response, in the format the client negotiated, so the
+ * device callback does no image work.
+ */
+public class CaptureResult {
+
+	private final String sessionId;
+	private final String hand;
+	private final List<Slap> slaps;
+
+	public CaptureResult(String sessionId, String hand, List<Slap> slaps) {
+		this.sessionId = sessionId;
+		this.hand = hand;
+		this.slaps = Collections.unmodifiableList(new ArrayList<Slap>(slaps));
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public String getHand() {
+		return hand;
+	}
+
+	public List<Slap> getSlaps() {
+		return slaps;
+	}
+
+	/**
+	 * Serial number of the scanner that captured the result.
+	 */
+	public String getDeviceSerial() {
+		return slaps.isEmpty() ? null : slaps.get(0).getDeviceSerial();
+	}
+
+	/**
+	 * The image type of a single-slap result; for a sequence "SEQUENCE".
+	 */
+	public String getImageTypeName() {
+		if (slaps.size() != 1) {
+			return "SEQUENCE";
+		}
+		return slaps.get(0).getImageType() == null ? null : slaps.get(0).getImageType().name();
+	}
+
+	/**
+	 * Capture metadata without pixel data, used as the first part of binary
+	 * responses.
+	 * A scored segment carries its NFIQ score (1 best, 5 worst) as
+	 * <code>nfiq</code> and, for existing clients, the same score as a
+	 * higher-is-better <code>quality</code> (see {@link Slap#getQuality(int)});
+	 * both are left out when the segment was not scored.
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject toMetadataJson() {
+		JSONObject response = new JSONObject();
+		for (Slap slap : slaps) {
+			JSONArray jsonArray = new JSONArray();
+			for (int i = 0; i < slap.getSegmentCount(); i++) {
+				ImageData segment = slap.getSegment(i);
+				JSONObject jsonObject = new JSONObject();
+				jsonObject.put("Position", String.valueOf(i));
+				jsonObject.put("imageType", slap.getImageType() == null ? null : slap.getImageType().name());
+				jsonObject.put("width", segment.width);
+				jsonObject.put("height", segment.height);
+				jsonObject.put("resolutionX", segment.resolutionX);
+				jsonObject.put("resolutionY", segment.resolutionY);
+				if (slap.getNfiq(i) > 0) {
+					jsonObject.put("quality", String.valueOf(slap.getQuality(i)));
+					jsonObject.put("nfiq", slap.getNfiq(i));
+				}
+				if (slap.getFingerQuality(i) != null) {
+					jsonObject.put("fingerQuality", slap.getFingerQuality(i).name());
+				}
+				SegmentPosition position = slap.getSegmentPosition(i);
+				if (position != null) {
+					JSONArray corners = new JSONArray();
+					corners.add(point(position.x1, position.y1));
+					corners.add(point(position.x2, position.y2));
+					corners.add(point(position.x3, position.y3));
+					corners.add(point(position.x4, position.y4));
+					jsonObject.put("corners", corners);
+				}
+				jsonArray.add(jsonObject);
+			}
+			response.put(slap.getName() + "Hand", jsonArray);
+		}
+		response.put("hand", hand);
+		response.put("sessionId", sessionId);
+		response.put("status", true);
+		return response;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONArray point(int x, int y) {
+		JSONArray point = new JSONArray();
+		point.add(x);
+		point.add(y);
+		return point;
+	}
+}
@@ -0,0 +1,279 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.integratedbiometrics.IB.device.PooledScanner;
+import com.integratedbiometrics.IB.device.ScannerPool;
+
+/**
+ * Fair work queue in front of the {@link ScannerPool}. Sessions are started in
+ * arrival order on the least recently used idle scanner that supports their
+ * image type and resolution; a session no idle scanner can serve does not hold
+ * back later sessions that another scanner can.
+ * <p>
+ * Admission is bounded: at most <code>ib.capture.queue-depth</code> sessions
+ * wait, and each client has at most <code>ib.capture.per-client</code> sessions
+ * waiting or capturing. Anything beyond that is rejected immediately with a
+ * {@link CaptureRejectedException}.
+ */
+@Component
+public class CaptureScheduler {
+
+	/* Assumed capture duration until one has been measured, for Retry-After. */
+	private static final long INITIAL_CAPTURE_MILLIS = 5000;
+
+	private final ScannerPool scannerPool;
+	private final int maxQueueDepth;
+	private final int maxPerClient;
+	private final Timer waitTimer;
+	/* Sessions waiting or capturing, by client ID; guarded by this. */
+	private final Map<String, Integer> clientLoad = new HashMap<String, Integer>();
+	/* Cleared when the application starts shutting down; guarded by this. */
+	private boolean admitting = true;
+	/* Moving average of capture duration in milliseconds. */
+	private volatile double averageCaptureMillis = INITIAL_CAPTURE_MILLIS;
+	/* Waiting sessions in arrival order, guarded by this. */
+	private final LinkedList<CaptureSession> queue = new LinkedList<CaptureSession>();
+	/* Started sessions and their scanners, by session ID. */
+	private final Map<String, Assignment> running = new ConcurrentHashMap<String, Assignment>();
+	private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "capture-deadlines");
+		t.setDaemon(true);
+		return t;
+	});
+
+	@Autowired
+	public CaptureScheduler(ScannerPool scannerPool, MeterRegistry meterRegistry,
+			@Value("${ib.capture.queue-depth:16}") int maxQueueDepth,
+			@Value("${ib.capture.per-client:2}") int maxPerClient) {
+		this.scannerPool = scannerPool;
+		this.maxQueueDepth = maxQueueDepth;
+		this.maxPerClient = maxPerClient;
+		this.waitTimer = Timer.builder("ib.capture.queue.wait").description("Time sessions wait for a scanner")
+				.register(meterRegistry);
+		Gauge.builder("ib.capture.queue.depth", this, CaptureScheduler::queueDepth)
+				.description("Sessions waiting for a scanner").register(meterRegistry);
+		Gauge.builder("ib.capture.queue.oldest.wait", this, CaptureScheduler::oldestWaitMillis)
+				.description("Milliseconds the oldest waiting session has been queued").baseUnit("milliseconds")
+				.register(meterRegistry);
+		scannerPool.addAvailabilityListener(this::dispatch);
+	}
+
+	/**
+	 * Queue a session for capture. The session fails immediately if no pooled
+	 * scanner supports its capture mode.
+	 *
+	 * @throws CaptureRejectedException if the queue or the client's share of it
+	 *                                  is full; the session is failed with the
+	 *                                  same exception
+	 */
+	public void submit(CaptureSession session) {
+		if (!scannerPool.isSupported(session.getImageTypes(), session.getImageResolution())) {
+			session.fail(new IllegalStateException(scannerPool.isInitializing() ? "Scanners are still initializing"
+					: "No scanner supports " + session.getImageTypes()));
+			return;
+		}
+		synchronized (this) {
+			CaptureRejectedException rejected = admit(session);
+			if (rejected != null) {
+				session.fail(rejected);
+				throw rejected;
+			}
+			queue.add(session);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Queue a session that is cancelled if it has not finished within the
+	 * deadline, for callers that do not hold a request open.
+	 */
+	public void submit(final CaptureSession session, long timeoutMillis) {
+		final ScheduledFuture<?> deadline = deadlines.schedule(() -> cancel(session), timeoutMillis,
+				TimeUnit.MILLISECONDS);
+		session.getResult().whenComplete((r, ex) -> deadline.cancel(false));
+		submit(session);
+	}
+
+	/**
+	 * Abort a session, whether it is still queued or already capturing.
+	 */
+	public void cancel(CaptureSession session) {
+		synchronized (this) {
+			if (queue.remove(session)) {
+				notifyAll();
+			}
+		}
+		Assignment assignment = running.get(session.getId());
+		if (assignment != null) {
+			assignment.scanner.getInvokeDevice().cancelCapture(session);
+		}
+		session.getResult().cancel(false);
+	}
+
+	/**
+	 * Reject all further sessions; queued and running sessions carry on.
+	 */
+	public synchronized void stopAdmitting() {
+		admitting = false;
+	}
+
+	/**
+	 * Wait until no session is queued or capturing, at most the given time.
+	 *
+	 * @return whether the scheduler drained in time
+	 */
+	public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!queue.isEmpty() || !running.isEmpty()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel every queued and running session.
+	 */
+	public void cancelAll() {
+		List<CaptureSession> sessions;
+		synchronized (this) {
+			sessions = new ArrayList<CaptureSession>(queue);
+		}
+		for (CaptureSession session : sessions) {
+			cancel(session);
+		}
+		for (Assignment assignment : running.values()) {
+			cancel(assignment.session);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		deadlines.shutdownNow();
+	}
+
+	public synchronized int queueDepth() {
+		return queue.size();
+	}
+
+	public synchronized long oldestWaitMillis() {
+		return queue.isEmpty() ? 0 : System.currentTimeMillis() - queue.getFirst().getCreatedAt();
+	}
+
+	/* Count the session against its client, or say why it cannot be admitted. Called holding this. */
+	private CaptureRejectedException admit(final CaptureSession session) {
+		if (!admitting) {
+			return new CaptureRejectedException("Capture service is shutting down", false,
+					retryAfterSeconds(queue.size()));
+		}
+		if (queue.size() >= maxQueueDepth) {
+			return new CaptureRejectedException("Capture queue is full", false, retryAfterSeconds(queue.size()));
+		}
+		final String clientId = session.getClientId();
+		if (clientId == null) {
+			return null;
+		}
+		Integer load = clientLoad.get(clientId);
+		if (load != null && load >= maxPerClient) {
+			return new CaptureRejectedException("Too many captures in progress for " + clientId, true,
+					retryAfterSeconds(load));
+		}
+		clientLoad.put(clientId, load == null ? 1 : load + 1);
+		session.getResult().whenComplete((r, ex) -> {
+			synchronized (CaptureScheduler.this) {
+				Integer remaining = clientLoad.get(clientId);
+				if (remaining == null || remaining <= 1) {
+					clientLoad.remove(clientId);
+				} else {
+					clientLoad.put(clientId, remaining - 1);
+				}
+			}
+		});
+		return null;
+	}
+
+	/* Time for the given number of captures ahead to drain over all scanners. */
+	private long retryAfterSeconds(int ahead) {
+		double millis = averageCaptureMillis * (ahead + 1) / Math.max(1, scannerPool.size());
+		return Math.max(1, (long) Math.ceil(millis / 1000));
+	}
+
+	/*
+	 * Start every queued session for which a suitable scanner is idle. Leasing
+	 * never opens a device, so the lock is only held for the matching.
+	 */
+	private void dispatch() {
+		List<Assignment> assignments = new ArrayList<Assignment>();
+		synchronized (this) {
+			Iterator<CaptureSession> it = queue.iterator();
+			while (it.hasNext()) {
+				CaptureSession session = it.next();
+				if (session.isDone()) {
+					it.remove();
+					continue;
+				}
+				PooledScanner scanner = scannerPool.tryLease(session.getImageTypes(), session.getImageResolution());
+				if (scanner != null) {
+					it.remove();
+					assignments.add(new Assignment(session, scanner));
+				}
+			}
+		}
+		for (Assignment assignment : assignments) {
+			start(assignment.session, assignment.scanner);
+		}
+	}
+
+	private void start(final CaptureSession session, final PooledScanner scanner) {
+		final long startedAt = System.currentTimeMillis();
+		waitTimer.record(startedAt - session.getCreatedAt(), TimeUnit.MILLISECONDS);
+		final Assignment assignment = new Assignment(session, scanner);
+		running.put(session.getId(), assignment);
+		session.getResult().whenComplete((json, ex) -> {
+			if (ex == null) {
+				averageCaptureMillis = 0.8 * averageCaptureMillis + 0.2 * (System.currentTimeMillis() - startedAt);
+			}
+			running.remove(session.getId(), assignment);
+			scannerPool.release(scanner);
+			dispatch();
+			synchronized (CaptureScheduler.this) {
+				CaptureScheduler.this.notifyAll();
+			}
+		});
+		scanner.getInvokeDevice().captureImages(session);
+	}
+
+	private static final class Assignment {
+		final CaptureSession session;
+		final PooledScanner scanner;
+
+		Assignment(CaptureSession session, PooledScanner scanner) {
+			this.session = session;
+			this.scanner = scanner;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+
+/**
+ * One client capture request. The session carries its own result future so
+ * that the device callback can complete exactly the request that started the
+ * capture. A session runs one or more capture steps (see
+ * {@link CaptureStep#stepsFor(String)}) on the same scanner and completes with
+ * a single result once every slap is in.
+ */
+public class CaptureSession {
+
+	private final String id;
+	private final String hand;
+	private final String clientId;
+	private final List<CaptureStep> steps;
+	private final IBScanDevice.ImageResolution imageResolution = IBScanDevice.ImageResolution.RESOLUTION_500;
+	private final long createdAt = System.currentTimeMillis();
+	private final CompletableFuture<CaptureResult> result = new CompletableFuture<CaptureResult>();
+	private final List<CompletableFuture<Slap>> slaps = new ArrayList<CompletableFuture<Slap>>();
+
+	public CaptureSession(String id, String hand) {
+		this(id, hand, null);
+	}
+
+	/**
+	 * @param clientId the caller the session counts against for admission
+	 *                 control, or <code>null</code> if not limited per client
+	 */
+	public CaptureSession(String id, String hand, String clientId) {
+		this.id = (id == null || id.isEmpty()) ? UUID.randomUUID().toString() : id;
+		this.hand = hand;
+		this.clientId = clientId;
+		this.steps = CaptureStep.stepsFor(hand);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getHand() {
+		return hand;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public List<CaptureStep> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * The image types of all steps, i.e. what the scanner has to support.
+	 */
+	public Set<IBScanDevice.ImageType> getImageTypes() {
+		Set<IBScanDevice.ImageType> imageTypes = EnumSet.noneOf(IBScanDevice.ImageType.class);
+		for (CaptureStep step : steps) {
+			imageTypes.add(step.getImageType());
+		}
+		return imageTypes;
+	}
+
+	/**
+	 * The step to capture next, or <code>null</code> once all slaps are in.
+	 */
+	public synchronized CaptureStep getCurrentStep() {
+		return slaps.size() < steps.size() ? steps.get(slaps.size()) : null;
+	}
+
+	public IBScanDevice.ImageResolution getImageResolution() {
+		return imageResolution;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public CompletableFuture<CaptureResult> getResult() {
+		return result;
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * Record the slap of the current step. The slap may still be scored; the
+	 * session result waits for it. When this was the last step the session
+	 * completes as soon as all slaps are ready.
+	 *
+	 * @return whether another step remains to be captured
+	 */
+	public boolean addSlap(CompletableFuture<Slap> slap) {
+		final CompletableFuture<?>[] all;
+		synchronized (this) {
+			slaps.add(slap);
+			if (slaps.size() < steps.size()) {
+				return true;
+			}
+			all = slaps.toArray(new CompletableFuture<?>[slaps.size()]);
+		}
+		CompletableFuture.allOf(all).whenComplete((v, ex) -> {
+			if (ex != null) {
+				fail(ex);
+				return;
+			}
+			List<Slap> done = new ArrayList<Slap>(all.length);
+			for (CompletableFuture<?> f : all) {
+				done.add((Slap) f.join());
+			}
+			complete(new CaptureResult(id, hand, done));
+		});
+		return false;
+	}
+
+	public boolean complete(CaptureResult captureResult) {
+		return result.complete(captureResult);
+	}
+
+	public boolean fail(Throwable cause) {
+		return result.completeExceptionally(cause);
+	}
+}
@@ -0,0 +1,39 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Sessions that are waiting for a device result, keyed by session ID. The
+ * device callback resolves its session here instead of writing into shared
+ * fields.
+ */
+@Component
+public class CaptureSessionRegistry {
+
+	private final ConcurrentMap<String, CaptureSession> sessions = new ConcurrentHashMap<String, CaptureSession>();
+
+	/**
+	 * Register a session. Sessions remove themselves once their result is
+	 * completed, cancelled or failed.
+	 *
+	 * @throws IllegalStateException if a session with the same ID is still active
+	 */
+	public CaptureSession register(CaptureSession session) {
+		if (sessions.putIfAbsent(session.getId(), session) != null) {
+			throw new IllegalStateException("Capture session " + session.getId() + " is already active");
+		}
+		session.getResult().whenComplete((r, ex) -> sessions.remove(session.getId(), session));
+		return session;
+	}
+
+	public CaptureSession get(String id) {
+		return id == null ? null : sessions.get(id);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+}
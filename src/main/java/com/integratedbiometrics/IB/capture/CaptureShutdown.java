@@ -0,0 +1,69 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.logging.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import com.integratedbiometrics.IB.device.ScannerPool;
+
+/**
+ * Drains captures on shutdown: new sessions are rejected, sessions already
+ * admitted get up to <code>ib.shutdown.drain-timeout</code> to finish, the
+ * rest are cancelled, and finally every device is closed and the SDK
+ * unloaded. Leaving a device open makes the next start fail with
+ * <code>DEVICE_ACTIVE</code> and pay for a full re-initialization.
+ * <p>
+ * Runs in the last lifecycle phase, so it stops before anything else while
+ * the web server is still answering with 503.
+ */
+@Component
+public class CaptureShutdown implements SmartLifecycle {
+
+	private static final Logger LOG = Logger.getLogger(CaptureShutdown.class.getName());
+
+	private final CaptureScheduler captureScheduler;
+	private final ScannerPool scannerPool;
+	private final long drainTimeout;
+	private volatile boolean running;
+
+	@Autowired
+	public CaptureShutdown(CaptureScheduler captureScheduler, ScannerPool scannerPool,
+			@Value("${ib.shutdown.drain-timeout:20000}") long drainTimeout) {
+		this.captureScheduler = captureScheduler;
+		this.scannerPool = scannerPool;
+		this.drainTimeout = drainTimeout;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		captureScheduler.stopAdmitting();
+		try {
+			if (!captureScheduler.awaitIdle(drainTimeout)) {
+				LOG.warning("Captures still in progress after " + drainTimeout + " ms, cancelling");
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		captureScheduler.cancelAll();
+		scannerPool.close();
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public int getPhase() {
+		return Integer.MAX_VALUE;
+	}
+}
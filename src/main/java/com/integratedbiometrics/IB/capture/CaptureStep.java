@@ -0,0 +1,60 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+
+/**
+ * One placement of a capture sequence, like a <code>CaptureInfo</code> entry of
+ * the sample application's capture sequence.
+ */
+public class CaptureStep {
+
+	private final String name;
+	private final IBScanDevice.ImageType imageType;
+	private final int numberOfFingers;
+
+	public CaptureStep(String name, IBScanDevice.ImageType imageType, int numberOfFingers) {
+		this.name = name;
+		this.imageType = imageType;
+		this.numberOfFingers = numberOfFingers;
+	}
+
+	/**
+	 * The steps to capture for the requested hand. "tenprint" is the 4-4-2
+	 * sequence (right slap, left slap, both thumbs) of a four-finger scanner.
+	 *
+	 * @throws IllegalArgumentException for an unknown hand
+	 */
+	public static List<CaptureStep> stepsFor(String hand) {
+		switch (hand) {
+		case "left":
+		case "right":
+			return Collections.singletonList(new CaptureStep(hand, IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4));
+		case "thumbs":
+			return Collections.singletonList(new CaptureStep(hand, IBScanDevice.ImageType.FLAT_TWO_FINGERS, 2));
+		case "single":
+			return Collections.singletonList(new CaptureStep(hand, IBScanDevice.ImageType.FLAT_SINGLE_FINGER, 1));
+		case "tenprint":
+			return Arrays.asList(new CaptureStep("right", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4),
+					new CaptureStep("left", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4),
+					new CaptureStep("thumbs", IBScanDevice.ImageType.FLAT_TWO_FINGERS, 2));
+		default:
+			throw new IllegalArgumentException("Unknown hand: " + hand);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public IBScanDevice.ImageType getImageType() {
+		return imageType;
+	}
+
+	public int getNumberOfFingers() {
+		return numberOfFingers;
+	}
+}
@@ -0,0 +1,67 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import kojak.com.sample.GrayBmpInputStream;
+
+/**
+ * Writes the JSON capture response with a streaming generator. Each segment is
+ * produced as a BMP on the fly and base64-encoded straight into the response,
+ * so neither the BMP nor its base64 text is ever held in memory. Segment
+ * fields are those of {@link CaptureResult#toMetadataJson()}. Each segment is
+ * recorded as the {@link CaptureMetrics#ENCODING} phase; as encoding and
+ * writing are interleaved, that includes writing the segment out.
+ */
+public class JsonResultWriter implements StreamingResponseBody {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private final CaptureResult result;
+	private final CaptureMetrics metrics;
+
+	public JsonResultWriter(CaptureResult result, CaptureMetrics metrics) {
+		this.result = result;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		JsonGenerator json = JSON.createGenerator(out, JsonEncoding.UTF8);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		json.writeStartObject();
+		for (Slap slap : result.getSlaps()) {
+			json.writeArrayFieldStart(slap.getName() + "Hand");
+			for (int i = 0; i < slap.getSegmentCount(); i++) {
+				json.writeStartObject();
+				json.writeStringField("Position", String.valueOf(i));
+				json.writeFieldName("fingerprint");
+				long start = System.nanoTime();
+				GrayBmpInputStream bmp = new GrayBmpInputStream(slap.getSegment(i));
+				json.writeBinary(bmp, bmp.length());
+				metrics.record(CaptureMetrics.ENCODING, slap.getDeviceSerial(), slap.getImageType(),
+						System.nanoTime() - start);
+				if (slap.getNfiq(i) > 0) {
+					json.writeStringField("quality", String.valueOf(slap.getQuality(i)));
+					json.writeNumberField("nfiq", slap.getNfiq(i));
+				}
+				if (slap.getFingerQuality(i) != null) {
+					json.writeStringField("fingerQuality", slap.getFingerQuality(i).name());
+				}
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+		}
+		json.writeStringField("hand", result.getHand());
+		json.writeStringField("sessionId", result.getSessionId());
+		json.writeBooleanField("status", true);
+		json.writeEndObject();
+		json.close();
+	}
+}
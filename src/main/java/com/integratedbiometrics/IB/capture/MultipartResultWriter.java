@@ -0,0 +1,72 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+import kojak.com.sample.ImageUtils;
+
+/**
+ * Writes a capture as <code>multipart/mixed</code>: a JSON metadata part
+ * followed by one part per segment holding the raw 8-bit grayscale pixels,
+ * top-down rows of <code>width</code> bytes. This avoids the BMP and base64
+ * inflation of the JSON response, and with it any encoding phase.
+ */
+public class MultipartResultWriter implements StreamingResponseBody {
+
+	public static final MediaType MULTIPART_MIXED = MediaType.parseMediaType("multipart/mixed");
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final CaptureResult result;
+	private final String boundary = UUID.randomUUID().toString();
+
+	public MultipartResultWriter(CaptureResult result) {
+		this.result = result;
+	}
+
+	public MediaType getContentType() {
+		return new MediaType(MULTIPART_MIXED, Collections.singletonMap("boundary", boundary));
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		byte[] metadata = result.toMetadataJson().toJSONString().getBytes(StandardCharsets.UTF_8);
+		writePartHeader(out, "application/json", metadata.length, "name=\"metadata\"");
+		out.write(metadata);
+		out.write(CRLF);
+
+		for (Slap slap : result.getSlaps()) {
+			for (int i = 0; i < slap.getSegmentCount(); i++) {
+				ImageData segment = slap.getSegment(i);
+				writePartHeader(out, "application/octet-stream", segment.width * segment.height,
+						"name=\"segment\"; slap=\"" + slap.getName() + "\"; position=\"" + i + "\"; width=\""
+								+ segment.width + "\"; height=\"" + segment.height + "\"");
+				ImageUtils.writeGrayRows(segment, out);
+				out.write(CRLF);
+			}
+		}
+		ascii(out, "--" + boundary + "--");
+		out.write(CRLF);
+		out.flush();
+	}
+
+	private void writePartHeader(OutputStream out, String contentType, int length, String disposition)
+			throws IOException {
+		ascii(out, "--" + boundary + "\r\n");
+		ascii(out, "Content-Type: " + contentType + "\r\n");
+		ascii(out, "Content-Length: " + length + "\r\n");
+		ascii(out, "Content-Disposition: inline; " + disposition + "\r\n\r\n");
+	}
+
+	private static void ascii(OutputStream out, String s) throws IOException {
+		out.write(s.getBytes(StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,80 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * NFIQ scores of recently scored segments, keyed by a hash of their pixels, so
+ * that a retried request or a re-encoded result does not pay for the native
+ * scoring again. Only the visible pixels are hashed, top row first, so the
+ * same finger keeps its score whatever the row padding or order of the
+ * buffer. The least recently used scores make room when the cache is full.
+ */
+@Component
+public class NfiqCache {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final int maxEntries;
+	/* Scores in access order, guarded by this. */
+	private final LinkedHashMap<Long, Integer> scores;
+
+	public NfiqCache(@Value("${ib.nfiq.cache-size:1024}") final int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.scores = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * The score stored for the given content hash, or 0 if there is none.
+	 */
+	public synchronized int get(long hash) {
+		Integer score = scores.get(hash);
+		return score == null ? 0 : score;
+	}
+
+	/**
+	 * Remember a score; scores of 0, meaning not scored, are not stored.
+	 */
+	public synchronized void put(long hash, int score) {
+		if (score > 0 && maxEntries > 0) {
+			scores.put(hash, score);
+		}
+	}
+
+	public synchronized int size() {
+		return scores.size();
+	}
+
+	/**
+	 * 64-bit FNV-1a over the size of the image and its visible pixels, top row
+	 * first.
+	 */
+	public static long contentHash(ImageData image) {
+		int stride = image.pitch == 0 ? image.width : Math.abs(image.pitch);
+		int row = image.pitch < 0 ? (image.height - 1) * stride : 0;
+		int step = image.pitch < 0 ? -stride : stride;
+		long hash = FNV_OFFSET;
+		hash = (hash ^ image.width) * FNV_PRIME;
+		hash = (hash ^ image.height) * FNV_PRIME;
+		byte[] pixels = image.buffer;
+		for (int y = 0; y < image.height; y++, row += step) {
+			for (int x = row, end = row + image.width; x < end; x++) {
+				hash = (hash ^ (pixels[x] & 0xff)) * FNV_PRIME;
+			}
+		}
+		return hash;
+	}
+}
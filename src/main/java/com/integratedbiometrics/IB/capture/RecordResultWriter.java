@@ -0,0 +1,105 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.integratedbiometrics.ibscancommon.IBCommon.FingerPosition;
+import com.integratedbiometrics.ibscancommon.IBCommon.ImpressionType;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+import kojak.com.sample.FingerRecordWriter;
+import kojak.com.sample.WsqCodec;
+
+/**
+ * Writes a capture as standard finger records (ISO/IEC 19794-4 or
+ * ANSI/NIST-ITL Type-4/Type-14) with WSQ compressed images, for clients that
+ * feed an AFIS. Segments are assumed to follow the slap from left to right as
+ * printed, so a right slap runs from index to little finger and a left slap
+ * from little finger to index; a slap with fewer segments than fingers
+ * expected gets unknown positions rather than guessed ones.
+ * <p>
+ * The fingers are WSQ compressed in parallel on the given executor, normally
+ * the bounded pool of the {@link SlapEncoder}, while the earlier records are
+ * being written. Each compression is recorded as the
+ * {@link CaptureMetrics#ENCODING} phase.
+ */
+public class RecordResultWriter implements StreamingResponseBody {
+
+	private static final FingerPosition[] RIGHT = { FingerPosition.RIGHT_INDEX_FINGER,
+			FingerPosition.RIGHT_MIDDLE_FINGER, FingerPosition.RIGHT_RING_FINGER, FingerPosition.RIGHT_LITTLE_FINGER };
+	private static final FingerPosition[] LEFT = { FingerPosition.LEFT_LITTLE_FINGER, FingerPosition.LEFT_RING_FINGER,
+			FingerPosition.LEFT_MIDDLE_FINGER, FingerPosition.LEFT_INDEX_FINGER };
+	private static final FingerPosition[] THUMBS = { FingerPosition.LEFT_THUMB, FingerPosition.RIGHT_THUMB };
+
+	private final CaptureResult result;
+	private final FingerRecordWriter writer;
+
+	public RecordResultWriter(CaptureResult result, FingerRecordWriter.Standard standard, Executor encoder,
+			final CaptureMetrics metrics) {
+		this.result = result;
+		final String device = result.getDeviceSerial();
+		final String imageType = result.getImageTypeName();
+		WsqCodec wsq = new WsqCodec(WsqCodec.DEFAULT_BITRATE, false) {
+			@Override
+			public byte[] encode(ImageData image) throws IOException {
+				long start = System.nanoTime();
+				try {
+					return super.encode(image);
+				} finally {
+					metrics.record(CaptureMetrics.ENCODING, device, imageType, System.nanoTime() - start);
+				}
+			}
+		};
+		this.writer = new FingerRecordWriter(standard, FingerRecordWriter.Compression.WSQ, wsq, true, 1,
+				FingerRecordWriter.DEFAULT_SOURCE_AGENCY, encoder);
+	}
+
+	public MediaType getContentType() {
+		return MediaType.parseMediaType(writer.getStandard().getMediaType());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		writer.write(fingersOf(result), Channels.newChannel(out));
+		out.flush();
+	}
+
+	/**
+	 * The segments of every slap with their finger positions.
+	 */
+	static List<FingerRecordWriter.Finger> fingersOf(CaptureResult result) {
+		List<FingerRecordWriter.Finger> fingers = new ArrayList<FingerRecordWriter.Finger>();
+		for (Slap slap : result.getSlaps()) {
+			FingerPosition[] positions = positionsOf(slap.getName());
+			ImpressionType impression = slap.getImageType() == IBScanDevice.ImageType.ROLL_SINGLE_FINGER
+					? ImpressionType.LIVE_SCAN_ROLLED : ImpressionType.LIVE_SCAN_PLAIN;
+			for (int i = 0; i < slap.getSegmentCount(); i++) {
+				FingerPosition position = positions.length == slap.getSegmentCount() ? positions[i]
+						: FingerPosition.UNKNOWN;
+				fingers.add(new FingerRecordWriter.Finger(slap.getSegment(i), position, impression, slap.getNfiq(i)));
+			}
+		}
+		return fingers;
+	}
+
+	private static FingerPosition[] positionsOf(String slapName) {
+		switch (slapName) {
+		case "right":
+			return RIGHT;
+		case "left":
+			return LEFT;
+		case "thumbs":
+			return THUMBS;
+		default:
+			return new FingerPosition[0];
+		}
+	}
+}
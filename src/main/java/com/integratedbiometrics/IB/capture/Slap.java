@@ -0,0 +1,114 @@
+package com.integratedbiometrics.IB.capture;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.FingerQualityState;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageType;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+
+/**
+ * The result of one capture step: the full image and its segmented fingers.
+ * Segments carry their NFIQ score once they were scored ahead of the
+ * response, and the finger quality the device last
+ * reported for them during the placement.
+ */
+public class Slap {
+
+	private final String name;
+	private final String deviceSerial;
+	private final ImageData image;
+	private final ImageType imageType;
+	private final ImageData[] segments;
+	private final SegmentPosition[] segmentPositions;
+	private final int[] nfiq;
+	private final FingerQualityState[] fingerQuality;
+
+	public Slap(String name, String deviceSerial, ImageData image, ImageType imageType, int detectedFingerCount,
+			ImageData[] segmentImageArray, SegmentPosition[] segmentPositionArray) {
+		this(name, deviceSerial, image, imageType, detectedFingerCount, segmentImageArray, segmentPositionArray, null);
+	}
+
+	/**
+	 * @param fingerQualities the states of the last
+	 *                        <code>deviceFingerQualityChanged</code> callback,
+	 *                        one per finger from left to right like the
+	 *                        segments; may be <code>null</code>
+	 */
+	public Slap(String name, String deviceSerial, ImageData image, ImageType imageType, int detectedFingerCount,
+			ImageData[] segmentImageArray, SegmentPosition[] segmentPositionArray,
+			FingerQualityState[] fingerQualities) {
+		this.name = name;
+		this.deviceSerial = deviceSerial;
+		this.image = image;
+		this.imageType = imageType;
+		int count = Math.min(detectedFingerCount, segmentImageArray == null ? 0 : segmentImageArray.length);
+		this.segments = new ImageData[count];
+		this.segmentPositions = new SegmentPosition[count];
+		this.nfiq = new int[count];
+		this.fingerQuality = new FingerQualityState[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = segmentImageArray[i];
+			segmentPositions[i] = segmentPositionArray != null && i < segmentPositionArray.length
+					? segmentPositionArray[i] : null;
+			fingerQuality[i] = fingerQualities != null && i < fingerQualities.length ? fingerQualities[i] : null;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Serial number of the scanner that captured the slap.
+	 */
+	public String getDeviceSerial() {
+		return deviceSerial;
+	}
+
+	public ImageData getImage() {
+		return image;
+	}
+
+	public ImageType getImageType() {
+		return imageType;
+	}
+
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	public ImageData getSegment(int i) {
+		return segments[i];
+	}
+
+	public SegmentPosition getSegmentPosition(int i) {
+		return segmentPositions[i];
+	}
+
+	/**
+	 * NFIQ score between 1 and 5, or 0 if the segment was not scored.
+	 */
+	public int getNfiq(int i) {
+		return nfiq[i];
+	}
+
+	void setNfiq(int i, int score) {
+		nfiq[i] = score;
+	}
+
+	/**
+	 * The NFIQ score on the 0-100, higher-is-better scale of the legacy
+	 * <code>"quality"</code> response field: 100 for NFIQ 1 down to 20 for
+	 * NFIQ 5, or 0 if the segment was not scored.
+	 */
+	public int getQuality(int i) {
+		return nfiq[i] > 0 ? (6 - nfiq[i]) * 20 : 0;
+	}
+
+	/**
+	 * Quality state the device last reported for the finger of this segment,
+	 * or <code>null</code> if none was reported.
+	 */
+	public FingerQualityState getFingerQuality(int i) {
+		return fingerQuality[i];
+	}
+}
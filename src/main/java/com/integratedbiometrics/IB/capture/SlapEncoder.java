@@ -0,0 +1,107 @@
+package com.integratedbiometrics.IB.capture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.integratedbiometrics.IB.device.DeviceExecutor;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+
+/**
+ * NFIQ-scores captured slaps off the device callback thread, so a capture
+ * sequence can start the next placement while the previous one is still being
+ * processed, and encodes their segments for responses. The segments of a slap
+ * are spread over a fixed pool of workers,
+ * and scores are looked up in the {@link NfiqCache} first; only the native
+ * scoring of a cache miss runs on the device's {@link DeviceExecutor}, between
+ * the other calls made to the device.
+ * <p>
+ * Finger record responses WSQ compress their segments in parallel on the same
+ * pool ({@link #getExecutor()}), so encoding is bounded together with scoring.
+ * JSON and multipart responses need no separate encoding step: they stream
+ * the pixels as they are written.
+ */
+@Component
+public class SlapEncoder {
+
+	private static final Logger LOG = Logger.getLogger(SlapEncoder.class.getName());
+
+	private final ExecutorService executor;
+	private final CaptureMetrics metrics;
+	private final NfiqCache nfiqCache;
+
+	public SlapEncoder(CaptureMetrics metrics, NfiqCache nfiqCache, @Value("${ib.encoding.threads:0}") int threads) {
+		this.metrics = metrics;
+		this.nfiqCache = nfiqCache;
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(
+				threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+					Thread t = new Thread(r, "slap-encoder-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/**
+	 * Score every segment of the slap with the device's NFIQ implementation.
+	 * Segments are processed in parallel and written back at their own index,
+	 * so segment order and positions are kept. A segment that cannot be scored
+	 * keeps a score of 0; without a device only cached scores are used. The
+	 * device may begin its next capture while the slap is being scored.
+	 * <p>
+	 * Never blocks the calling thread.
+	 */
+	public CompletableFuture<Slap> encode(final Slap slap, final IBScanDevice device) {
+		final long start = System.nanoTime();
+		CompletableFuture<?>[] segments = new CompletableFuture<?>[slap.getSegmentCount()];
+		for (int i = 0; i < segments.length; i++) {
+			final int index = i;
+			segments[i] = CompletableFuture.supplyAsync(() -> NfiqCache.contentHash(slap.getSegment(index)), executor)
+					.thenCompose(hash -> scoreSegment(slap, index, hash, device));
+		}
+		return CompletableFuture.allOf(segments).thenApply(done -> {
+			metrics.record(CaptureMetrics.SCORING, slap.getDeviceSerial(), slap.getImageType(),
+					System.nanoTime() - start);
+			return slap;
+		});
+	}
+
+	private CompletableFuture<Void> scoreSegment(Slap slap, int i, long hash, IBScanDevice device) {
+		int cached = nfiqCache.get(hash);
+		if (cached > 0 || device == null) {
+			slap.setNfiq(i, cached);
+			return CompletableFuture.completedFuture(null);
+		}
+		return CompletableFuture.runAsync(() -> {
+			try {
+				int score = device.calculateNfiqScore(slap.getSegment(i));
+				nfiqCache.put(hash, score);
+				slap.setNfiq(i, score);
+			} catch (IBScanException ex) {
+				LOG.log(Level.WARNING, "NFIQ not available for " + slap.getName() + " segment " + i, ex);
+			}
+		}, DeviceExecutor.forDevice(device));
+	}
+
+	/**
+	 * The bounded pool that segments are scored and encoded on.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,136 @@
+package com.integratedbiometrics.IB.controller;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.integratedbiometrics.IB.capture.CaptureJobStore;
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureRejectedException;
+import com.integratedbiometrics.IB.capture.CaptureScheduler;
+import com.integratedbiometrics.IB.capture.CaptureSession;
+import com.integratedbiometrics.IB.capture.CaptureSessionRegistry;
+import com.integratedbiometrics.IB.capture.SlapEncoder;
+
+/**
+ * Asynchronous capture API: <code>POST /captures</code> starts a capture and
+ * returns its job ID, <code>GET /captures/{id}</code> polls or long-polls for
+ * the result. A client that retries with the same "sessionId" gets the
+ * existing job instead of a second physical capture.
+ */
+@RestController
+public class CaptureJobController {
+
+	private static final Logger LOG = Logger.getLogger(CaptureJobController.class.getName());
+
+	@Autowired
+	private CaptureSessionRegistry sessionRegistry;
+
+	@Autowired
+	private CaptureScheduler captureScheduler;
+
+	@Autowired
+	private CaptureMetrics captureMetrics;
+
+	@Autowired
+	private SlapEncoder slapEncoder;
+
+	@Autowired
+	private CaptureJobStore jobStore;
+
+	@Value("${ib.capture.timeout:30000}")
+	private long defaultTimeout;
+
+	@Value("${ib.capture.max-timeout:120000}")
+	private long maxTimeout;
+
+	@PostMapping(value = "/captures")
+	public ResponseEntity<StreamingResponseBody> start(@RequestBody String request, HttpServletRequest httpRequest) {
+		try {
+			JSONObject jsonrequest = (JSONObject) new JSONParser().parse(request);
+			Object sessionId = jsonrequest.get("sessionId");
+			CaptureSession session = new CaptureSession(sessionId == null ? null : sessionId.toString(),
+					jsonrequest.get("name").toString(), CaptureResponses.clientOf(httpRequest));
+
+			CaptureSession existing = jobStore.putIfAbsent(session);
+			if (existing != null) {
+				return CaptureResponses.json(status(existing), HttpStatus.OK);
+			}
+			try {
+				sessionRegistry.register(session);
+			} catch (IllegalStateException e) {
+				// Never started: a retry with the same ID must not find this job
+				jobStore.remove(session);
+				session.fail(e);
+				throw e;
+			}
+			try {
+				captureScheduler.submit(session, CaptureResponses.timeoutOf(jsonrequest, defaultTimeout, maxTimeout));
+			} catch (CaptureRejectedException e) {
+				// Not admitted: a retry with the same ID must not find this job
+				jobStore.remove(session);
+				return CaptureResponses.rejected(e);
+			}
+			return CaptureResponses.json(status(session), HttpStatus.ACCEPTED);
+		} catch (IllegalStateException e) {
+			return CaptureResponses.json(CaptureResponses.failure(e.getMessage()), HttpStatus.SERVICE_UNAVAILABLE);
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Invalid capture request", e);
+			return CaptureResponses.json(CaptureResponses.failure(e.toString()), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * The job result once finished; while running, its status (202). With
+	 * <code>wait</code> the request is held up to that many milliseconds for
+	 * the result.
+	 */
+	@GetMapping(value = "/captures/{id}")
+	public DeferredResult<ResponseEntity<StreamingResponseBody>> get(@PathVariable String id,
+			@RequestParam(value = "wait", defaultValue = "0") long wait,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		final CaptureSession session = jobStore.get(id);
+		final DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>(
+				wait > 0 ? Math.min(wait, maxTimeout) : null);
+		if (session == null) {
+			result.setResult(CaptureResponses.json(CaptureResponses.failure("unknown capture " + id),
+					HttpStatus.NOT_FOUND));
+		} else if (session.isDone() || wait > 0) {
+			result.onTimeout(() -> result.setResult(CaptureResponses.json(status(session), HttpStatus.ACCEPTED)));
+			session.getResult().whenComplete(
+					(captureResult, ex) -> result.setResult(
+							CaptureResponses.outcome(captureResult, ex, accept, captureMetrics, slapEncoder)));
+		} else {
+			result.setResult(CaptureResponses.json(status(session), HttpStatus.ACCEPTED));
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject status(CaptureSession session) {
+		JSONObject json = new JSONObject();
+		json.put("id", session.getId());
+		json.put("hand", session.getHand());
+		json.put("state", !session.isDone() ? "pending"
+				: session.getResult().isCompletedExceptionally() ? "failed" : "done");
+		return json;
+	}
+}
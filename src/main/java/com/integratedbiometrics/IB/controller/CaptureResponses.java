@@ -0,0 +1,131 @@
+package com.integratedbiometrics.IB.controller;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureRejectedException;
+import com.integratedbiometrics.IB.capture.CaptureResult;
+import com.integratedbiometrics.IB.capture.JsonResultWriter;
+import com.integratedbiometrics.IB.capture.MultipartResultWriter;
+import com.integratedbiometrics.IB.capture.RecordResultWriter;
+import com.integratedbiometrics.IB.capture.SlapEncoder;
+
+import kojak.com.sample.FingerRecordWriter;
+
+/**
+ * Response rendering shared by the capture endpoints.
+ */
+final class CaptureResponses {
+
+	static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+	private CaptureResponses() {
+	}
+
+	static boolean wantsMultipart(String accept) {
+		return accept != null && accept.contains(MultipartResultWriter.MULTIPART_MIXED.toString());
+	}
+
+	/**
+	 * Render a finished capture: the result in the format the
+	 * <code>Accept</code> header asks for (standard finger records, multipart
+	 * or JSON), or a JSON failure. Finger records are encoded on the encoder's
+	 * pool.
+	 */
+	static ResponseEntity<StreamingResponseBody> outcome(CaptureResult captureResult, Throwable ex, String accept,
+			CaptureMetrics metrics, SlapEncoder encoder) {
+		FingerRecordWriter.Standard standard = FingerRecordWriter.Standard.forAccept(accept);
+		if (ex != null) {
+			Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			if (cause instanceof CaptureRejectedException) {
+				return rejected((CaptureRejectedException) cause);
+			}
+			return json(failure(cause.toString()), statusFor(cause));
+		} else if (standard != null) {
+			RecordResultWriter writer = new RecordResultWriter(captureResult, standard, encoder.getExecutor(),
+					metrics);
+			return ResponseEntity.ok().contentType(writer.getContentType()).body(
+					metrics.timed(writer, captureResult.getDeviceSerial(), captureResult.getImageTypeName()));
+		} else if (wantsMultipart(accept)) {
+			MultipartResultWriter writer = new MultipartResultWriter(captureResult);
+			return ResponseEntity.ok().contentType(writer.getContentType()).body(
+					metrics.timed(writer, captureResult.getDeviceSerial(), captureResult.getImageTypeName()));
+		} else {
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(metrics.timed(
+					new JsonResultWriter(captureResult, metrics), captureResult.getDeviceSerial(),
+					captureResult.getImageTypeName()));
+		}
+	}
+
+	/* Small JSON status bodies, written by the same streaming path as results. */
+	static ResponseEntity<StreamingResponseBody> json(JSONObject body, HttpStatus status) {
+		StreamingResponseBody writer = out -> {
+			Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			body.writeJSONString(w);
+			w.flush();
+		};
+		return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(writer);
+	}
+
+	/**
+	 * A capture that was not admitted: 429 when the client is over its own
+	 * limit, 503 when the shared queue is full, both with Retry-After.
+	 */
+	static ResponseEntity<StreamingResponseBody> rejected(CaptureRejectedException ex) {
+		ResponseEntity<StreamingResponseBody> response = json(failure(ex.getMessage()),
+				ex.isClientLimit() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE);
+		return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders())
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds())).body(response.getBody());
+	}
+
+	/**
+	 * The caller that admission control counts a request against: the
+	 * <code>X-Client-Id</code> header if sent, else the remote address.
+	 */
+	static String clientOf(HttpServletRequest request) {
+		String clientId = request.getHeader(CLIENT_ID_HEADER);
+		return clientId != null && !clientId.isEmpty() ? clientId : request.getRemoteAddr();
+	}
+
+	/* Scanner unavailable or busy states are reported as 503, cancelled captures as 504, anything else as 500. */
+	static HttpStatus statusFor(Throwable cause) {
+		if (cause instanceof IllegalStateException) {
+			return HttpStatus.SERVICE_UNAVAILABLE;
+		} else if (cause instanceof CancellationException) {
+			return HttpStatus.GATEWAY_TIMEOUT;
+		}
+		return HttpStatus.INTERNAL_SERVER_ERROR;
+	}
+
+	@SuppressWarnings("unchecked")
+	static JSONObject failure(String error) {
+		JSONObject json = new JSONObject();
+		json.put("status", false);
+		json.put("error", error);
+		return json;
+	}
+
+	/**
+	 * The "timeout" of a request body in milliseconds, or the default; never
+	 * more than the maximum, so a client cannot hold a request and its
+	 * capture slot indefinitely.
+	 */
+	static long timeoutOf(JSONObject json, long defaultTimeout, long maxTimeout) {
+		Object timeout = json.get("timeout");
+		long value = timeout == null ? defaultTimeout : Long.parseLong(timeout.toString());
+		return Math.min(value > 0 ? value : defaultTimeout, maxTimeout);
+	}
+}
@@ -1,34 +1,88 @@
 package com.integratedbiometrics.IB.controller;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import kojak.com.sample.InvokeDevice;
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureRejectedException;
+import com.integratedbiometrics.IB.capture.CaptureSession;
+import com.integratedbiometrics.IB.capture.CaptureSessionRegistry;
+import com.integratedbiometrics.IB.capture.CaptureScheduler;
+import com.integratedbiometrics.IB.capture.SlapEncoder;
 
 @RestController
 
 public class IbScanController {
-	public static JSONObject response;
-	public static JSONObject jsonrequest;
+
+	@Autowired
+	private CaptureSessionRegistry sessionRegistry;
+
+	@Autowired
+	private CaptureScheduler captureScheduler;
+
+	@Autowired
+	private CaptureMetrics captureMetrics;
+
+	@Autowired
+	private SlapEncoder slapEncoder;
+
+	/* Deadline used when the client does not send a "timeout" (in milliseconds). */
+	@Value("${ib.capture.timeout:30000}")
+	private long defaultTimeout;
+
+	/* Longest "timeout" a client may ask for (in milliseconds). */
+	@Value("${ib.capture.max-timeout:120000}")
+	private long maxTimeout;
 
 	@RequestMapping(value = "/getImage")
-	public ResponseEntity<?> getImage(@  RequestBody String request) {
+	public DeferredResult<ResponseEntity<StreamingResponseBody>> getImage(@  RequestBody String request,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+			HttpServletRequest httpRequest) {
+		JSONObject jsonrequest;
+		long timeout;
 		try {
-			JSONParser parser = new JSONParser();
-			jsonrequest = (JSONObject) parser.parse(request);
-			new InvokeDevice().captureImages(jsonrequest.get("name").toString());
-
-			Thread.sleep(5000);
+			jsonrequest = (JSONObject) new JSONParser().parse(request);
+			timeout = CaptureResponses.timeoutOf(jsonrequest, defaultTimeout, maxTimeout);
 		} catch (Exception e) {
-			// TODO Auto-generated catch blockFG
 			e.printStackTrace();
+			DeferredResult<ResponseEntity<StreamingResponseBody>> invalid = new DeferredResult<>();
+			invalid.setResult(CaptureResponses.json(CaptureResponses.failure(e.toString()), HttpStatus.BAD_REQUEST));
+			return invalid;
+		}
+		final DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>(timeout);
+		try {
+			Object sessionId = jsonrequest.get("sessionId");
+			final CaptureSession session = sessionRegistry.register(new CaptureSession(
+					sessionId == null ? null : sessionId.toString(), jsonrequest.get("name").toString(),
+					CaptureResponses.clientOf(httpRequest)));
 
+			result.onTimeout(() -> {
+				result.setResult(CaptureResponses.json(CaptureResponses.failure("timeout"), HttpStatus.GATEWAY_TIMEOUT));
+				captureScheduler.cancel(session);
+			});
+			captureScheduler.submit(session);
+			session.getResult().whenComplete(
+					(captureResult, ex) -> result.setResult(
+							CaptureResponses.outcome(captureResult, ex, accept, captureMetrics, slapEncoder)));
+		} catch (CaptureRejectedException e) {
+			result.setResult(CaptureResponses.rejected(e));
+		} catch (Exception e) {
+			e.printStackTrace();
+			result.setResult(CaptureResponses.json(CaptureResponses.failure(e.toString()), HttpStatus.BAD_REQUEST));
 		}
-		return new ResponseEntity<>(response, HttpStatus.OK);
+		return result;
 	}
-}
\ No newline at end of file
+}
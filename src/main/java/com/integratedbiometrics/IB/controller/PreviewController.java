@@ -0,0 +1,27 @@
+package com.integratedbiometrics.IB.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.integratedbiometrics.IB.preview.PreviewHub;
+
+@RestController
+public class PreviewController {
+
+	@Autowired
+	private PreviewHub previewHub;
+
+	/**
+	 * Server-Sent Events stream of "frame" events, each a base64 grayscale JPEG
+	 * of the session's live preview. The stream completes with the capture.
+	 */
+	@RequestMapping(value = "/preview/{sessionId}", produces = "text/event-stream")
+	public SseEmitter preview(@PathVariable String sessionId,
+			@RequestParam(value = "fps", defaultValue = "10") double fps) {
+		return previewHub.subscribe(sessionId, fps);
+	}
+}
@@ -0,0 +1,130 @@
+package com.integratedbiometrics.IB.device;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+
+/**
+ * Runs the native calls of one device one at a time, in submission order. The
+ * SDK does not promise that a device handle is reentrant, so capture control,
+ * NFIQ scoring and preview zooming all go through the executor of their device
+ * ({@link #forDevice(Object)}) instead of calling the device directly. Work
+ * that does not touch the device, such as hashing or JPEG encoding, stays on
+ * the callers' own threads.
+ * <p>
+ * The worker thread exits when the device has been idle for a while, and the
+ * executor is dropped with the device.
+ */
+public class DeviceExecutor implements Executor {
+
+	/* Idle time after which the worker thread exits. */
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static final Map<Object, DeviceExecutor> EXECUTORS = new WeakHashMap<Object, DeviceExecutor>();
+
+	/* The executor whose worker is the current thread, if any. */
+	private static final ThreadLocal<DeviceExecutor> CURRENT = new ThreadLocal<DeviceExecutor>();
+
+	/**
+	 * A native call that may fail with an SDK error.
+	 */
+	public interface Call<T> {
+		T call() throws IBScanException;
+	}
+
+	/**
+	 * A native call without a result.
+	 */
+	public interface Action {
+		void run() throws IBScanException;
+	}
+
+	private final ThreadPoolExecutor worker;
+
+	public DeviceExecutor(final String name) {
+		worker = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "device-" + name);
+					t.setDaemon(true);
+					return t;
+				});
+		worker.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * The executor of the given device, created on first use and dropped with
+	 * the device.
+	 */
+	public static DeviceExecutor forDevice(Object device) {
+		synchronized (EXECUTORS) {
+			DeviceExecutor executor = EXECUTORS.get(device);
+			if (executor == null) {
+				executor = new DeviceExecutor(String.valueOf(device));
+				EXECUTORS.put(device, executor);
+			}
+			return executor;
+		}
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		worker.execute(() -> {
+			CURRENT.set(this);
+			try {
+				command.run();
+			} finally {
+				CURRENT.remove();
+			}
+		});
+	}
+
+	/**
+	 * Like {@link #call(Call)}, for calls without a result.
+	 */
+	public void run(final Action action) throws IBScanException {
+		call(() -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Run a native call on the device's worker and wait for its result. A call
+	 * made from the worker itself runs at once, so device code may nest calls.
+	 * The wait is not interruptible: the native call cannot be abandoned
+	 * half-way anyway.
+	 */
+	public <T> T call(final Call<T> call) throws IBScanException {
+		if (CURRENT.get() == this) {
+			return call.call();
+		}
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		execute(() -> {
+			try {
+				result.complete(call.call());
+			} catch (Throwable ex) {
+				result.completeExceptionally(ex);
+			}
+		});
+		try {
+			return result.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IBScanException) {
+				throw (IBScanException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw ex;
+		}
+	}
+}
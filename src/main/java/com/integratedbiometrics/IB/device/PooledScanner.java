@@ -0,0 +1,91 @@
+package com.integratedbiometrics.IB.device;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.integratedbiometrics.ibscanultimate.IBScan;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+
+import kojak.com.sample.InvokeDevice;
+
+/**
+ * An opened scanner owned by the {@link ScannerPool}, together with the
+ * listener that routes its callbacks to capture sessions.
+ */
+public class PooledScanner {
+
+	private final int index;
+	private final IBScan.DeviceDesc description;
+	private final InvokeDevice invokeDevice;
+	/* isCaptureAvailable() answers, which do not change while the device is open. */
+	private final ConcurrentMap<String, Boolean> captureModes = new ConcurrentHashMap<String, Boolean>();
+
+	PooledScanner(int index, IBScan.DeviceDesc description, InvokeDevice invokeDevice) {
+		this.index = index;
+		this.description = description;
+		this.invokeDevice = invokeDevice;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getSerialNumber() {
+		return description.serialNumber;
+	}
+
+	public IBScan.DeviceDesc getDescription() {
+		return description;
+	}
+
+	public IBScanDevice getDevice() {
+		return invokeDevice.getDevice();
+	}
+
+	public InvokeDevice getInvokeDevice() {
+		return invokeDevice;
+	}
+
+	public boolean isHealthy() {
+		return invokeDevice.getDevice().isOpened();
+	}
+
+	/**
+	 * Whether this scanner can capture the given image type and resolution.
+	 */
+	public boolean supports(IBScanDevice.ImageType imageType, IBScanDevice.ImageResolution imageResolution) {
+		String key = imageType.name() + "/" + imageResolution.name();
+		Boolean available = captureModes.get(key);
+		if (available == null) {
+			try {
+				IBScanDevice device = getDevice();
+				available = DeviceExecutor.forDevice(device)
+						.call(() -> device.isCaptureAvailable(imageType, imageResolution));
+			} catch (IBScanException ex) {
+				return false;
+			}
+			captureModes.put(key, available);
+		}
+		return available;
+	}
+
+	/**
+	 * Whether this scanner can capture all of the given image types.
+	 */
+	public boolean supports(Collection<IBScanDevice.ImageType> imageTypes,
+			IBScanDevice.ImageResolution imageResolution) {
+		for (IBScanDevice.ImageType imageType : imageTypes) {
+			if (!supports(imageType, imageResolution)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "scanner[" + index + ", " + description.serialNumber + "]";
+	}
+}
@@ -0,0 +1,390 @@
+package com.integratedbiometrics.IB.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureSessionRegistry;
+import com.integratedbiometrics.IB.capture.SlapEncoder;
+import com.integratedbiometrics.IB.preview.PreviewHub;
+import com.integratedbiometrics.ibscanultimate.IBScan;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+import com.integratedbiometrics.ibscanultimate.IBScanListener;
+
+import kojak.com.sample.InvokeDevice;
+
+/**
+ * Scanners opened once at start-up and kept open across requests. Captures
+ * lease an idle scanner and return it when their session is finished.
+ * <p>
+ * Loading the native library, enumeration and device initialization run on a
+ * background thread so that neither application start nor the first request
+ * waits for them; {@link ScannersHealthIndicator} reports the pool as not
+ * ready until at least one scanner is open and warmed up. Scanners whose
+ * device was closed are re-opened on a background thread as well, retrying
+ * with backoff, and are not leased until they are open again.
+ */
+@Component
+public class ScannerPool implements IBScanListener {
+
+	private static final Logger LOG = Logger.getLogger(ScannerPool.class.getName());
+
+	/* Image types whose availability is looked up while a scanner is opened. */
+	private static final List<IBScanDevice.ImageType> WARM_UP_TYPES = Arrays.asList(
+			IBScanDevice.ImageType.FLAT_FOUR_FINGERS, IBScanDevice.ImageType.FLAT_TWO_FINGERS,
+			IBScanDevice.ImageType.FLAT_SINGLE_FINGER);
+	/* Delay before the first retry of a failed re-open, doubled up to the maximum. */
+	static final long MIN_REOPEN_DELAY = 1000;
+	static final long MAX_REOPEN_DELAY = 60000;
+	/* How long close() waits for a device that is still being opened. */
+	private static final long OPEN_WAIT_MILLIS = 30000;
+
+	private final CaptureSessionRegistry sessionRegistry;
+	private final PreviewHub previewHub;
+	private final SlapEncoder slapEncoder;
+	private final CaptureMetrics metrics;
+	private final List<PooledScanner> scanners = Collections.synchronizedList(new ArrayList<PooledScanner>());
+	/* Idle scanners, least recently used first. */
+	private final ConcurrentLinkedDeque<PooledScanner> idle = new ConcurrentLinkedDeque<PooledScanner>();
+	/* Init progress (0-100) of each device being opened, by device index. */
+	private final Map<Integer, Integer> initProgress = new ConcurrentHashMap<Integer, Integer>();
+	/* Told whenever a re-opened scanner becomes idle. */
+	private final List<Runnable> availabilityListeners = new CopyOnWriteArrayList<Runnable>();
+	private final ScheduledExecutorService reopener = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "scanner-reopen");
+		t.setDaemon(true);
+		return t;
+	});
+	private volatile boolean initializing = true;
+	private volatile boolean closed;
+	private volatile Thread init;
+	private volatile IBScan ibScan;
+
+	@Autowired
+	public ScannerPool(CaptureSessionRegistry sessionRegistry, PreviewHub previewHub, SlapEncoder slapEncoder,
+			CaptureMetrics metrics) {
+		this.sessionRegistry = sessionRegistry;
+		this.previewHub = previewHub;
+		this.slapEncoder = slapEncoder;
+		this.metrics = metrics;
+	}
+
+	@PostConstruct
+	public void start() {
+		Thread init = new Thread(this::open, "scanner-init");
+		init.setDaemon(true);
+		this.init = init;
+		init.start();
+	}
+
+	/**
+	 * Load the SDK and open every attached scanner. Runs on the init thread
+	 * started by {@link #start()}.
+	 */
+	public void open() {
+		try {
+			IBScan ibScan = IBScan.getInstance();
+			ibScan.setScanListener(this);
+			this.ibScan = ibScan;
+			int deviceCount = ibScan.getDeviceCount();
+			for (int i = 0; i < deviceCount && !closed; i++) {
+				PooledScanner scanner = openScanner(i);
+				if (scanner != null && !add(scanner)) {
+					close(scanner);
+				}
+			}
+			LOG.info("Scanner pool opened " + scanners.size() + " of " + deviceCount + " device(s)");
+		} catch (IBScanException ex) {
+			LOG.log(Level.SEVERE, "Could not enumerate scanners", ex);
+		} catch (LinkageError err) {
+			// Native IBScanUltimate libraries are not installed on this host
+			LOG.log(Level.WARNING, "IBScanUltimate library not available, scanner pool is empty", err);
+		} finally {
+			initializing = false;
+		}
+	}
+
+	/* Add an opened scanner to the pool as idle, unless the pool has been closed. */
+	boolean add(PooledScanner scanner) {
+		synchronized (scanners) {
+			if (closed) {
+				return false;
+			}
+			scanners.add(scanner);
+		}
+		idle.add(scanner);
+		return true;
+	}
+
+	/* Open and warm up the device at the index, or return null if it cannot be opened. */
+	PooledScanner openScanner(int index) {
+		try {
+			IBScan.DeviceDesc description = ibScan.getDeviceDescription(index);
+			initProgress.put(index, 0);
+			long start = System.nanoTime();
+			IBScanDevice device = ibScan.openDevice(index);
+			metrics.record(CaptureMetrics.OPEN, description.serialNumber, CaptureMetrics.NONE,
+					System.nanoTime() - start);
+			InvokeDevice invokeDevice = new InvokeDevice(sessionRegistry, previewHub, slapEncoder, metrics,
+					description.serialNumber, device);
+			invokeDevice.warmUp();
+			PooledScanner scanner = new PooledScanner(index, description, invokeDevice);
+			// Prime the capture mode cache so the first capture does not query the device
+			for (IBScanDevice.ImageType imageType : WARM_UP_TYPES) {
+				scanner.supports(imageType, IBScanDevice.ImageResolution.RESOLUTION_500);
+			}
+			initProgress.put(index, 100);
+			return scanner;
+		} catch (IBScanException ex) {
+			LOG.log(Level.SEVERE, "Could not open scanner " + index, ex);
+			initProgress.remove(index);
+			return null;
+		}
+	}
+
+	/**
+	 * Take the least recently used idle scanner that supports the requested
+	 * capture modes, without waiting. Scanners whose device has been closed
+	 * (e.g. after a communication break) are skipped and re-opened in the
+	 * background; see {@link #addAvailabilityListener(Runnable)}.
+	 *
+	 * @return a healthy scanner, or <code>null</code> if none is idle
+	 */
+	public PooledScanner tryLease(Collection<IBScanDevice.ImageType> imageTypes,
+			IBScanDevice.ImageResolution imageResolution) {
+		Iterator<PooledScanner> it = idle.iterator();
+		while (it.hasNext()) {
+			PooledScanner scanner = it.next();
+			if (!idle.remove(scanner)) {
+				continue; // leased concurrently
+			}
+			if (!scanner.isHealthy()) {
+				final PooledScanner broken = scanner;
+				try {
+					reopener.execute(() -> reopen(broken, MIN_REOPEN_DELAY));
+				} catch (RejectedExecutionException ex) {
+					// the pool is closing
+				}
+				continue;
+			}
+			if (scanner.supports(imageTypes, imageResolution)) {
+				return scanner;
+			}
+			idle.addFirst(scanner);
+		}
+		return null;
+	}
+
+	/**
+	 * Whether any pooled scanner, idle or not, supports all of the capture modes.
+	 */
+	public boolean isSupported(Collection<IBScanDevice.ImageType> imageTypes,
+			IBScanDevice.ImageResolution imageResolution) {
+		synchronized (scanners) {
+			for (PooledScanner scanner : scanners) {
+				if (scanner.supports(imageTypes, imageResolution)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return a leased scanner to the pool.
+	 */
+	public void release(PooledScanner scanner) {
+		if (scanners.contains(scanner)) {
+			idle.add(scanner);
+		}
+	}
+
+	/**
+	 * Run the listener whenever a scanner that was being re-opened becomes
+	 * idle, so that waiting sessions can be dispatched to it.
+	 */
+	public void addAvailabilityListener(Runnable listener) {
+		availabilityListeners.add(listener);
+	}
+
+	/*
+	 * Replace a broken scanner by a newly opened one. While it cannot be
+	 * opened the broken scanner stays in the pool, not idle, and the re-open
+	 * is retried with a doubling delay. Runs on the reopen thread.
+	 */
+	private void reopen(final PooledScanner broken, final long retryDelay) {
+		if (closed) {
+			return;
+		}
+		PooledScanner scanner = openScanner(broken.getIndex());
+		if (scanner == null) {
+			LOG.warning("Could not re-open " + broken + ", retrying in " + retryDelay + " ms");
+			reopener.schedule(() -> reopen(broken, Math.min(MAX_REOPEN_DELAY, 2 * retryDelay)), retryDelay,
+					TimeUnit.MILLISECONDS);
+			return;
+		}
+		boolean kept;
+		synchronized (scanners) {
+			// not kept if the pool was closed meanwhile
+			kept = !closed && scanners.remove(broken);
+			if (kept) {
+				scanners.add(scanner);
+			}
+		}
+		if (!kept) {
+			close(scanner);
+			return;
+		}
+		idle.add(scanner);
+		for (Runnable listener : availabilityListeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Cancel any capture still running, close every device and unload the
+	 * SDK, so that the next start finds the scanners free.
+	 */
+	public void close() {
+		List<PooledScanner> closing;
+		synchronized (scanners) {
+			closed = true;
+			closing = new ArrayList<PooledScanner>(scanners);
+			scanners.clear();
+		}
+		idle.clear();
+		for (PooledScanner scanner : closing) {
+			close(scanner);
+		}
+		// The library must not be unloaded while a device is still being opened
+		reopener.shutdownNow();
+		boolean opening;
+		try {
+			Thread init = this.init;
+			if (init != null) {
+				init.join(OPEN_WAIT_MILLIS);
+			}
+			opening = init != null && init.isAlive()
+					|| !reopener.awaitTermination(OPEN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			opening = true;
+		}
+		IBScan ibScan = this.ibScan;
+		if (opening) {
+			LOG.warning("A scanner is still being opened, IBScanUltimate is left loaded");
+		} else if (ibScan != null) {
+			try {
+				ibScan.unloadLibrary();
+			} catch (IBScanException ex) {
+				LOG.log(Level.WARNING, "Could not unload IBScanUltimate", ex);
+			}
+		}
+		LOG.info("Scanner pool closed " + closing.size() + " device(s)");
+	}
+
+	/* Close the scanner's device if it is open. */
+	private static void close(PooledScanner scanner) {
+		if (scanner == null) {
+			return;
+		}
+		IBScanDevice device = scanner.getDevice();
+		try {
+			if (device.isOpened()) {
+				DeviceExecutor.forDevice(device).run(() -> {
+					if (device.isCaptureActive()) {
+						device.cancelCaptureImage();
+					}
+					device.close();
+				});
+			}
+		} catch (IBScanException ex) {
+			LOG.log(Level.WARNING, "Could not close " + scanner, ex);
+		}
+	}
+
+	public int size() {
+		return scanners.size();
+	}
+
+	public int idleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Whether the SDK is still being loaded or devices are still being opened.
+	 */
+	public boolean isInitializing() {
+		return initializing;
+	}
+
+	/**
+	 * Whether at least one scanner is open and warmed up.
+	 */
+	public boolean isReady() {
+		synchronized (scanners) {
+			for (PooledScanner scanner : scanners) {
+				if (scanner.isHealthy()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Init progress (0-100) of the devices being opened, by device index.
+	 * Devices still opening are polled with <code>IBScan.getInitProgress</code>
+	 * in addition to the <code>scanDeviceInitProgress</code> callbacks.
+	 */
+	public Map<Integer, Integer> getInitProgress() {
+		IBScan ibScan = this.ibScan;
+		Map<Integer, Integer> progress = new TreeMap<Integer, Integer>(initProgress);
+		if (ibScan != null) {
+			for (Map.Entry<Integer, Integer> entry : progress.entrySet()) {
+				if (entry.getValue() < 100) {
+					try {
+						entry.setValue(Math.max(entry.getValue(), ibScan.getInitProgress(entry.getKey())));
+					} catch (IBScanException ex) {
+						// keep the last reported value
+					}
+				}
+			}
+		}
+		return progress;
+	}
+
+	public void scanDeviceCountChanged(int deviceCount) {
+		LOG.info("scanDeviceCountChanged: " + deviceCount);
+	}
+
+	public void scanDeviceInitProgress(int deviceIndex, int progressValue) {
+		LOG.fine("Device " + deviceIndex + " init progress: " + progressValue);
+		initProgress.put(deviceIndex, progressValue);
+	}
+
+	public void scanDeviceOpenComplete(int deviceIndex, IBScanDevice device, IBScanException exception) {
+		LOG.fine("scanDeviceOpenComplete: " + deviceIndex);
+	}
+}
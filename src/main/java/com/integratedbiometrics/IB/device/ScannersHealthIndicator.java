@@ -0,0 +1,32 @@
+package com.integratedbiometrics.IB.device;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Readiness of the {@link ScannerPool}: down until at least one scanner is
+ * open and warmed up, with the device init progress while starting.
+ */
+@Component
+public class ScannersHealthIndicator implements HealthIndicator {
+
+	private final ScannerPool scannerPool;
+
+	@Autowired
+	public ScannersHealthIndicator(ScannerPool scannerPool) {
+		this.scannerPool = scannerPool;
+	}
+
+	@Override
+	public Health health() {
+		Health.Builder health = scannerPool.isReady() ? Health.up() : Health.down();
+		health.withDetail("state", scannerPool.isInitializing() ? "initializing" : "initialized")
+				.withDetail("scanners", scannerPool.size()).withDetail("idle", scannerPool.idleCount());
+		if (scannerPool.isInitializing()) {
+			health.withDetail("initProgress", scannerPool.getInitProgress());
+		}
+		return health.build();
+	}
+}
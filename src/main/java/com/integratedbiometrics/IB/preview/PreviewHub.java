@@ -0,0 +1,300 @@
+package com.integratedbiometrics.IB.preview;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.integratedbiometrics.IB.device.DeviceExecutor;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+import com.integratedbiometrics.ibscanultimate.ImageConverter;
+
+import kojak.com.sample.FrameBufferPool;
+import kojak.com.sample.FrameScaler;
+
+/**
+ * Fans preview frames of a capture session out to Server-Sent Events
+ * subscribers.
+ * <p>
+ * The SDK callback only stores the newest frame and schedules work; scaling,
+ * JPEG encoding and sending run on a small worker pool. Every stage keeps only
+ * the latest frame, so a slow stage or a slow client drops intermediate frames
+ * instead of queueing them.
+ * <p>
+ * Frames are scaled by {@link FrameScaler} unless <code>ib.preview.scaler</code>
+ * is <code>native</code>, which uses the device's
+ * <code>generateZoomOutImageEx</code> on the device's {@link DeviceExecutor};
+ * <code>FrameScalerBenchmark</code> tells which is faster on a machine.
+ */
+@Component
+public class PreviewHub {
+
+	private static final Logger LOG = Logger.getLogger(PreviewHub.class.getName());
+
+	private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+	private final ExecutorService workers;
+
+	@Value("${ib.preview.width:400}")
+	private int previewWidth;
+
+	@Value("${ib.preview.height:375}")
+	private int previewHeight;
+
+	@Value("${ib.preview.timeout:120000}")
+	private long emitterTimeout;
+
+	@Value("${ib.preview.scaler:java}")
+	private String scaler;
+
+	private final FrameScaler frameScaler = new FrameScaler(FrameScaler.Filter.AREA, false);
+
+	public PreviewHub(@Value("${ib.preview.threads:2}") int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "preview-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Subscribe to the preview frames of a session. The session does not have
+	 * to exist yet, so clients can subscribe before starting the capture.
+	 *
+	 * @param maxFps highest frame rate this client wants; 0 for no cap
+	 */
+	public SseEmitter subscribe(String sessionId, double maxFps) {
+		final SseEmitter emitter = new SseEmitter(emitterTimeout);
+		final Channel channel = channels.computeIfAbsent(sessionId, id -> new Channel(id));
+		final Subscriber subscriber = new Subscriber(emitter, maxFps);
+		channel.subscribers.add(subscriber);
+		Runnable remove = () -> removeSubscriber(channel, subscriber);
+		emitter.onCompletion(remove);
+		emitter.onTimeout(remove);
+		emitter.onError(ex -> removeSubscriber(channel, subscriber));
+		return emitter;
+	}
+
+	/**
+	 * Offer a preview frame. Called on the SDK callback thread; never blocks.
+	 */
+	public void publish(String sessionId, IBScanDevice device, ImageData image) {
+		Channel channel = sessionId == null ? null : channels.get(sessionId);
+		if (channel == null || channel.subscribers.isEmpty()) {
+			return;
+		}
+		channel.latest.set(new RawFrame(device, image));
+		if (channel.encoding.compareAndSet(false, true)) {
+			execute(() -> encode(channel));
+		}
+	}
+
+	/**
+	 * End the streams of a finished session.
+	 */
+	public void complete(String sessionId) {
+		Channel channel = channels.remove(sessionId);
+		if (channel == null) {
+			return;
+		}
+		for (Subscriber subscriber : channel.subscribers) {
+			subscriber.emitter.complete();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	private void removeSubscriber(Channel channel, Subscriber subscriber) {
+		channel.subscribers.remove(subscriber);
+		if (channel.subscribers.isEmpty()) {
+			channels.remove(channel.sessionId, channel);
+		}
+	}
+
+	private void execute(Runnable task) {
+		try {
+			workers.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// shutting down
+		}
+	}
+
+	/*
+	 * Scale and encode the newest raw frame, then hand it to every subscriber
+	 * whose frame-rate cap lets it through. A frame no subscriber is due for
+	 * is dropped before it is scaled.
+	 */
+	private void encode(Channel channel) {
+		try {
+			RawFrame raw;
+			while ((raw = channel.latest.getAndSet(null)) != null) {
+				long now = System.nanoTime();
+				List<Subscriber> due = new ArrayList<Subscriber>(channel.subscribers.size());
+				for (Subscriber subscriber : channel.subscribers) {
+					if (subscriber.isDue(now)) {
+						due.add(subscriber);
+					}
+				}
+				if (due.isEmpty()) {
+					continue;
+				}
+				String frame = toJpegFrame(channel, raw);
+				if (frame == null) {
+					continue;
+				}
+				for (Subscriber subscriber : due) {
+					subscriber.lastAccepted = now;
+					subscriber.pending.set(frame);
+					if (subscriber.sending.compareAndSet(false, true)) {
+						execute(() -> send(channel, subscriber));
+					}
+				}
+			}
+		} finally {
+			channel.encoding.set(false);
+			// a frame may have arrived after the loop ended
+			if (channel.latest.get() != null && channel.encoding.compareAndSet(false, true)) {
+				execute(() -> encode(channel));
+			}
+		}
+	}
+
+	private void send(Channel channel, Subscriber subscriber) {
+		try {
+			String frame;
+			while ((frame = subscriber.pending.getAndSet(null)) != null) {
+				subscriber.emitter.send(SseEmitter.event().name("frame").data(frame));
+			}
+		} catch (IOException | IllegalStateException ex) {
+			// client went away
+			removeSubscriber(channel, subscriber);
+		} finally {
+			subscriber.sending.set(false);
+			if (subscriber.pending.get() != null && subscriber.sending.compareAndSet(false, true)) {
+				execute(() -> send(channel, subscriber));
+			}
+		}
+	}
+
+	/* Downscale and encode as a base64 grayscale JPEG. */
+	private String toJpegFrame(Channel channel, RawFrame raw) {
+		ImageData image = raw.image;
+		int outWidth = Math.min(previewWidth, image.width);
+		int outHeight = Math.min(previewHeight, image.height);
+		BufferedImage gray = channel.image(outWidth, outHeight);
+		byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+		if ("native".equals(scaler)) {
+			if (!zoomNative(raw, pixels, outWidth, outHeight)) {
+				return null;
+			}
+		} else {
+			frameScaler.scale(image, pixels, outWidth, outHeight, (byte) 255);
+		}
+		channel.jpeg.reset();
+		try {
+			ImageIO.write(gray, "jpg", channel.jpeg);
+		} catch (IOException ex) {
+			LOG.log(Level.FINE, "Could not encode preview frame", ex);
+			return null;
+		}
+		return Base64.getEncoder().encodeToString(channel.jpeg.toByteArray());
+	}
+
+	/* Downscale with the SDK. */
+	private static boolean zoomNative(RawFrame raw, byte[] pixels, int outWidth, int outHeight) {
+		ImageData image = raw.image;
+		// bottom-up frames are zoomed into a pooled buffer and flipped while copying
+		FrameBufferPool pool = FrameBufferPool.forDevice(raw.device);
+		byte[] zoomed = image.pitch < 0 ? pool.borrow(outWidth * outHeight) : pixels;
+		try {
+			DeviceExecutor.forDevice(raw.device).run(() -> raw.device.generateZoomOutImageEx(image.buffer,
+					image.width, image.height, zoomed, outWidth, outHeight, (byte) 255));
+			if (zoomed != pixels) {
+				ImageConverter.copyRows(zoomed, outWidth, outHeight, -outWidth, pixels);
+			}
+			return true;
+		} catch (IBScanException ex) {
+			LOG.log(Level.FINE, "Could not scale preview frame", ex);
+			return false;
+		} finally {
+			if (zoomed != pixels) {
+				pool.release(zoomed);
+			}
+		}
+	}
+
+	private static final class RawFrame {
+		final IBScanDevice device;
+		final ImageData image;
+
+		RawFrame(IBScanDevice device, ImageData image) {
+			this.device = device;
+			this.image = image;
+		}
+	}
+
+	private static final class Channel {
+		final String sessionId;
+		final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+		final AtomicReference<RawFrame> latest = new AtomicReference<RawFrame>();
+		final AtomicBoolean encoding = new AtomicBoolean();
+		/* Scratch state, only touched by the single running encode task. */
+		final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		BufferedImage scratch;
+
+		Channel(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		BufferedImage image(int width, int height) {
+			if (scratch == null || scratch.getWidth() != width || scratch.getHeight() != height) {
+				scratch = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+			}
+			return scratch;
+		}
+	}
+
+	private static final class Subscriber {
+		final SseEmitter emitter;
+		final long minIntervalNanos;
+		final AtomicReference<String> pending = new AtomicReference<String>();
+		final AtomicBoolean sending = new AtomicBoolean();
+		long lastAccepted = Long.MIN_VALUE;
+
+		Subscriber(SseEmitter emitter, double maxFps) {
+			this.emitter = emitter;
+			this.minIntervalNanos = maxFps > 0 ? (long) (1000000000L / maxFps) : 0L;
+		}
+
+		/* Frame-rate cap; only called from the channel's encode task, which sets lastAccepted. */
+		boolean isDue(long now) {
+			return lastAccepted == Long.MIN_VALUE || now - lastAccepted >= minIntervalNanos;
+		}
+	}
+}
@@ -61,14 +61,16 @@
  *                    isFingerDuplicatedNative(), isValidFingerGeometryNative(),
  *                    SaveBitmapImageNative() method.
  *     2019/06/21  Added SetEncryptionKeyNative() method.               
+ *     2026/10/16  ImageData.toImage() and toSaveImage() build 8-bit images in memory
+ *                 instead of reading back a temporary BMP file.
+ *                 ImageData conversions moved to ImageConverter, honouring pitch, format
+ *                 and bitsPerPixel.
  *********************************************************************************************** */
 
 package com.integratedbiometrics.ibscanultimate;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -868,415 +870,50 @@ public class IBScanDevice
         
         /**
          * Create image from the image data.
+         * <p>
+         * The image is built in memory as 8-bit grayscale by <code>ImageConverter</code>,
+         * without a BMP file round trip.
+         * Top-down rows are wrapped without copying, so the image shares <code>outImage</code>;
+         * bottom-up rows (negative <code>pitch</code>) are copied into display order.
          * 
          * @return image if successful; otherwise null
          */
         public BufferedImage toImage(byte[] outImage,int Width,int Height)
         {
-            BufferedImage imageJ = null;
-            final byte bitsPerPixel = 32;
-           
-            int destWidth =Width;
-            int destHeight =Height;
-            int outImageSize=destWidth*destHeight;
-            byte[] imageBmp;
-          
-            int colorTableSize = (bitsPerPixel == 8) ? (256 * 4) : 0;
-            int org_imageSize = destWidth * destHeight;
-            int imageSize = (bitsPerPixel == 8) ? (destWidth * destHeight) : (destWidth * destHeight * 4);
-            int fileSize = imageSize + 54 + colorTableSize;
-            int resolutionXppm = (int) (this.resolutionX * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            int resolutionYppm = (int) (this.resolutionY * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            imageBmp = new byte[fileSize+destWidth*4];
-            // Format bitmap file header.
-            imageBmp[0] = (byte) 'B';
-            imageBmp[1] = (byte) 'M';
-            imageBmp[2] = (byte) ((fileSize >> 0) % 256);
-            imageBmp[3] = (byte) ((fileSize >> 8) % 256);
-            imageBmp[4] = (byte) ((fileSize >> 16) % 256);
-            imageBmp[5] = (byte) ((fileSize >> 24) % 256);
-            imageBmp[6] = imageBmp[7] = imageBmp[8] = imageBmp[9] = 0;
-            imageBmp[10] = (byte) (((54 + colorTableSize) >> 0) % 256);
-            imageBmp[11] = (byte) (((54 + colorTableSize) >> 8) % 256);
-            imageBmp[12] = (byte) (((54 + colorTableSize) >> 16) % 256);
-            imageBmp[13] = (byte) (((54 + colorTableSize) >> 24) % 256);
-
-            // Format bitmap info header.
-            // size of this header (40 bytes)
-            imageBmp[14] = 40; 
-            imageBmp[15] = imageBmp[16] = imageBmp[17] = 0;
-            // bitmap width in pixels
-            imageBmp[18] = (byte) ((destWidth >> 0) % 256);
-            imageBmp[19] = (byte) ((destWidth >> 8) % 256);
-            imageBmp[20] = (byte) ((destWidth >> 16) % 256);
-            imageBmp[21] = (byte) ((destWidth >> 24) % 256);
-            // bitmap height  in pixels
-            imageBmp[22] = (byte) ((destHeight >> 0) % 256);
-            imageBmp[23] = (byte) ((destHeight >> 8) % 256);
-            imageBmp[24] = (byte) ((destHeight >> 16) % 256);
-            imageBmp[25] = (byte) ((destHeight >> 24) % 256);
-            // number of color planes being used. Must be 1.
-            imageBmp[26] = 1; 
-            imageBmp[27] = 0;
-            // number of bits per pixel
-            imageBmp[28] = (byte) bitsPerPixel; 
-            imageBmp[29] = 0;
-            // compression method being used. 0 = BI_RGB
-            imageBmp[30] = imageBmp[31] = imageBmp[32] = imageBmp[33] = 0;
-            // image size
-            imageBmp[34] = (byte) ((imageSize >> 0) % 256);
-            imageBmp[35] = (byte) ((imageSize >> 8) % 256);
-            imageBmp[36] = (byte) ((imageSize >> 16) % 256);
-            imageBmp[37] = (byte) ((imageSize >> 24) % 256);
-            // horizontal resolution of the image. (pixel per meter, signed integer)
-            imageBmp[38] = (byte) ((resolutionXppm >> 0) % 256);
-            imageBmp[39] = (byte) ((resolutionXppm >> 8) % 256);
-            imageBmp[40] = (byte) ((resolutionXppm >> 16) % 256);
-            imageBmp[41] = (byte) ((resolutionXppm >> 24) % 256);
-            // vertical resolution of the image. (pixel per meter, signed integer)
-            imageBmp[42] = (byte) ((resolutionYppm >> 0) % 256);
-            imageBmp[43] = (byte) ((resolutionYppm >> 8) % 256);
-            imageBmp[44] = (byte) ((resolutionYppm >> 16) % 256);
-            imageBmp[45] = (byte) ((resolutionYppm >> 24) % 256);
-            // number of colors in the color palette, or 0 to default to 2^n
-            imageBmp[46] = imageBmp[47] = imageBmp[48] = imageBmp[49] = 0;
-            // number of important colors used, or 0 when every color is important
-            imageBmp[50] = imageBmp[51] = imageBmp[52] = imageBmp[53] = 0; 
-            if (bitsPerPixel == 8)
-            {
-                for (int i = 0; i < 256; i++)
-                {
-                    imageBmp[54 + (i * 4) + 0] =
-                    imageBmp[54 + (i * 4) + 1] =
-                    imageBmp[54 + (i * 4) + 2] = (byte) i;
-                    imageBmp[54 + (i * 4) + 3] = 0;
-                }
-            }
-
-            // Copy image data.
-            if (bitsPerPixel == 8)
-            {
-
-            	System.arraycopy(this.buffer, 0, imageBmp, 54 + colorTableSize, org_imageSize);
-            }
-            else
-            {
-           
-            	for( int y = 0; y < destHeight; y++ )
-                {
-                    for( int x = 0; x < destWidth; x++ )
-                    {
-                    	imageBmp[(14 + y*destWidth+x)*4] = 
-                    	imageBmp[(14 + y*destWidth+x)*4+2] =
-                    	imageBmp[(14 + y*destWidth+x)*4+3] = outImage[y*destWidth+x];//imageS[y*destWidth+x];//this.buffer[y*this.width+x];
-                    	imageBmp[(14 + y*destWidth+x)*4+1] = 0; //0xff, that's the alpha. 
-                    }
-                }
-            }     
-            
-            // Create temporary BMP file to read into an image.
-            try
-            {
-                File temp = File.createTempFile("ibscandevice-", ".bmp");
-                temp.deleteOnExit();
-                
-                if (temp.exists())
-                {
-                    BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
-                    output.write(imageBmp);
-                    output.close();
-    
-                    imageJ = ImageIO.read(temp);
-                }
-            }
-            catch (IOException ioe)
-            {
-                IBScanDevice.logPrintError(getMethodName() + ": Could not create or read temporary image for preview");
-            }
-
-            return (imageJ);
+            return (ImageConverter.toBufferedImage(outImage, Width, Height, (this.pitch < 0) ? -Width : Width,
+                ImageFormat.GRAY, 8));
         }
  
+        /**
+         * Create an 8-bit image from a gray display buffer such as the output of
+         * <code>generateZoomOutImageEx()</code>. Only the sign of <code>pitch</code> is
+         * used: negative marks bottom-up rows of <code>Width</code> bytes.
+         * 
+         * @return image if successful; otherwise null
+         */
         public BufferedImage toImage(byte[] outImage,int Width,int Height ,int pitch)
         {
-            BufferedImage imageJ = null;
-           
-            int destWidth =Width;
-            int destHeight =Height;
-            int outImageSize=destWidth*destHeight;
-            byte[] imageBgr;
-          
-            int org_imageSize = destWidth * destHeight;
-            int imageSize = (destWidth * destHeight * 3);
-            int fileSize = imageSize;
-			int new_y;
-
-			imageBgr = new byte[fileSize];
-            // Copy image data.
-            if (pitch < 0)
-            {
-				// vertical flip     
-            	for( int y = 0; y < destHeight; y++ )
-                {
-					new_y = destHeight-y-1;
-                    for( int x = 0; x < destWidth; x++ )
-                    {
-                    	imageBgr[(new_y*destWidth+x)*3] = 
-                    	imageBgr[(new_y*destWidth+x)*3+1] =
-                    	imageBgr[(new_y*destWidth+x)*3+2] = outImage[y*destWidth+x];
-                    }
-                }
-            }     
-            
-            // Create TYPE_3BYTE_BGR to read into an image.
-            try
-            {
-				imageJ = new BufferedImage(Width, Height, BufferedImage.TYPE_3BYTE_BGR);
-				byte[] imgData = ((DataBufferByte)imageJ.getRaster().getDataBuffer()).getData();
-				System.arraycopy(imageBgr, 0, imgData, 0, imageBgr.length);
-            }
-			catch (Exception e)
-            {
-                IBScanDevice.logPrintError(getMethodName() + ": Could not create or read temporary image for preview");
-            }
-
-            return (imageJ);
+            return (ImageConverter.toBufferedImage(outImage, Width, Height, (pitch < 0) ? -Width : Width,
+                ImageFormat.GRAY, 8));
         }
 
         public BufferedImage toImage()
         {
-            BufferedImage imageJ = null;
-            final byte bitsPerPixel = 32;
-
-            byte[] imageBmp;
-         
-            int colorTableSize = (bitsPerPixel == 8) ? (256 * 4) : 0;
-            int org_imageSize = this.width * this.height;
-            int imageSize = (bitsPerPixel == 8) ? (this.width * this.height) : (this.width * this.height * 4);
-            int fileSize = imageSize + 54 + colorTableSize;
-            int resolutionXppm = (int) (this.resolutionX * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            int resolutionYppm = (int) (this.resolutionY * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            imageBmp = new byte[fileSize+this.width*4];
-
-            // Format bitmap file header.
-            imageBmp[0] = (byte) 'B';
-            imageBmp[1] = (byte) 'M';
-            imageBmp[2] = (byte) ((fileSize >> 0) % 256);
-            imageBmp[3] = (byte) ((fileSize >> 8) % 256);
-            imageBmp[4] = (byte) ((fileSize >> 16) % 256);
-            imageBmp[5] = (byte) ((fileSize >> 24) % 256);
-            imageBmp[6] = imageBmp[7] = imageBmp[8] = imageBmp[9] = 0;
-            imageBmp[10] = (byte) (((54 + colorTableSize) >> 0) % 256);
-            imageBmp[11] = (byte) (((54 + colorTableSize) >> 8) % 256);
-            imageBmp[12] = (byte) (((54 + colorTableSize) >> 16) % 256);
-            imageBmp[13] = (byte) (((54 + colorTableSize) >> 24) % 256);
-
-            // Format bitmap info header.
-            // size of this header (40 bytes)
-            imageBmp[14] = 40; 
-            imageBmp[15] = imageBmp[16] = imageBmp[17] = 0;
-            // bitmap width in pixels
-            imageBmp[18] = (byte) ((this.width >> 0) % 256);
-            imageBmp[19] = (byte) ((this.width >> 8) % 256);
-            imageBmp[20] = (byte) ((this.width >> 16) % 256);
-            imageBmp[21] = (byte) ((this.width >> 24) % 256);
-            // bitmap height  in pixels
-            imageBmp[22] = (byte) ((this.height >> 0) % 256);
-            imageBmp[23] = (byte) ((this.height >> 8) % 256);
-            imageBmp[24] = (byte) ((this.height >> 16) % 256);
-            imageBmp[25] = (byte) ((this.height >> 24) % 256);
-            // number of color planes being used. Must be 1.
-            imageBmp[26] = 1; 
-            imageBmp[27] = 0;
-            // number of bits per pixel
-            imageBmp[28] = (byte) bitsPerPixel; 
-            imageBmp[29] = 0;
-            // compression method being used. 0 = BI_RGB
-            imageBmp[30] = imageBmp[31] = imageBmp[32] = imageBmp[33] = 0;
-            // image size
-            imageBmp[34] = (byte) ((imageSize >> 0) % 256);
-            imageBmp[35] = (byte) ((imageSize >> 8) % 256);
-            imageBmp[36] = (byte) ((imageSize >> 16) % 256);
-            imageBmp[37] = (byte) ((imageSize >> 24) % 256);
-            // horizontal resolution of the image. (pixel per meter, signed integer)
-            imageBmp[38] = (byte) ((resolutionXppm >> 0) % 256);
-            imageBmp[39] = (byte) ((resolutionXppm >> 8) % 256);
-            imageBmp[40] = (byte) ((resolutionXppm >> 16) % 256);
-            imageBmp[41] = (byte) ((resolutionXppm >> 24) % 256);
-            // vertical resolution of the image. (pixel per meter, signed integer)
-            imageBmp[42] = (byte) ((resolutionYppm >> 0) % 256);
-            imageBmp[43] = (byte) ((resolutionYppm >> 8) % 256);
-            imageBmp[44] = (byte) ((resolutionYppm >> 16) % 256);
-            imageBmp[45] = (byte) ((resolutionYppm >> 24) % 256);
-            // number of colors in the color palette, or 0 to default to 2^n
-            imageBmp[46] = imageBmp[47] = imageBmp[48] = imageBmp[49] = 0;
-            // number of important colors used, or 0 when every color is important
-            imageBmp[50] = imageBmp[51] = imageBmp[52] = imageBmp[53] = 0; 
-            if (bitsPerPixel == 8)
-            {
-                for (int i = 0; i < 256; i++)
-                {
-                    imageBmp[54 + (i * 4) + 0] =
-                    imageBmp[54 + (i * 4) + 1] = 
-                    imageBmp[54 + (i * 4) + 2] = (byte) i;
-                    imageBmp[54 + (i * 4) + 3] = 0;
-                }
-            }
-
-            // Copy image data.
-            if (bitsPerPixel == 8)
-            {
-            	System.arraycopy(this.buffer, 0, imageBmp, 54 + colorTableSize, org_imageSize);
-            }
-            else
-            {
-                for( int y = 0; y < this.height; y++ )
-                {
-                    for( int x = 0; x < this.width; x++ )
-                    {
-                    	imageBmp[(14 + y*this.width+x)*4] = 
-                    	imageBmp[(14 + y*this.width+x)*4+2] =
-                    	imageBmp[(14 + y*this.width+x)*4+3] = this.buffer[y*this.width+x];
-                    	imageBmp[(14 + y*this.width+x)*4+1] = 0; //0xff, that's the alpha. 
-                    }
-                }
-            	
-            }     
-            
-            // Create temporary BMP file to read into an image.
-            try
-            {
-                File temp = File.createTempFile("ibscandevice-", ".bmp");
-                temp.deleteOnExit();
-                
-                if (temp.exists())
-                {
-                    BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
-                    output.write(imageBmp);
-                    output.close();
-    
-                    imageJ = ImageIO.read(temp);
-                }
-            }
-            catch (IOException ioe)
-            {
-                IBScanDevice.logPrintError(getMethodName() + ": Could not create or read temporary image for preview");
-            }
-
-            return (imageJ);
+            return (ImageConverter.toBufferedImage(this));
         }
         
-        //
         /**
          * Create image from the image data.
+         * <p>
+         * Like <code>toImage()</code>, the image is built in memory by
+         * <code>ImageConverter</code>, keeps the depth of the image data and may share
+         * <code>buffer</code>.
          * 
          * @return image if successful; otherwise null
          */
         public BufferedImage toSaveImage()
         {
-            BufferedImage imageJ = null;
-            final byte bitsPerPixel = 8;
-
-            int colorTableSize = (bitsPerPixel == 8) ? (256 * 4) : 0;
-            int org_imageSize = this.width * this.height;
-            int imageSize = (bitsPerPixel == 8) ? (this.width * this.height) : (this.width * this.height * 4);
-            int fileSize = imageSize + 54 + colorTableSize;
-            int resolutionXppm = (int) (this.resolutionX * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            int resolutionYppm = (int) (this.resolutionY * 2.54 * 100.0); // convert from pixels/inch to pixels/meter
-            byte[] imageBmp = new byte[fileSize+this.width*4];
-
-            // Format bitmap file header.
-            imageBmp[0] = (byte) 'B';
-            imageBmp[1] = (byte) 'M';
-            imageBmp[2] = (byte) ((fileSize >> 0) % 256);
-            imageBmp[3] = (byte) ((fileSize >> 8) % 256);
-            imageBmp[4] = (byte) ((fileSize >> 16) % 256);
-            imageBmp[5] = (byte) ((fileSize >> 24) % 256);
-            imageBmp[6] = imageBmp[7] = imageBmp[8] = imageBmp[9] = 0;
-            imageBmp[10] = (byte) (((54 + colorTableSize) >> 0) % 256);
-            imageBmp[11] = (byte) (((54 + colorTableSize) >> 8) % 256);
-            imageBmp[12] = (byte) (((54 + colorTableSize) >> 16) % 256);
-            imageBmp[13] = (byte) (((54 + colorTableSize) >> 24) % 256);
-
-            // Format bitmap info header.
-            // size of this header (40 bytes)
-            imageBmp[14] = 40; 
-            imageBmp[15] = imageBmp[16] = imageBmp[17] = 0;
-            // bitmap width in pixels
-            imageBmp[18] = (byte) ((this.width >> 0) % 256);
-            imageBmp[19] = (byte) ((this.width >> 8) % 256);
-            imageBmp[20] = (byte) ((this.width >> 16) % 256);
-            imageBmp[21] = (byte) ((this.width >> 24) % 256);
-            // bitmap height  in pixels
-            imageBmp[22] = (byte) ((this.height >> 0) % 256);
-            imageBmp[23] = (byte) ((this.height >> 8) % 256);
-            imageBmp[24] = (byte) ((this.height >> 16) % 256);
-            imageBmp[25] = (byte) ((this.height >> 24) % 256);
-            // number of color planes being used. Must be 1.
-            imageBmp[26] = 1; 
-            imageBmp[27] = 0;
-            // number of bits per pixel
-            imageBmp[28] = (byte) bitsPerPixel; 
-            imageBmp[29] = 0;
-            // compression method being used. 0 = BI_RGB
-            imageBmp[30] = imageBmp[31] = imageBmp[32] = imageBmp[33] = 0;
-            // image size
-            imageBmp[34] = (byte) ((imageSize >> 0) % 256);
-            imageBmp[35] = (byte) ((imageSize >> 8) % 256);
-            imageBmp[36] = (byte) ((imageSize >> 16) % 256);
-            imageBmp[37] = (byte) ((imageSize >> 24) % 256);
-            // horizontal resolution of the image. (pixel per meter, signed integer)
-            imageBmp[38] = (byte) ((resolutionXppm >> 0) % 256);
-            imageBmp[39] = (byte) ((resolutionXppm >> 8) % 256);
-            imageBmp[40] = (byte) ((resolutionXppm >> 16) % 256);
-            imageBmp[41] = (byte) ((resolutionXppm >> 24) % 256);
-            // vertical resolution of the image. (pixel per meter, signed integer)
-            imageBmp[42] = (byte) ((resolutionYppm >> 0) % 256);
-            imageBmp[43] = (byte) ((resolutionYppm >> 8) % 256);
-            imageBmp[44] = (byte) ((resolutionYppm >> 16) % 256);
-            imageBmp[45] = (byte) ((resolutionYppm >> 24) % 256);
-            // number of colors in the color palette, or 0 to default to 2^n
-            imageBmp[46] = imageBmp[47] = imageBmp[48] = imageBmp[49] = 0;
-            // number of important colors used, or 0 when every color is important
-            imageBmp[50] = imageBmp[51] = imageBmp[52] = imageBmp[53] = 0; 
-            if (bitsPerPixel == 8)
-            {
-                for (int i = 0; i < 256; i++)
-                {
-                    imageBmp[54 + (i * 4) + 0] =
-                        imageBmp[54 + (i * 4) + 1] = imageBmp[54 + (i * 4) + 2] = (byte) i;
-                    imageBmp[54 + (i * 4) + 3] = 0;
-                }
-            }
-
-            // Copy image data.
-            if (bitsPerPixel == 8)
-            {
-            	System.arraycopy(this.buffer, 0, imageBmp, 54 + colorTableSize, org_imageSize);
-            }
-      
-            
-            // Create temporary BMP file to read into an image.
-            try
-            {
-                File temp = File.createTempFile("ibscandevice-", ".bmp");
-                temp.deleteOnExit();
-                
-                if (temp.exists())
-                {
-                    BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
-                    output.write(imageBmp);
-                    output.close();
-    
-                    imageJ = ImageIO.read(temp);
-                }
-            }
-            catch (IOException ioe)
-            {
-                IBScanDevice.logPrintError(getMethodName() + ": Could not create or read temporary image for preview");
-            }
-
-            return (imageJ);
+            return (ImageConverter.toBufferedImage(this));
         }
         
         /**
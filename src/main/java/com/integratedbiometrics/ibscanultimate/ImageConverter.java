@@ -0,0 +1,146 @@
+/* *************************************************************************************************
+ * ImageConverter.java
+ *
+ * DESCRIPTION:
+ *     Conversion of IBScanUltimate image buffers to Java images
+ *     http://www.integratedbiometrics.com
+ *
+ * HISTORY:
+ *     2026/10/16  First version.
+ ************************************************************************************************ */
+
+package com.integratedbiometrics.ibscanultimate;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Converts image buffers to <code>BufferedImage</code> without changing their depth: 8-bit
+ * gray stays 8-bit (<code>TYPE_BYTE_GRAY</code>), 24-bit and 32-bit color keep their
+ * byte layout. Rows stored top-down are wrapped without copying; rows stored bottom-up
+ * (negative pitch) are copied into display order one row at a time.
+ */
+public final class ImageConverter
+{
+    private static final ColorModel GRAY = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {8}, false, true,
+        Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private static final ColorModel RGB = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[] {8, 8, 8}, false, true,
+        Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private ImageConverter()
+    {
+    }
+
+    /**
+     * Create an image from scanner image data, honouring its pitch, format and bits per pixel.
+     * 
+     * @return image if successful; otherwise null
+     */
+    public static BufferedImage toBufferedImage(IBScanDevice.ImageData image)
+    {
+        return (toBufferedImage(image.buffer, image.width, image.height, image.pitch,
+            image.format, image.bitsPerPixel));
+    }
+
+    /**
+     * Create an image from raw pixel rows.
+     * 
+     * @param pixels        the pixel rows
+     * @param width         image width in pixels
+     * @param height        image height in pixels
+     * @param pitch         row stride in bytes; negative for bottom-up rows, 0 for packed
+     *                      top-down rows
+     * @param format        the color format, or <code>null</code> to derive it from
+     *                      <code>bitsPerPixel</code>
+     * @param bitsPerPixel  8 (gray), 24 (BGR) or 32 (BGRX)
+     * @return image if successful; otherwise null
+     */
+    public static BufferedImage toBufferedImage(byte[] pixels, int width, int height, int pitch,
+        IBScanDevice.ImageFormat format, int bitsPerPixel)
+    {
+        int bytesPerPixel = bytesPerPixel(format, bitsPerPixel);
+        if ((pixels == null) || (width <= 0) || (height <= 0) || (bytesPerPixel == 0))
+        {
+            return (null);
+        }
+
+        int rowBytes = width * bytesPerPixel;
+        int stride   = (pitch == 0) ? rowBytes : Math.abs(pitch);
+        if ((stride < rowBytes) || (pixels.length < stride * (height - 1) + rowBytes))
+        {
+            return (null);
+        }
+
+        if (pitch < 0)
+        {
+            // Bottom-up: copy rows into top-down order
+            byte[] flipped = new byte[rowBytes * height];
+            copyRows(pixels, rowBytes, height, pitch, flipped);
+            pixels = flipped;
+            stride = rowBytes;
+        }
+
+        int[] bandOffsets = (bytesPerPixel == 1) ? new int[] {0} : new int[] {2, 1, 0};
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(pixels, pixels.length),
+            width, height, stride, bytesPerPixel, bandOffsets, null);
+        return (new BufferedImage((bytesPerPixel == 1) ? GRAY : RGB, raster, false, null));
+    }
+
+    /**
+     * Copy rows into packed top-down order, one <code>System.arraycopy</code> per row, e.g.
+     * into the pixel array of a reused <code>TYPE_BYTE_GRAY</code> image.
+     * 
+     * @param pixels    the source rows
+     * @param rowBytes  bytes per row to copy
+     * @param height    number of rows
+     * @param pitch     source row stride in bytes; negative for bottom-up rows, 0 for packed rows
+     * @param dest      receives <code>rowBytes * height</code> bytes
+     */
+    public static void copyRows(byte[] pixels, int rowBytes, int height, int pitch, byte[] dest)
+    {
+        int stride = (pitch == 0) ? rowBytes : Math.abs(pitch);
+        for (int y = 0; y < height; y++)
+        {
+            int srcRow = (pitch < 0) ? height - 1 - y : y;
+            System.arraycopy(pixels, srcRow * stride, dest, y * rowBytes, rowBytes);
+        }
+    }
+
+    /* Bytes per pixel for the supported layouts; 0 if unsupported. */
+    private static int bytesPerPixel(IBScanDevice.ImageFormat format, int bitsPerPixel)
+    {
+        if (format == IBScanDevice.ImageFormat.GRAY)
+        {
+            return (1);
+        }
+        if (format == IBScanDevice.ImageFormat.RGB24)
+        {
+            return (3);
+        }
+        if (format == IBScanDevice.ImageFormat.RGB32)
+        {
+            return (4);
+        }
+        switch (bitsPerPixel)
+        {
+            case 8:
+                return (1);
+            case 24:
+                return (3);
+            case 32:
+                return (4);
+            default:
+                return (0);
+        }
+    }
+}
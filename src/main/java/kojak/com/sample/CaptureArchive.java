@@ -0,0 +1,744 @@
+package kojak.com.sample;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageFormat;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+
+/**
+ * An append-only store for captured images. Each record holds the encoded
+ * image together with the <code>ImageData</code> metadata, the segment
+ * positions and the NFIQ scores, and is appended to the current segment file
+ * (<code>segment-000001.dat</code>, ...) until that reaches the segment size.
+ * Records are keyed by session, finger and format; appending a key again
+ * replaces the earlier record for lookups.
+ * <p>
+ * Lookups go through <code>index.dat</code>, a memory-mapped open-addressing
+ * table of record locations, so finding a record costs one probe and one read
+ * of its header whatever the size of the archive. Image bytes are read with
+ * {@link #transferTo(Record, WritableByteChannel)}, which lets the kernel copy
+ * them from the segment to the target without passing through the heap.
+ * <p>
+ * Appends are not synced; call {@link #force()} to make them durable. The
+ * index remembers how far it has indexed, so records that were appended but
+ * not indexed before a crash are indexed again on open, and a torn record at
+ * the end of the last segment is cut off.
+ */
+public class CaptureArchive implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(CaptureArchive.class.getName());
+
+    /** Size at which a segment file is closed and the next one started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final int VERSION = 1;
+
+    /* Segment file: magic, version, then records. */
+    private static final int SEGMENT_MAGIC = 0x49424341; // "IBCA"
+    private static final int SEGMENT_HEADER = 8;
+
+    /*
+     * Record: magic, header length, payload length and CRC-32 of everything
+     * after the CRC, then the key and metadata, then the payload.
+     */
+    private static final int RECORD_MAGIC = 0x49424352; // "IBCR"
+    private static final int RECORD_PREFIX = 20;
+
+    /*
+     * Index: magic, version, slot count, used slots, then the segment and
+     * offset up to which records have been indexed, then the slots. A slot is
+     * the key hash (0 if empty), segment, header length, record offset and
+     * payload length.
+     */
+    private static final int INDEX_MAGIC = 0x49424349; // "IBCI"
+    private static final int INDEX_HEADER = 64;
+    private static final int SLOT = 32;
+    private static final int INITIAL_SLOTS = 1 << 14;
+
+    private final Path directory;
+    private final long segmentSize;
+    /* Every segment, opened on first read; the last one is also appended to. */
+    private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<Integer, FileChannel>();
+
+    /* Guarded by this. */
+    private int segment;
+    private long end;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int slots;
+    private int used;
+    private boolean closed = false;
+
+    public CaptureArchive(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the archive in <code>directory</code>, creating it if needed.
+     *
+     * @param segmentSize size at which a new segment file is started; a record
+     *                    larger than this gets a segment of its own
+     */
+    public CaptureArchive(Path directory, long segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        List<Integer> numbers = segmentNumbers();
+        if (numbers.isEmpty()) {
+            numbers.add(1);
+            createSegment(1);
+        }
+        if (!openIndex()) {
+            createIndex(INITIAL_SLOTS, numbers.get(0), SEGMENT_HEADER);
+        }
+        recover(numbers);
+        segment = numbers.get(numbers.size() - 1);
+        end = channel(segment).size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Append a record. The payload is read from its position to its limit and
+     * left unchanged.
+     *
+     * @param payload   the encoded image
+     * @param positions segment positions of the image, or null
+     * @param nfiq      NFIQ scores of its fingers, or null
+     * @return the record as stored
+     */
+    public synchronized Record append(String session, String finger, ImageExport.Format format, ImageData image,
+            SegmentPosition[] positions, int[] nfiq, ByteBuffer payload) throws IOException {
+        if (closed) {
+            throw new IOException("Capture archive is closed");
+        }
+        Record record = new Record(session, finger, format, image, positions, nfiq, payload.remaining());
+        ByteBuffer header = record.header();
+        CRC32 crc = new CRC32();
+        header.position(RECORD_PREFIX);
+        crc.update(header);
+        crc.update(payload.duplicate());
+        header.putInt(16, (int) crc.getValue());
+        header.rewind();
+
+        long length = header.remaining() + record.payloadLength;
+        if (end > SEGMENT_HEADER && end + length > segmentSize) {
+            channel(segment).force(false);
+            createSegment(segment + 1);
+            segment++;
+            end = SEGMENT_HEADER;
+        }
+        FileChannel channel = channel(segment);
+        channel.position(end);
+        ByteBuffer[] data = { header, payload.duplicate() };
+        while (data[0].hasRemaining() || data[1].hasRemaining()) {
+            channel.write(data);
+        }
+        record.locate(segment, end);
+        end += length;
+
+        put(record);
+        setIndexed(segment, end);
+        return record;
+    }
+
+    /**
+     * The latest record appended for the key, or <code>null</code> if there is
+     * none.
+     */
+    public synchronized Record find(String session, String finger, ImageExport.Format format) throws IOException {
+        byte[][] key = key(session, finger, format);
+        long hash = hash(key);
+        int mask = slots - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            int slot = INDEX_HEADER + i * SLOT;
+            long h = index.getLong(slot);
+            if (h == 0) {
+                return null;
+            }
+            if (h == hash) {
+                Record record = read(slot);
+                if (record != null && record.hasKey(key)) {
+                    return record;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the image bytes of a record to <code>target</code> without staging
+     * them on the heap.
+     *
+     * @return the number of bytes copied
+     */
+    public long transferTo(Record record, WritableByteChannel target) throws IOException {
+        FileChannel channel = channel(record.segment);
+        long position = record.getPayloadOffset();
+        long remaining = record.payloadLength;
+        while (remaining > 0) {
+            long n = channel.transferTo(position, remaining, target);
+            if (n <= 0) {
+                throw new EOFException("Capture archive record is truncated");
+            }
+            position += n;
+            remaining -= n;
+        }
+        return record.payloadLength;
+    }
+
+    /**
+     * Copy the image bytes of the latest record for the key to
+     * <code>target</code>.
+     *
+     * @return the number of bytes copied, or -1 if there is no such record
+     */
+    public long transferTo(String session, String finger, ImageExport.Format format, WritableByteChannel target)
+            throws IOException {
+        Record record = find(session, finger, format);
+        return record == null ? -1 : transferTo(record, target);
+    }
+
+    /**
+     * Number of keys in the archive.
+     */
+    public synchronized int size() {
+        return used;
+    }
+
+    /**
+     * Make everything appended so far durable.
+     */
+    public synchronized void force() throws IOException {
+        channel(segment).force(false);
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            force();
+        } finally {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+            indexChannel.close();
+        }
+    }
+
+    private List<Integer> segmentNumbers() throws IOException {
+        List<Integer> numbers = new ArrayList<Integer>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length())));
+                } catch (NumberFormatException ex) {
+                    LOG.warning("Ignoring " + file + " in capture archive");
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("segment-%06d.dat", number));
+    }
+
+    private void createSegment(int number) throws IOException {
+        FileChannel channel = FileChannel.open(segmentFile(number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        header.putInt(SEGMENT_MAGIC).putInt(VERSION).flip();
+        channel.write(header, 0);
+        segments.put(number, channel);
+    }
+
+    private FileChannel channel(int number) throws IOException {
+        FileChannel channel = segments.get(number);
+        if (channel == null) {
+            synchronized (segments) {
+                channel = segments.get(number);
+                if (channel == null) {
+                    channel = FileChannel.open(segmentFile(number), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                    segments.put(number, channel);
+                }
+            }
+        }
+        return channel;
+    }
+
+    /*
+     * Index the records appended after the index was last updated, and cut off
+     * whatever follows the last complete record.
+     */
+    private void recover(List<Integer> numbers) throws IOException {
+        int from = index.getInt(16);
+        long offset = index.getLong(24);
+        for (int number : numbers) {
+            if (number < from) {
+                continue;
+            }
+            FileChannel channel = channel(number);
+            long position = number == from ? offset : SEGMENT_HEADER;
+            if (position > channel.size()) {
+                position = SEGMENT_HEADER;
+            }
+            Record record;
+            while ((record = scan(number, position)) != null) {
+                put(record);
+                position = record.getPayloadOffset() + record.payloadLength;
+            }
+            if (position < channel.size()) {
+                LOG.warning("Truncating capture archive segment " + number + " at " + position);
+                channel.truncate(position);
+            }
+            setIndexed(number, position);
+        }
+    }
+
+    /* The complete, intact record at the position, or null. */
+    private Record scan(int number, long position) throws IOException {
+        FileChannel channel = channel(number);
+        long size = channel.size();
+        if (position + RECORD_PREFIX > size) {
+            return null;
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX);
+        readFully(channel, prefix, position);
+        int headerLength = prefix.getInt(4);
+        long payloadLength = prefix.getLong(8);
+        if (prefix.getInt(0) != RECORD_MAGIC || headerLength < RECORD_PREFIX || payloadLength < 0
+                || position + headerLength + payloadLength > size) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        for (long p = position + RECORD_PREFIX, last = position + headerLength + payloadLength; p < last;) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), last - p));
+            readFully(channel, chunk, p);
+            crc.update(chunk.array(), 0, chunk.limit());
+            p += chunk.limit();
+        }
+        if ((int) crc.getValue() != prefix.getInt(16)) {
+            return null;
+        }
+        return read(number, position, headerLength);
+    }
+
+    /* The record a slot points to, or null if the slot is stale. */
+    private Record read(int slot) throws IOException {
+        return read(index.getInt(slot + 8), index.getLong(slot + 16), index.getInt(slot + 12));
+    }
+
+    private Record read(int number, long position, int headerLength) throws IOException {
+        FileChannel channel = channel(number);
+        if (position + headerLength > channel.size()) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        readFully(channel, header, position);
+        if (header.getInt(0) != RECORD_MAGIC || header.getInt(4) != headerLength) {
+            return null;
+        }
+        Record record = new Record(header);
+        record.locate(number, position);
+        return record;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Capture archive record is truncated");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private boolean openIndex() throws IOException {
+        Path file = directory.resolve(INDEX_FILE);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size >= INDEX_HEADER) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int count = map.getInt(8);
+            if (map.getInt(0) == INDEX_MAGIC && map.getInt(4) == VERSION && count > 0
+                    && Integer.bitCount(count) == 1 && size == INDEX_HEADER + (long) count * SLOT) {
+                indexChannel = channel;
+                index = map;
+                slots = count;
+                used = map.getInt(12);
+                return true;
+            }
+        }
+        channel.close();
+        LOG.warning("Rebuilding capture archive index in " + directory);
+        return false;
+    }
+
+    /* Start an empty index that has indexed nothing before the given offset. */
+    private void createIndex(int count, int from, long offset) throws IOException {
+        Path file = directory.resolve(INDEX_FILE);
+        Files.deleteIfExists(file);
+        indexChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        index = mapIndex(indexChannel, count);
+        slots = count;
+        used = 0;
+        setIndexed(from, offset);
+    }
+
+    private static MappedByteBuffer mapIndex(FileChannel channel, int count) throws IOException {
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) count * SLOT);
+        map.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(8, count).putInt(12, 0);
+        return map;
+    }
+
+    private void setIndexed(int number, long offset) {
+        index.putInt(16, number).putLong(24, offset);
+    }
+
+    private void put(Record record) throws IOException {
+        if ((used + 1) * 4L > slots * 3L) {
+            grow();
+        }
+        byte[][] key = record.key();
+        long hash = hash(key);
+        int mask = slots - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            int slot = INDEX_HEADER + i * SLOT;
+            long h = index.getLong(slot);
+            if (h == 0) {
+                used++;
+                index.putInt(12, used);
+                writeSlot(index, slot, hash, record);
+                return;
+            }
+            if (h == hash) {
+                Record old = read(slot);
+                if (old == null || old.hasKey(key)) {
+                    writeSlot(index, slot, hash, record);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void writeSlot(ByteBuffer map, int slot, long hash, Record record) {
+        map.putInt(slot + 8, record.segment).putInt(slot + 12, record.headerLength)
+                .putLong(slot + 16, record.offset).putLong(slot + 24, record.payloadLength);
+        map.putLong(slot, hash);
+    }
+
+    /*
+     * Double the table into a new file, which then replaces the index. Keys
+     * are unique already, so slots are copied without reading records.
+     */
+    private void grow() throws IOException {
+        int count = slots * 2;
+        Path file = directory.resolve(INDEX_FILE + ".new");
+        Files.deleteIfExists(file);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer map = mapIndex(channel, count);
+        int mask = count - 1;
+        for (int i = 0; i < slots; i++) {
+            int from = INDEX_HEADER + i * SLOT;
+            long hash = index.getLong(from);
+            if (hash == 0) {
+                continue;
+            }
+            int to = INDEX_HEADER + ((int) hash & mask) * SLOT;
+            while (map.getLong(to) != 0) {
+                to = to + SLOT < map.capacity() ? to + SLOT : INDEX_HEADER;
+            }
+            for (int b = 8; b < SLOT; b += 8) {
+                map.putLong(to + b, index.getLong(from + b));
+            }
+            map.putLong(to, hash);
+        }
+        map.putInt(12, used).putInt(16, index.getInt(16)).putLong(24, index.getLong(24));
+        map.force();
+        Files.move(file, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        indexChannel.close();
+        indexChannel = channel;
+        index = map;
+        slots = count;
+    }
+
+    private static byte[][] key(String session, String finger, ImageExport.Format format) {
+        return new byte[][] { session.getBytes(StandardCharsets.UTF_8), finger.getBytes(StandardCharsets.UTF_8),
+                format.getSuffix().getBytes(StandardCharsets.UTF_8) };
+    }
+
+    /* 64-bit FNV-1a over the key parts, never 0, which marks a free slot. */
+    private static long hash(byte[][] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte[] part : key) {
+            for (byte b : part) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0xff) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * A record's key and metadata, and where its image bytes are stored.
+     */
+    public static final class Record {
+        private final String session;
+        private final String finger;
+        private final ImageExport.Format format;
+        private final int width;
+        private final int height;
+        private final double resolutionX;
+        private final double resolutionY;
+        private final double frameTime;
+        private final int pitch;
+        private final short bitsPerPixel;
+        private final ImageFormat imageFormat;
+        private final boolean isFinal;
+        private final int processThres;
+        private final int[] positions;
+        private final int[] nfiq;
+        private final long payloadLength;
+        private int headerLength;
+        private int segment;
+        private long offset;
+
+        Record(String session, String finger, ImageExport.Format format, ImageData image,
+                SegmentPosition[] positions, int[] nfiq, long payloadLength) {
+            this.session = session;
+            this.finger = finger;
+            this.format = format;
+            this.width = image.width;
+            this.height = image.height;
+            this.resolutionX = image.resolutionX;
+            this.resolutionY = image.resolutionY;
+            this.frameTime = image.frameTime;
+            this.pitch = image.pitch;
+            this.bitsPerPixel = image.bitsPerPixel;
+            this.imageFormat = image.format == null ? ImageFormat.UNKNOWN : image.format;
+            this.isFinal = image.isFinal;
+            this.processThres = image.processThres;
+            this.positions = new int[positions == null ? 0 : positions.length * 8];
+            for (int i = 0, j = 0; j < this.positions.length; i++) {
+                SegmentPosition p = positions[i];
+                this.positions[j++] = p.x1;
+                this.positions[j++] = p.y1;
+                this.positions[j++] = p.x2;
+                this.positions[j++] = p.y2;
+                this.positions[j++] = p.x3;
+                this.positions[j++] = p.y3;
+                this.positions[j++] = p.x4;
+                this.positions[j++] = p.y4;
+            }
+            this.nfiq = nfiq == null ? new int[0] : nfiq.clone();
+            this.payloadLength = payloadLength;
+        }
+
+        Record(ByteBuffer header) {
+            this.headerLength = header.getInt(4);
+            this.payloadLength = header.getLong(8);
+            header.position(RECORD_PREFIX);
+            this.session = getString(header);
+            this.finger = getString(header);
+            this.format = ImageExport.Format.forSuffix(getString(header));
+            this.width = header.getInt();
+            this.height = header.getInt();
+            this.resolutionX = header.getDouble();
+            this.resolutionY = header.getDouble();
+            this.frameTime = header.getDouble();
+            this.pitch = header.getInt();
+            this.bitsPerPixel = header.getShort();
+            this.imageFormat = ImageFormat.valueOf(getString(header));
+            this.isFinal = header.get() != 0;
+            this.processThres = header.getInt();
+            this.positions = new int[header.getInt() * 8];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = header.getInt();
+            }
+            this.nfiq = new int[header.getInt()];
+            for (int i = 0; i < nfiq.length; i++) {
+                nfiq[i] = header.getInt();
+            }
+        }
+
+        /* The serialized header, with the CRC left to the caller. */
+        ByteBuffer header() {
+            byte[][] key = key();
+            byte[] imageFormatName = imageFormat.name().getBytes(StandardCharsets.UTF_8);
+            int length = RECORD_PREFIX + 2 * 4 + key[0].length + key[1].length + key[2].length
+                    + imageFormatName.length + 3 * 4 + 3 * 8 + 2 + 1 + 4 + 4 + positions.length * 4 + 4
+                    + nfiq.length * 4;
+            ByteBuffer header = ByteBuffer.allocate(length);
+            header.putInt(RECORD_MAGIC).putInt(length).putLong(payloadLength).putInt(0);
+            for (byte[] part : key) {
+                header.putShort((short) part.length).put(part);
+            }
+            header.putInt(width).putInt(height).putDouble(resolutionX).putDouble(resolutionY).putDouble(frameTime)
+                    .putInt(pitch).putShort(bitsPerPixel);
+            header.putShort((short) imageFormatName.length).put(imageFormatName);
+            header.put((byte) (isFinal ? 1 : 0)).putInt(processThres);
+            header.putInt(positions.length / 8);
+            for (int v : positions) {
+                header.putInt(v);
+            }
+            header.putInt(nfiq.length);
+            for (int v : nfiq) {
+                header.putInt(v);
+            }
+            headerLength = length;
+            header.flip();
+            return header;
+        }
+
+        private static String getString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        byte[][] key() {
+            return CaptureArchive.key(session, finger, format);
+        }
+
+        boolean hasKey(byte[][] key) {
+            byte[][] own = key();
+            for (int i = 0; i < own.length; i++) {
+                if (!Arrays.equals(own[i], key[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void locate(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        public String getSession() {
+            return session;
+        }
+
+        public String getFinger() {
+            return finger;
+        }
+
+        public ImageExport.Format getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public double getResolutionX() {
+            return resolutionX;
+        }
+
+        public double getResolutionY() {
+            return resolutionY;
+        }
+
+        public double getFrameTime() {
+            return frameTime;
+        }
+
+        public int getPitch() {
+            return pitch;
+        }
+
+        public short getBitsPerPixel() {
+            return bitsPerPixel;
+        }
+
+        public ImageFormat getImageFormat() {
+            return imageFormat;
+        }
+
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        public int getProcessThres() {
+            return processThres;
+        }
+
+        public int getSegmentPositionCount() {
+            return positions.length / 8;
+        }
+
+        /**
+         * The i-th segment position as x1, y1, x2, y2, x3, y3, x4, y4.
+         */
+        public int[] getSegmentPosition(int i) {
+            return Arrays.copyOfRange(positions, i * 8, i * 8 + 8);
+        }
+
+        /**
+         * NFIQ scores stored with the record, one per finger.
+         */
+        public int[] getNfiq() {
+            return nfiq.clone();
+        }
+
+        /** Length of the image bytes. */
+        public long getPayloadLength() {
+            return payloadLength;
+        }
+
+        /** Segment file holding the record. */
+        public int getSegment() {
+            return segment;
+        }
+
+        /** Offset of the image bytes in the segment file. */
+        public long getPayloadOffset() {
+            return offset + headerLength;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package kojak.com.sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.integratedbiometrics.ibscancommon.IBCommon.FingerPosition;
+import com.integratedbiometrics.ibscancommon.IBCommon.ImpressionType;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * Writes finger images as standard records for AFIS exchange: one ISO/IEC
+ * 19794-4:2005 finger image record holding every finger, or one ANSI/NIST-ITL
+ * Type-4 or Type-14 record per finger. Only the finger records are written;
+ * an ANSI/NIST transaction also needs the Type-1 (and usually Type-2) record
+ * of the caller.
+ * <p>
+ * Pixels go straight from the <code>ImageData</code> buffers into the record,
+ * either as top-down 8-bit rows or WSQ compressed, and records are written to
+ * the channel as soon as their image is packed. With <code>parallel</code>
+ * set, the fingers of a record set (e.g. a ten-print) are packed concurrently
+ * on the given executor, the common fork/join pool by default, while the
+ * earlier ones are being written.
+ */
+public class FingerRecordWriter {
+
+    public enum Standard {
+        ISO_19794_4("application/x-iso-19794-4"),
+        ANSI_NIST_TYPE_4("application/x-ansi-nist-type-4"),
+        ANSI_NIST_TYPE_14("application/x-ansi-nist-type-14");
+
+        private final String mediaType;
+
+        Standard(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        /** Media type used when records are served over HTTP. */
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * The standard whose media type an <code>Accept</code> header asks for,
+         * or <code>null</code>.
+         */
+        public static Standard forAccept(String accept) {
+            if (accept != null) {
+                for (Standard standard : values()) {
+                    if (accept.contains(standard.mediaType)) {
+                        return standard;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Compression {
+        /** Top-down 8-bit rows without padding. */
+        NONE,
+        /** WSQ at the codec's bit rate. */
+        WSQ
+    }
+
+    /** Agency identifier written to Type-14 records unless another is given. */
+    public static final String DEFAULT_SOURCE_AGENCY = "IBSCAN";
+
+    /* ISO/IEC 19794-4 general and finger image header lengths. */
+    private static final int ISO_HEADER = 32;
+    private static final int ISO_FINGER_HEADER = 14;
+    /* ANSI/NIST-ITL Type-4 fixed header length. */
+    private static final int TYPE_4_HEADER = 18;
+    /* Nominal Type-4 scanning resolution and the tolerance the standard allows. */
+    private static final double TYPE_4_PPI = 500;
+    private static final double TYPE_4_TOLERANCE = 0.01;
+
+    private static final byte FS = 0x1c;
+    private static final byte GS = 0x1d;
+    private static final byte US = 0x1f;
+
+    private final Standard standard;
+    private final Compression compression;
+    private final WsqCodec wsq;
+    private final boolean parallel;
+    private final int firstIdc;
+    private final String sourceAgency;
+    private final Executor packer;
+
+    /**
+     * A writer packing fingers in parallel, with a sequential WSQ codec at the
+     * default bit rate, IDCs from 1 and the default source agency.
+     */
+    public FingerRecordWriter(Standard standard, Compression compression) {
+        this(standard, compression, new WsqCodec(WsqCodec.DEFAULT_BITRATE, false), true, 1, DEFAULT_SOURCE_AGENCY);
+    }
+
+    /**
+     * @param wsq          codec used for WSQ compression
+     * @param parallel     whether to pack the fingers concurrently
+     * @param firstIdc     information designation character of the first
+     *                     ANSI/NIST record; the following records count up
+     * @param sourceAgency originating agency written to Type-14 records
+     */
+    public FingerRecordWriter(Standard standard, Compression compression, WsqCodec wsq, boolean parallel,
+            int firstIdc, String sourceAgency) {
+        this(standard, compression, wsq, parallel, firstIdc, sourceAgency, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param packer executor the fingers are packed on when packing in
+     *               parallel
+     */
+    public FingerRecordWriter(Standard standard, Compression compression, WsqCodec wsq, boolean parallel,
+            int firstIdc, String sourceAgency, Executor packer) {
+        this.standard = standard;
+        this.compression = compression;
+        this.wsq = wsq;
+        this.parallel = parallel;
+        this.firstIdc = firstIdc;
+        this.sourceAgency = sourceAgency;
+        this.packer = packer;
+    }
+
+    public Standard getStandard() {
+        return standard;
+    }
+
+    /**
+     * A finger image with its position, impression type and NFIQ score.
+     */
+    public static final class Finger {
+        private final ImageData image;
+        private final FingerPosition position;
+        private final ImpressionType impression;
+        private final int nfiq;
+
+        /**
+         * @param nfiq NFIQ score between 1 and 5, or 0 if not scored
+         */
+        public Finger(ImageData image, FingerPosition position, ImpressionType impression, int nfiq) {
+            this.image = image;
+            this.position = position;
+            this.impression = impression;
+            this.nfiq = nfiq;
+        }
+
+        public ImageData getImage() {
+            return image;
+        }
+
+        public FingerPosition getPosition() {
+            return position;
+        }
+
+        public ImpressionType getImpression() {
+            return impression;
+        }
+
+        public int getNfiq() {
+            return nfiq;
+        }
+    }
+
+    /**
+     * Write the records of the given fingers.
+     *
+     * @return the number of bytes written
+     */
+    public long write(List<Finger> fingers, WritableByteChannel out) throws IOException {
+        List<CompletableFuture<ByteBuffer>> packed = new ArrayList<CompletableFuture<ByteBuffer>>(fingers.size());
+        if (parallel && fingers.size() > 1) {
+            for (final Finger finger : fingers) {
+                packed.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return pack(finger.image);
+                    } catch (IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, packer));
+            }
+        }
+        try {
+            switch (standard) {
+            case ISO_19794_4:
+                return writeIso(fingers, packed, out);
+            case ANSI_NIST_TYPE_4:
+            case ANSI_NIST_TYPE_14:
+                long written = 0;
+                for (int i = 0; i < fingers.size(); i++) {
+                    Finger finger = fingers.get(i);
+                    ByteBuffer image = imageOf(packed, i, finger);
+                    written += standard == Standard.ANSI_NIST_TYPE_4 ? writeType4(finger, firstIdc + i, image, out)
+                            : writeType14(finger, firstIdc + i, image, out);
+                }
+                return written;
+            default:
+                throw new IllegalArgumentException("Unsupported standard: " + standard);
+            }
+        } finally {
+            for (CompletableFuture<ByteBuffer> future : packed) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /* The image data of a finger, packed already or now. */
+    private ByteBuffer imageOf(List<CompletableFuture<ByteBuffer>> packed, int i, Finger finger) throws IOException {
+        if (packed.isEmpty()) {
+            return pack(finger.image);
+        }
+        try {
+            return packed.get(i).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /*
+     * The image as record data. Packed top-down rows are wrapped rather than
+     * copied.
+     */
+    ByteBuffer pack(ImageData image) throws IOException {
+        if (image.bitsPerPixel != 8) {
+            throw new IOException("Finger records need 8-bit images, not " + image.bitsPerPixel + "-bit");
+        }
+        if (compression == Compression.WSQ) {
+            return ByteBuffer.wrap(wsq.encode(image));
+        }
+        int size = image.width * image.height;
+        if (image.pitch == 0 || image.pitch == image.width) {
+            return ByteBuffer.wrap(image.buffer, 0, size);
+        }
+        byte[] rows = new byte[size];
+        int stride = Math.abs(image.pitch);
+        for (int y = 0; y < image.height; y++) {
+            int row = image.pitch < 0 ? image.height - 1 - y : y;
+            System.arraycopy(image.buffer, row * stride, rows, y * image.width, image.width);
+        }
+        return ByteBuffer.wrap(rows);
+    }
+
+    private long writeIso(List<Finger> fingers, List<CompletableFuture<ByteBuffer>> packed, WritableByteChannel out)
+            throws IOException {
+        List<ByteBuffer> images = new ArrayList<ByteBuffer>(fingers.size());
+        long length = ISO_HEADER;
+        for (int i = 0; i < fingers.size(); i++) {
+            ByteBuffer image = imageOf(packed, i, fingers.get(i));
+            images.add(image);
+            length += ISO_FINGER_HEADER + image.remaining();
+        }
+        if (fingers.size() > 0xff || length >= 1L << 48) {
+            throw new IOException("Too many or too large fingers for one ISO/IEC 19794-4 record");
+        }
+
+        ImageData first = fingers.isEmpty() ? null : fingers.get(0).image;
+        int ppiX = first == null ? 0 : ppi(first.resolutionX);
+        int ppiY = first == null ? 0 : ppi(first.resolutionY);
+        ByteBuffer header = ByteBuffer.allocate(ISO_HEADER);
+        header.put("FIR\0".getBytes(StandardCharsets.US_ASCII)).put("010\0".getBytes(StandardCharsets.US_ASCII));
+        header.putShort((short) (length >>> 32)).putInt((int) length);
+        header.putShort((short) 0); // capture device ID: not given
+        header.putShort((short) 31); // image acquisition level: 500 ppi, 256 grey levels
+        header.put((byte) fingers.size());
+        header.put((byte) 1); // scale units: pixels per inch
+        header.putShort((short) ppiX).putShort((short) ppiY).putShort((short) ppiX).putShort((short) ppiY);
+        header.put((byte) 8);
+        header.put((byte) (compression == Compression.WSQ ? 2 : 0));
+        header.putShort((short) 0);
+        header.flip();
+        writeFully(out, header);
+
+        for (int i = 0; i < fingers.size(); i++) {
+            Finger finger = fingers.get(i);
+            ByteBuffer image = images.get(i);
+            int views = 0;
+            int view = 0;
+            for (int j = 0; j < fingers.size(); j++) {
+                if (fingers.get(j).position == finger.position) {
+                    views++;
+                    if (j <= i) {
+                        view++;
+                    }
+                }
+            }
+            ByteBuffer fingerHeader = ByteBuffer.allocate(ISO_FINGER_HEADER);
+            fingerHeader.putInt(ISO_FINGER_HEADER + image.remaining());
+            fingerHeader.put((byte) finger.position.toCode()).put((byte) views).put((byte) view);
+            fingerHeader.put((byte) (finger.nfiq > 0 ? (6 - finger.nfiq) * 20 : 0));
+            fingerHeader.put((byte) finger.impression.toCode());
+            fingerHeader.putShort((short) finger.image.width).putShort((short) finger.image.height);
+            fingerHeader.put((byte) 0);
+            fingerHeader.flip();
+            writeFully(out, fingerHeader, image.duplicate());
+        }
+        return length;
+    }
+
+    private long writeType4(Finger finger, int idc, ByteBuffer image, WritableByteChannel out) throws IOException {
+        long length = TYPE_4_HEADER + (long) image.remaining();
+        if (length > 0xffffffffL) {
+            throw new IOException("Finger image too large for a Type-4 record");
+        }
+        boolean nominal = Math.abs(finger.image.resolutionX - TYPE_4_PPI) <= TYPE_4_PPI * TYPE_4_TOLERANCE;
+        ByteBuffer header = ByteBuffer.allocate(TYPE_4_HEADER);
+        header.putInt((int) length);
+        header.put((byte) idc);
+        header.put((byte) finger.impression.toCode());
+        header.put((byte) finger.position.toCode());
+        for (int i = 1; i < 6; i++) {
+            header.put((byte) 255);
+        }
+        header.put((byte) (nominal ? 0 : 1));
+        header.putShort((short) finger.image.width).putShort((short) finger.image.height);
+        header.put((byte) (compression == Compression.WSQ ? 1 : 0));
+        header.flip();
+        writeFully(out, header, image.duplicate());
+        return length;
+    }
+
+    private long writeType14(Finger finger, int idc, ByteBuffer image, WritableByteChannel out) throws IOException {
+        ImageData data = finger.image;
+        StringBuilder fields = new StringBuilder();
+        field(fields, 2, String.valueOf(idc));
+        field(fields, 3, String.valueOf(finger.impression.toCode()));
+        field(fields, 4, sourceAgency);
+        field(fields, 5, LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE));
+        field(fields, 6, String.valueOf(data.width));
+        field(fields, 7, String.valueOf(data.height));
+        field(fields, 8, "1");
+        field(fields, 9, String.valueOf(ppi(data.resolutionX)));
+        field(fields, 10, String.valueOf(ppi(data.resolutionY)));
+        field(fields, 11, compression == Compression.WSQ ? "WSQ20" : "NONE");
+        field(fields, 12, "8");
+        field(fields, 13, String.valueOf(finger.position.toCode()));
+        if (finger.nfiq > 0) {
+            field(fields, 22, finger.position.toCode() + String.valueOf((char) US) + finger.nfiq);
+        }
+        fields.append("14.999:");
+
+        // LEN counts itself, so its digits are found by iterating
+        long length = "14.001:".length() + 1 + fields.length() + (long) image.remaining() + 1;
+        int digits = String.valueOf(length).length();
+        while (String.valueOf(length + digits).length() != digits) {
+            digits++;
+        }
+        length += digits;
+        byte[] text = ("14.001:" + length + (char) GS + fields).getBytes(StandardCharsets.US_ASCII);
+        writeFully(out, ByteBuffer.wrap(text), image.duplicate(), ByteBuffer.wrap(new byte[] { FS }));
+        return length;
+    }
+
+    private static void field(StringBuilder fields, int number, String value) {
+        fields.append(String.format("14.%03d:", number)).append(value).append((char) GS);
+    }
+
+    private static int ppi(double resolution) {
+        return (int) Math.round(resolution);
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+}
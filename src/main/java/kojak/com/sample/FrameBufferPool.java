@@ -0,0 +1,160 @@
+package kojak.com.sample;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reusable byte buffers for frame processing (zoom, display and encode
+ * steps), so that the preview path does not allocate a new frame-sized array
+ * per callback. Buffers come in power-of-two size classes and may be longer
+ * than requested; callers pass explicit widths and heights anyway.
+ * <p>
+ * Each device gets its own pool ({@link #forDevice(Object)}), so scanners do
+ * not contend for the same free lists. With <code>-Dib.buffers.debug=true</code>
+ * every borrowed buffer remembers where it was borrowed; a buffer released
+ * twice or a pool with many unreturned buffers is reported with the borrowing
+ * stack traces.
+ */
+public class FrameBufferPool {
+
+    private static final Logger LOG = Logger.getLogger(FrameBufferPool.class.getName());
+
+    /* Smallest size class (4 KiB) and number of classes (up to 64 MiB). */
+    private static final int MIN_SHIFT = 12;
+    private static final int CLASSES = 15;
+    /* Free buffers kept per size class. */
+    private static final int MAX_FREE = 4;
+    /* Unreturned buffers above which a debug pool reports a leak. */
+    private static final int LEAK_THRESHOLD = 16;
+
+    private static final boolean DEBUG = Boolean.getBoolean("ib.buffers.debug");
+
+    private static final Map<Object, FrameBufferPool> POOLS = new WeakHashMap<Object, FrameBufferPool>();
+
+    private final String name;
+    private final boolean debug;
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedDeque<byte[]>[] free = new ConcurrentLinkedDeque[CLASSES];
+    private final AtomicInteger[] freeCount = new AtomicInteger[CLASSES];
+    /* Borrow sites of unreturned buffers, in debug mode only; guarded by itself. */
+    private final Map<byte[], Throwable> borrowed = new IdentityHashMap<byte[], Throwable>();
+    private boolean leakReported = false;
+
+    public FrameBufferPool(String name, boolean debug) {
+        this.name = name;
+        this.debug = debug;
+        for (int i = 0; i < CLASSES; i++) {
+            free[i] = new ConcurrentLinkedDeque<byte[]>();
+            freeCount[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * The pool of the given device, created on first use and dropped with the
+     * device.
+     */
+    public static FrameBufferPool forDevice(Object device) {
+        synchronized (POOLS) {
+            FrameBufferPool pool = POOLS.get(device);
+            if (pool == null) {
+                pool = new FrameBufferPool(String.valueOf(device), DEBUG);
+                POOLS.put(device, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * A buffer of at least <code>minLength</code> bytes. Its content is
+     * undefined.
+     */
+    public byte[] borrow(int minLength) {
+        int sizeClass = sizeClass(minLength);
+        byte[] buffer = null;
+        if (sizeClass >= 0) {
+            buffer = free[sizeClass].pollFirst();
+            if (buffer != null) {
+                freeCount[sizeClass].decrementAndGet();
+            } else {
+                buffer = new byte[1 << (sizeClass + MIN_SHIFT)];
+            }
+        } else {
+            buffer = new byte[minLength]; // larger than any class, not pooled
+        }
+        if (debug) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back. It must not be used afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (debug && !untrack(buffer)) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.length) - MIN_SHIFT;
+        if (buffer.length != Integer.highestOneBit(buffer.length) || sizeClass < 0 || sizeClass >= CLASSES) {
+            return; // not one of ours
+        }
+        if (freeCount[sizeClass].incrementAndGet() <= MAX_FREE) {
+            free[sizeClass].addFirst(buffer);
+        } else {
+            freeCount[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of borrowed buffers not yet released; only tracked in debug mode.
+     */
+    public int outstanding() {
+        synchronized (borrowed) {
+            return borrowed.size();
+        }
+    }
+
+    private static int sizeClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        int sizeClass = Math.max(0, shift - MIN_SHIFT);
+        return sizeClass < CLASSES ? sizeClass : -1;
+    }
+
+    private void track(byte[] buffer) {
+        List<Throwable> sites = null;
+        synchronized (borrowed) {
+            borrowed.put(buffer, new Throwable("Borrowed from " + name));
+            if (borrowed.size() > LEAK_THRESHOLD && !leakReported) {
+                leakReported = true;
+                sites = new ArrayList<Throwable>(borrowed.values());
+            }
+        }
+        if (sites != null) {
+            LOG.warning("Frame buffer pool " + name + " has " + sites.size() + " unreleased buffers");
+            for (Throwable site : sites) {
+                LOG.log(Level.WARNING, "Unreleased frame buffer", site);
+            }
+        }
+    }
+
+    private boolean untrack(byte[] buffer) {
+        synchronized (borrowed) {
+            if (borrowed.remove(buffer) != null) {
+                return true;
+            }
+        }
+        LOG.log(Level.WARNING, "Frame buffer released twice or not borrowed from " + name,
+                new Throwable("Released here"));
+        return false;
+    }
+}
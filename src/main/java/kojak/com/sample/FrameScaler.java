@@ -0,0 +1,264 @@
+package kojak.com.sample;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * Downscales 8-bit frames in Java, as a replacement for the device's
+ * <code>generateZoomOutImageEx</code> that needs no device handle and no
+ * copy through the native layer. Like the native call, the image is fitted
+ * into the output keeping its aspect ratio, centered, and the margins are
+ * filled with a background value. The output is top-down rows of
+ * <code>outWidth</code> bytes whatever the sign of the input pitch.
+ * <p>
+ * Scaling is separable: each output row is a weighted sum of a few input rows,
+ * then each output pixel a weighted sum of a few of those columns, in 14-bit
+ * fixed point. Which input pixels contribute and with what weight depends only
+ * on the geometry, so the index and weight tables are computed once per
+ * (inWidth, inHeight, outWidth, outHeight) and cached. With
+ * <code>parallel</code> set, bands of output rows are scaled on the common
+ * fork/join pool. A scaler is thread-safe.
+ */
+public class FrameScaler {
+
+    public enum Filter {
+        /** Average of the input area each output pixel covers; sharpest for large factors. */
+        AREA,
+        /** Interpolation between the two nearest pixels on each axis; cheapest. */
+        BILINEAR
+    }
+
+    /* Weights of one axis sum to 1 << WEIGHT_BITS. */
+    private static final int WEIGHT_BITS = 14;
+    /* Precision kept between the vertical and horizontal pass. */
+    private static final int INTERMEDIATE_SHIFT = 6;
+    private static final int FINAL_SHIFT = 2 * WEIGHT_BITS - INTERMEDIATE_SHIFT;
+    /* Geometries cached at most; previews use one or two. */
+    private static final int MAX_GEOMETRIES = 16;
+    /* Rows below which a frame is not worth splitting. */
+    private static final int MIN_PARALLEL_ROWS = 64;
+
+    private final Filter filter;
+    private final boolean parallel;
+    private final Map<Long, Geometry> geometries = new ConcurrentHashMap<Long, Geometry>();
+
+    public FrameScaler() {
+        this(Filter.AREA, false);
+    }
+
+    /**
+     * @param parallel whether to spread the rows over the common fork/join pool
+     */
+    public FrameScaler(Filter filter, boolean parallel) {
+        this.filter = filter;
+        this.parallel = parallel;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Scale an image into <code>out</code>, honouring the sign and padding of
+     * its <code>pitch</code>.
+     */
+    public void scale(ImageData image, byte[] out, int outWidth, int outHeight, byte background) {
+        scale(image.buffer, image.width, image.height, image.pitch, out, outWidth, outHeight, background);
+    }
+
+    /**
+     * Scale 8-bit pixel rows into <code>out</code>.
+     *
+     * @param pitch row stride in bytes; negative for bottom-up rows, 0 for
+     *              packed rows
+     */
+    public void scale(final byte[] pixels, int width, int height, int pitch, final byte[] out, final int outWidth,
+            int outHeight, final byte background) {
+        if (width <= 0 || height <= 0 || outWidth <= 0 || outHeight <= 0 || width > 0xffff || height > 0xffff
+                || outWidth > 0xffff || outHeight > 0xffff) {
+            throw new IllegalArgumentException("Cannot scale " + width + "x" + height + " to " + outWidth + "x"
+                    + outHeight);
+        }
+        if (out.length < outWidth * outHeight) {
+            throw new IllegalArgumentException("Output buffer holds " + out.length + " bytes, not "
+                    + outWidth * outHeight);
+        }
+        final Geometry g = geometry(width, height, outWidth, outHeight);
+        final int stride = pitch == 0 ? width : Math.abs(pitch);
+        final int firstRow = pitch < 0 ? (height - 1) * stride : 0;
+        final int rowStep = pitch < 0 ? -stride : stride;
+
+        for (int y = 0; y < g.top; y++) {
+            fill(out, y * outWidth, outWidth, background);
+        }
+        for (int y = g.top + g.rows.size; y < outHeight; y++) {
+            fill(out, y * outWidth, outWidth, background);
+        }
+
+        int rows = g.rows.size;
+        int bands = parallel && rows >= MIN_PARALLEL_ROWS
+                ? Math.min(ForkJoinPool.getCommonPoolParallelism() * 2, rows / (MIN_PARALLEL_ROWS / 2)) : 1;
+        if (bands <= 1) {
+            scaleRows(g, pixels, firstRow, rowStep, out, outWidth, background, 0, rows, new int[width]);
+            return;
+        }
+        final int perBand = (rows + bands - 1) / bands;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int from = band * perBand;
+            int to = Math.min(rows, from + perBand);
+            if (from < to) {
+                scaleRows(g, pixels, firstRow, rowStep, out, outWidth, background, from, to, new int[width]);
+            }
+        });
+    }
+
+    private static void scaleRows(Geometry g, byte[] pixels, int firstRow, int rowStep, byte[] out, int outWidth,
+            byte background, int from, int to, int[] column) {
+        Axis rows = g.rows;
+        Axis columns = g.columns;
+        int width = column.length;
+        for (int y = from; y < to; y++) {
+            // vertical pass: the weighted input rows of this output row
+            int taps = rows.count[y];
+            int w = y * rows.taps;
+            int src = firstRow + rows.first[y] * rowStep;
+            int weight = rows.weights[w];
+            for (int x = 0; x < width; x++) {
+                column[x] = weight * (pixels[src + x] & 0xff);
+            }
+            for (int t = 1; t < taps; t++) {
+                src += rowStep;
+                weight = rows.weights[w + t];
+                for (int x = 0; x < width; x++) {
+                    column[x] += weight * (pixels[src + x] & 0xff);
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                column[x] >>= INTERMEDIATE_SHIFT;
+            }
+
+            // horizontal pass into the fitted part of the output row
+            int dst = (g.top + y) * outWidth;
+            fill(out, dst, g.left, background);
+            int right = g.left + columns.size;
+            fill(out, dst + right, outWidth - right, background);
+            dst += g.left;
+            for (int x = 0; x < columns.size; x++) {
+                int first = columns.first[x];
+                int cw = x * columns.taps;
+                int sum = 1 << (FINAL_SHIFT - 1);
+                for (int t = 0, n = columns.count[x]; t < n; t++) {
+                    sum += columns.weights[cw + t] * column[first + t];
+                }
+                out[dst + x] = (byte) (sum >> FINAL_SHIFT);
+            }
+        }
+    }
+
+    private static void fill(byte[] out, int from, int length, byte value) {
+        for (int i = from, end = from + length; i < end; i++) {
+            out[i] = value;
+        }
+    }
+
+    private Geometry geometry(int width, int height, int outWidth, int outHeight) {
+        long key = (long) width << 48 | (long) height << 32 | (long) outWidth << 16 | outHeight;
+        Geometry g = geometries.get(key);
+        if (g == null) {
+            if (geometries.size() >= MAX_GEOMETRIES) {
+                geometries.clear();
+            }
+            g = new Geometry(filter, width, height, outWidth, outHeight);
+            geometries.put(key, g);
+        }
+        return g;
+    }
+
+    /* Fitted size, margins and both axes' tables of one geometry. */
+    private static final class Geometry {
+        final int left;
+        final int top;
+        final Axis columns;
+        final Axis rows;
+
+        Geometry(Filter filter, int width, int height, int outWidth, int outHeight) {
+            double scale = Math.min((double) outWidth / width, (double) outHeight / height);
+            int fittedWidth = Math.max(1, Math.min(outWidth, (int) Math.round(width * scale)));
+            int fittedHeight = Math.max(1, Math.min(outHeight, (int) Math.round(height * scale)));
+            this.left = (outWidth - fittedWidth) / 2;
+            this.top = (outHeight - fittedHeight) / 2;
+            this.columns = new Axis(filter, width, fittedWidth);
+            this.rows = new Axis(filter, height, fittedHeight);
+        }
+    }
+
+    /*
+     * For each output coordinate: the first input coordinate, how many follow
+     * and their weights, at a stride of taps.
+     */
+    private static final class Axis {
+        final int size;
+        final int taps;
+        final int[] first;
+        final int[] count;
+        final int[] weights;
+
+        Axis(Filter filter, int in, int out) {
+            double ratio = (double) in / out;
+            this.size = out;
+            this.taps = filter == Filter.AREA ? (int) Math.ceil(ratio) + 1 : 2;
+            this.first = new int[out];
+            this.count = new int[out];
+            this.weights = new int[out * taps];
+            double[] w = new double[taps];
+            for (int i = 0; i < out; i++) {
+                int start;
+                int n;
+                if (filter == Filter.AREA && ratio > 1) {
+                    double from = i * ratio;
+                    double to = Math.min(in, (i + 1) * ratio);
+                    start = (int) from;
+                    n = Math.min(taps, (int) Math.ceil(to) - start);
+                    for (int t = 0; t < n; t++) {
+                        w[t] = Math.min(to, start + t + 1) - Math.max(from, start + t);
+                    }
+                } else {
+                    // bilinear, and area when enlarging, where one pixel covers the output pixel
+                    double center = Math.max(0, Math.min(in - 1, (i + 0.5) * ratio - 0.5));
+                    start = Math.min((int) center, Math.max(0, in - 2));
+                    n = Math.min(2, in);
+                    double frac = center - start;
+                    w[0] = 1 - frac;
+                    if (n > 1) {
+                        w[1] = frac;
+                    }
+                }
+                first[i] = start;
+                count[i] = n;
+                normalize(w, n, weights, i * taps);
+            }
+        }
+
+        /* Fixed-point weights summing exactly to one; the rounding goes to the largest. */
+        private static void normalize(double[] w, int n, int[] weights, int at) {
+            double total = 0;
+            for (int t = 0; t < n; t++) {
+                total += w[t];
+            }
+            int sum = 0;
+            int largest = 0;
+            for (int t = 0; t < n; t++) {
+                weights[at + t] = (int) Math.round(w[t] / total * (1 << WEIGHT_BITS));
+                sum += weights[at + t];
+                if (weights[at + t] > weights[at + largest]) {
+                    largest = t;
+                }
+            }
+            weights[at + largest] += (1 << WEIGHT_BITS) - sum;
+        }
+    }
+}
@@ -12,6 +12,7 @@
  *    2013/03/01  First verion
  *    2013/03/22  Add NFIQ score button
  *    2014/11/24  Added generateZoomOutImageEx() function to increase speed to draw the image.
+ *    2026/10/16  Draw previews from pooled buffers into a reused image.
  ************************************************************************************************ */
 package kojak.com.sample;
 
@@ -23,6 +24,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -54,6 +56,7 @@ import com.integratedbiometrics.ibscanultimate.IBScanDevice;
 import com.integratedbiometrics.ibscanultimate.IBScanDeviceListener;
 import com.integratedbiometrics.ibscanultimate.IBScanException;
 import com.integratedbiometrics.ibscanultimate.IBScanListener;
+import com.integratedbiometrics.ibscanultimate.ImageConverter;
 import com.integratedbiometrics.ibscanultimate.IBScanDevice.FingerCountState;
 import com.integratedbiometrics.ibscanultimate.IBScanDevice.FingerQualityState;
 import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
@@ -1616,6 +1619,25 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
     private static final int IMAGE_WIDTH = 280;//279;
     private static final int IMAGE_HEIGHT = 200;//201;
 
+    // Preview image and icon, reused for every frame; only touched on the UI thread.
+    private BufferedImage previewImage = null;
+    private ImageIcon previewIcon = null;
+
+    // Copy a zoomed IMAGE_WIDTH x IMAGE_HEIGHT frame into the preview image; UI thread only.
+    private void showPreview(byte[] zoomed, int pitch) {
+        if (this.previewImage == null) {
+            this.previewImage = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            this.previewIcon = new ImageIcon(this.previewImage);
+        }
+        byte[] pixels = ((DataBufferByte) this.previewImage.getRaster().getDataBuffer()).getData();
+        ImageConverter.copyRows(zoomed, IMAGE_WIDTH, IMAGE_HEIGHT, (pitch < 0) ? -IMAGE_WIDTH : IMAGE_WIDTH, pixels);
+        if (this.lblImagePreview.getIcon() != this.previewIcon) {
+            this.lblImagePreview.setIcon(this.previewIcon);
+        } else {
+            this.lblImagePreview.repaint();
+        }
+    }
+
     // //////////////////////////////////////////////////////////////////////////////////////////////
     // PUBLIC INTERFACE: IBScanListener METHODS
     // //////////////////////////////////////////////////////////////////////////////////////////////
@@ -1698,16 +1720,19 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
 
         class DisplayImagePreviewRunnable implements Runnable {
 
-            ImageIcon imageIconTemp;
+            byte[] zoomedTemp;
+            int pitchTemp;
 
-            DisplayImagePreviewRunnable(ImageIcon imageIconTemp) {
-                this.imageIconTemp = imageIconTemp;
+            DisplayImagePreviewRunnable(byte[] zoomedTemp, int pitchTemp) {
+                this.zoomedTemp = zoomedTemp;
+                this.pitchTemp = pitchTemp;
             }
 
             
             public void run() {
                 // Set image in image preview and flash button.
-                FunctionTester.this.lblImagePreview.setIcon(this.imageIconTemp);
+                showPreview(this.zoomedTemp, this.pitchTemp);
+                FrameBufferPool.forDevice(device).release(this.zoomedTemp);
                 lightCallbackButton(FunctionTester.this.btnDeviceImagePreviewAvailable, 5);
             }
         }
@@ -1717,8 +1742,9 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
         int destHeight = IMAGE_HEIGHT;
         int outImageSize = destWidth * destHeight;
 
-        byte[] outImage = new byte[outImageSize];
-        Arrays.fill(outImage, (byte) 255);
+        // Pooled buffer, given back by the UI thread once copied into the preview.
+        byte[] outImage = FrameBufferPool.forDevice(device).borrow(outImageSize);
+        Arrays.fill(outImage, 0, outImageSize, (byte) 255);
 
         try {
             int nRc = ibScanDevice.generateZoomOutImageEx(image.buffer,
@@ -1729,10 +1755,7 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
             e.printStackTrace();
         }
 
-        // /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-        Image imageJ = image.toImage(outImage, IMAGE_WIDTH, IMAGE_HEIGHT);
-        ImageIcon imageIcon = new ImageIcon(imageJ);
-        SwingUtilities.invokeLater(new DisplayImagePreviewRunnable(imageIcon));
+        SwingUtilities.invokeLater(new DisplayImagePreviewRunnable(outImage, image.pitch));
     }
 
     
@@ -1859,9 +1882,10 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
                 int destHeight = IMAGE_HEIGHT;
                 int outImageSize = destWidth * destHeight;
 
-                byte[] outImage = new byte[outImageSize];
+                FrameBufferPool pool = FrameBufferPool.forDevice(device);
+                byte[] outImage = pool.borrow(outImageSize);
 
-                Arrays.fill(outImage, (byte) 255);
+                Arrays.fill(outImage, 0, outImageSize, (byte) 255);
 
                 try {
                     int nRc = ibScanDevice.generateZoomOutImageEx(
@@ -1875,10 +1899,8 @@ public class FunctionTester extends JFrame implements IBScanListener, IBScanDevi
                 }
 
                 // /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                Image imageJ = imageDataTemp.toImage(outImage,
-                        IMAGE_WIDTH, IMAGE_HEIGHT);
-                ImageIcon imageIcon = new ImageIcon(imageJ);
-                FunctionTester.this.lblImagePreview.setIcon(imageIcon);
+                showPreview(outImage, imageDataTemp.pitch);
+                pool.release(outImage);
                 FunctionTester.this.lastScanImage = this.imageTemp;
                 FunctionTester.this.lastScanImageData = this.imageDataTemp;
             }
@@ -0,0 +1,116 @@
+package kojak.com.sample;
+
+import java.io.InputStream;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * Reads an 8-bit grayscale image as a palettized BMP file without building the
+ * file in memory. Header and palette are generated up front (1078 bytes); the
+ * pixel rows are served straight from the image buffer, bottom-up as BMP
+ * requires, honouring the sign of <code>pitch</code>.
+ */
+public class GrayBmpInputStream extends InputStream {
+
+    private static final int HEADER_SIZE = 14 + 40 + 256 * 4;
+
+    private final ImageData image;
+    private final byte[] header;
+    private final int stride;
+    private final int rowSize;
+    private final int length;
+    private int position = 0;
+
+    public GrayBmpInputStream(ImageData image) {
+        this.image = image;
+        this.stride = image.pitch == 0 ? image.width : Math.abs(image.pitch);
+        this.rowSize = (image.width + 3) & ~3;
+        this.length = HEADER_SIZE + rowSize * image.height;
+        this.header = header(image, rowSize * image.height, length);
+    }
+
+    /**
+     * Total size of the BMP file in bytes.
+     */
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public int read() {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : (one[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (position >= length) {
+            return -1;
+        }
+        int start = off;
+        int end = off + Math.min(len, length - position);
+        while (off < end) {
+            if (position < HEADER_SIZE) {
+                int n = Math.min(end - off, HEADER_SIZE - position);
+                System.arraycopy(header, position, b, off, n);
+                off += n;
+                position += n;
+                continue;
+            }
+            int pixelOffset = position - HEADER_SIZE;
+            int bmpRow = pixelOffset / rowSize;
+            int column = pixelOffset % rowSize;
+            int n = Math.min(end - off, rowSize - column);
+            int pixels = Math.max(0, Math.min(n, image.width - column));
+            if (pixels > 0) {
+                // BMP row 0 is the bottom image row
+                int srcRow = image.pitch < 0 ? bmpRow : image.height - 1 - bmpRow;
+                System.arraycopy(image.buffer, srcRow * stride + column, b, off, pixels);
+            }
+            for (int i = pixels; i < n; i++) {
+                b[off + i] = 0; // row padding
+            }
+            off += n;
+            position += n;
+        }
+        return off - start;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    private static byte[] header(ImageData image, int imageSize, int fileSize) {
+        byte[] h = new byte[HEADER_SIZE];
+        int resolutionXppm = (int) Math.round(image.resolutionX / 0.0254); // convert from pixels/inch to pixels/meter
+        int resolutionYppm = (int) Math.round(image.resolutionY / 0.0254);
+        // bitmap file header
+        h[0] = 'B';
+        h[1] = 'M';
+        putInt(h, 2, fileSize);
+        putInt(h, 10, HEADER_SIZE);
+        // bitmap info header
+        putInt(h, 14, 40);
+        putInt(h, 18, image.width);
+        putInt(h, 22, image.height);
+        h[26] = 1; // color planes
+        h[28] = 8; // bits per pixel
+        putInt(h, 34, imageSize);
+        putInt(h, 38, resolutionXppm);
+        putInt(h, 42, resolutionYppm);
+        putInt(h, 46, 256);
+        // grayscale palette
+        for (int i = 0; i < 256; i++) {
+            h[54 + i * 4] = h[54 + i * 4 + 1] = h[54 + i * 4 + 2] = (byte) i;
+        }
+        return h;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,256 @@
+package kojak.com.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * Encodes 8-bit grayscale fingerprint images as PNG or palettized BMP straight
+ * into an <code>OutputStream</code>, without going through ImageIO. Rows are
+ * read from the image buffer honouring the sign and padding of
+ * <code>pitch</code>, and the PNG resolution is written as a pHYs chunk.
+ * <p>
+ * An encoder keeps its <code>Deflater</code> and row buffers between images, so
+ * it is cheap to reuse but must not be shared between threads; see
+ * {@link #forCurrentThread()}.
+ */
+public class GrayscaleEncoder {
+
+    /**
+     * PNG row filter. <code>ADAPTIVE</code> picks the filter with the smallest
+     * sum of absolute differences for each row.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<GrayscaleEncoder> CURRENT = ThreadLocal
+            .withInitial(() -> new GrayscaleEncoder(Deflater.DEFAULT_COMPRESSION, Filter.UP));
+
+    private final int level;
+    private final Filter filter;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[IDAT_SIZE];
+    private final byte[] copyBuffer = new byte[IDAT_SIZE];
+    private byte[] row = new byte[0];
+    private byte[] previous = new byte[0];
+    private byte[][] lines = new byte[Filter.ADAPTIVE.ordinal()][0];
+
+    /**
+     * @param level  deflate level, 0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+     * @param filter PNG row filter
+     */
+    public GrayscaleEncoder(int level, Filter filter) {
+        this.level = level;
+        this.filter = filter;
+        this.deflater = new Deflater(level);
+        if (filter != Filter.NONE) {
+            deflater.setStrategy(Deflater.FILTERED);
+        }
+    }
+
+    /**
+     * The default encoder (default level, <code>UP</code> filter) of the calling
+     * thread.
+     */
+    public static GrayscaleEncoder forCurrentThread() {
+        return CURRENT.get();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Write the image as an 8-bit palettized BMP file.
+     */
+    public void writeBmp(ImageData image, OutputStream out) throws IOException {
+        GrayBmpInputStream bmp = new GrayBmpInputStream(image);
+        int n;
+        while ((n = bmp.read(copyBuffer, 0, copyBuffer.length)) > 0) {
+            out.write(copyBuffer, 0, n);
+        }
+    }
+
+    /**
+     * Write the image as an 8-bit grayscale PNG file.
+     */
+    public void writePng(ImageData image, OutputStream out) throws IOException {
+        writePng(image.buffer, image.width, image.height, image.pitch, image.resolutionX, image.resolutionY, out);
+    }
+
+    /**
+     * Write 8-bit gray pixel rows as a PNG file.
+     *
+     * @param pitch row stride in bytes; negative for bottom-up rows, 0 for
+     *              packed rows
+     * @param resolutionX horizontal resolution in pixels per inch, or 0 to omit
+     * @param resolutionY vertical resolution in pixels per inch
+     */
+    public void writePng(byte[] pixels, int width, int height, int pitch, double resolutionX, double resolutionY,
+            OutputStream out) throws IOException {
+        int stride = pitch == 0 ? width : Math.abs(pitch);
+        if (row.length != width) {
+            row = new byte[width];
+            previous = new byte[width];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = new byte[width + 1];
+            }
+        }
+        Arrays.fill(previous, (byte) 0);
+
+        out.write(PNG_SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 0; // color type: grayscale
+        writeChunk(out, "IHDR", header, header.length);
+        if (resolutionX > 0 && resolutionY > 0) {
+            byte[] phys = new byte[9];
+            putInt(phys, 0, (int) Math.round(resolutionX / 0.0254));
+            putInt(phys, 4, (int) Math.round(resolutionY / 0.0254));
+            phys[8] = 1; // unit: meter
+            writeChunk(out, "pHYs", phys, phys.length);
+        }
+
+        deflater.reset();
+        int chunkLength = 0;
+        for (int y = 0; y < height; y++) {
+            int srcRow = pitch < 0 ? height - 1 - y : y;
+            System.arraycopy(pixels, srcRow * stride, row, 0, width);
+            byte[] line = filter(row, previous);
+            deflater.setInput(line, 0, width + 1);
+            while (!deflater.needsInput()) {
+                chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+                if (chunkLength == chunk.length) {
+                    writeChunk(out, "IDAT", chunk, chunkLength);
+                    chunkLength = 0;
+                }
+            }
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+            if (chunkLength == chunk.length) {
+                writeChunk(out, "IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+        if (chunkLength > 0) {
+            writeChunk(out, "IDAT", chunk, chunkLength);
+        }
+        writeChunk(out, "IEND", chunk, 0);
+    }
+
+    /* Filter one row into a line prefixed with its filter type. */
+    private byte[] filter(byte[] cur, byte[] prev) {
+        if (filter != Filter.ADAPTIVE) {
+            return filter(filter, cur, prev);
+        }
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (Filter candidate : Filter.values()) {
+            if (candidate == Filter.ADAPTIVE) {
+                continue;
+            }
+            byte[] line = filter(candidate, cur, prev);
+            long sum = 0;
+            for (int i = 1; i < line.length && sum < bestSum; i++) {
+                sum += Math.abs((int) line[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = line;
+            }
+        }
+        return best;
+    }
+
+    private byte[] filter(Filter type, byte[] cur, byte[] prev) {
+        byte[] line = lines[type.ordinal()];
+        line[0] = (byte) type.ordinal();
+        int width = cur.length;
+        switch (type) {
+        case NONE:
+            System.arraycopy(cur, 0, line, 1, width);
+            break;
+        case SUB:
+            line[1] = cur[0];
+            for (int i = 1; i < width; i++) {
+                line[i + 1] = (byte) (cur[i] - cur[i - 1]);
+            }
+            break;
+        case UP:
+            for (int i = 0; i < width; i++) {
+                line[i + 1] = (byte) (cur[i] - prev[i]);
+            }
+            break;
+        case AVERAGE:
+            line[1] = (byte) (cur[0] - ((prev[0] & 0xff) >> 1));
+            for (int i = 1; i < width; i++) {
+                line[i + 1] = (byte) (cur[i] - (((cur[i - 1] & 0xff) + (prev[i] & 0xff)) >> 1));
+            }
+            break;
+        case PAETH:
+            line[1] = (byte) (cur[0] - prev[0]);
+            for (int i = 1; i < width; i++) {
+                line[i + 1] = (byte) (cur[i] - paeth(cur[i - 1] & 0xff, prev[i] & 0xff, prev[i - 1] & 0xff));
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Not a row filter: " + type);
+        }
+        return line;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        for (int i = 0; i < 4; i++) {
+            head[4 + i] = (byte) type.charAt(i);
+        }
+        out.write(head);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(head, 4, 4);
+        crc.update(data, 0, length);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(tail);
+    }
+
+    /* Big-endian, as PNG requires. */
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >> 24);
+        b[offset + 1] = (byte) (value >> 16);
+        b[offset + 2] = (byte) (value >> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
@@ -13,6 +13,10 @@
  *    2014/11/24  Added generateZoomOutImageEx() function to increase speed to draw the image.
  *    2015/12/11  Updated for IBScanUltimate v1.9.0.
  *    2017/10/17  Re-formatted code for logic improvement
+ *    2026/10/16  Draw the preview through pooled display buffers.
+ *    2026/10/16  Save result images through the asynchronous persistence pipeline.
+ *    2026/10/16  Append saved images to a capture archive instead of one file per image.
+ *    2026/10/16  Save one file per image again; the capture archive is opt-in (-Dib.sample.archive=true).
  ************************************************************************************************ */
 package kojak.com.sample;
 
@@ -27,10 +31,19 @@ import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.net.URL;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 import javax.sound.sampled.LineUnavailableException;
@@ -98,6 +111,11 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
                 new BoxLayout(getContentPane(), BoxLayout.X_AXIS));
         setBounds(0, 0, 774, 599);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // finish writing queued images when the window closes the application
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            m_imageSaver.close();
+            _CloseArchives();
+        }, "image-saver-shutdown"));
 
         JPanel pnl = new JPanel();
         getContentPane().add(pnl);
@@ -460,6 +478,19 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
     protected BufferedImage m_drawImageJ = null;
     protected byte[] m_drawBuffer;
     protected byte[] m_grayscaleImageData;
+    protected ImageIcon m_drawIcon = null;
+
+    /* Formats written when "save images" is on; 64 queued files hold about three four-finger results. */
+    protected static final Set<ImageExport.Format> SAVE_FORMATS = EnumSet.of(ImageExport.Format.BMP,
+            ImageExport.Format.WSQ, ImageExport.Format.PNG, ImageExport.Format.JP2);
+    /* A result that finds the queue full holds up the next capture step this long before it is dropped. */
+    protected static final long SAVE_WAIT_MILLIS = 10000;
+    /* Append saved images to a capture archive instead of writing one file per image and format. */
+    protected static final boolean ARCHIVE_IMAGES = Boolean.getBoolean("ib.sample.archive");
+    protected final ImagePersistence m_imageSaver = new ImagePersistence(64,
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), SAVE_WAIT_MILLIS);
+    protected final WsqCodec m_wsqCodec = new WsqCodec(WsqCodec.DEFAULT_BITRATE, false); // the pipeline runs images in parallel
+    protected final Map<String, CaptureArchive> m_archives = new HashMap<String, CaptureArchive>();	///< Open archive per save folder
 
     protected String m_minSDKVersion = "";
 
@@ -1015,94 +1046,116 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
         m_bInitializing = false;
     }
 
-    protected void _SaveBitmapImage(ImageData image, String fingerName) {
+    /**
+     * Queue the result image and its segments to be saved in every format. Encoding and writing happen on
+     * the persistence pipeline, so the next capture step can start right away unless the pipeline is full,
+     * in which case this waits for room; the status bar reports when the images are on disk. Images are
+     * written to one file per format in the sequence's sub folder, or with <code>ib.sample.archive</code>
+     * set, appended to the capture archive in the save folder instead.
+     */
+    protected void _SaveImages(ImageData image, String fingerName, ImageData[] segmentImageArray,
+            SegmentPosition[] segmentPositionArray, int[] segmentNfiq, int segmentCount) {
         if (m_ImgSaveFolder == "" || m_ImgSubFolder == "") {
             return;
         }
 
-        String strFolder = m_ImgSaveFolder + File.separator + m_ImgSubFolder;
-        File dirs = new File(strFolder);
-        if (!dirs.exists()) {
-            if (!dirs.mkdirs()) {
+        final String strFolder;
+        final List<? extends CompletableFuture<?>> saves;
+        if (ARCHIVE_IMAGES) {
+            strFolder = m_ImgSaveFolder + File.separator + "archive";
+            try {
+                saves = _ArchiveImages(_GetArchive(strFolder), image, fingerName, segmentImageArray,
+                        segmentPositionArray, segmentNfiq, segmentCount);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                OnMsg_SetStatusBarMessage("Cannot open capture archive: " + ex);
                 return;
             }
-        }
-
-        String strFileName = strFolder + File.separator + "Image_" + m_nCurrentCaptureStep + "_" + fingerName + ".bmp";
-
-        try {
-            getIBScanDevice().SaveBitmapImage(strFileName, image.buffer, image.width, image.height, image.pitch, image.resolutionX, image.resolutionY);
-        } catch (IBScanException e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void _SaveWsqImage(ImageData image, String fingerName) {
-        if (m_ImgSaveFolder == "" || m_ImgSubFolder == "") {
-            return;
-        }
-
-        String strFolder = m_ImgSaveFolder + File.separator + m_ImgSubFolder;
-        File dirs = new File(strFolder);
-        if (!dirs.exists()) {
-            if (!dirs.mkdirs()) {
-                return;
+        } else {
+            strFolder = m_ImgSaveFolder + File.separator + m_ImgSubFolder;
+            File dirs = new File(strFolder);
+            if (!dirs.exists()) {
+                if (!dirs.mkdirs()) {
+                    return;
+                }
             }
+            saves = _SaveImageFiles(dirs.toPath(), image, fingerName, segmentImageArray, segmentCount);
         }
 
-        String strFileName = strFolder + File.separator + "Image_" + m_nCurrentCaptureStep + "_" + fingerName + ".wsq";
+        final int fileCount = saves.size() * SAVE_FORMATS.size();
+        CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).whenComplete((done, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+                OnMsg_SetStatusBarMessage("Saving images failed: " + ex.getCause());
+            } else {
+                OnMsg_SetStatusBarMessage((ARCHIVE_IMAGES ? "Archived " : "Saved ") + fileCount + " images to "
+                        + strFolder);
+            }
+        });
+    }
 
-        try {
-            getIBScanDevice().wsqEncodeToFile(strFileName, image.buffer, image.width, image.height, image.pitch, image.bitsPerPixel, 500, 0.75, "");
-        } catch (IBScanException e) {
-            e.printStackTrace();
+    /**
+     * Queue the images as <code>Image_step_finger.suffix</code> files, one per format.
+     */
+    protected List<CompletableFuture<List<Path>>> _SaveImageFiles(Path folder, ImageData image, String fingerName,
+            ImageData[] segmentImageArray, int segmentCount) {
+        ImageExport export = new ImageExport(getIBScanDevice(), null, m_wsqCodec, ImageExport.DEFAULT_JP2_QUALITY);
+        String baseName = "Image_" + m_nCurrentCaptureStep + "_";
+        List<CompletableFuture<List<Path>>> saves = new ArrayList<CompletableFuture<List<Path>>>();
+        saves.add(m_imageSaver.saveAll(export, image, SAVE_FORMATS, folder, baseName + fingerName));
+        for (int i = 0; i < segmentCount; i++) {
+            String segmentName = fingerName + "_Segment_" + String.valueOf(i);
+            saves.add(m_imageSaver.saveAll(export, segmentImageArray[i], SAVE_FORMATS, folder, baseName + segmentName));
         }
+        return saves;
     }
 
-    protected void _SavePngImage(ImageData image, String fingerName) {
-        if (m_ImgSaveFolder == "" || m_ImgSubFolder == "") {
-            return;
+    /**
+     * Queue the images as archive records, keyed by the sequence's sub folder name and by the file name
+     * they are otherwise saved under, without the suffix.
+     */
+    protected List<CompletableFuture<List<CaptureArchive.Record>>> _ArchiveImages(CaptureArchive archive,
+            ImageData image, String fingerName, ImageData[] segmentImageArray, SegmentPosition[] segmentPositionArray,
+            int[] segmentNfiq, int segmentCount) {
+        ImageExport export = new ImageExport(getIBScanDevice(), null, m_wsqCodec, ImageExport.DEFAULT_JP2_QUALITY);
+        String baseName = "Image_" + m_nCurrentCaptureStep + "_";
+        SegmentPosition[] positions = segmentPositionArray == null ? null : Arrays.copyOf(segmentPositionArray, segmentCount);
+        List<CompletableFuture<List<CaptureArchive.Record>>> saves = new ArrayList<CompletableFuture<List<CaptureArchive.Record>>>();
+        saves.add(m_imageSaver.archiveAll(export, image, SAVE_FORMATS, archive, m_ImgSubFolder, baseName + fingerName,
+                positions, segmentNfiq));
+        for (int i = 0; i < segmentCount; i++) {
+            String segmentName = fingerName + "_Segment_" + String.valueOf(i);
+            saves.add(m_imageSaver.archiveAll(export, segmentImageArray[i], SAVE_FORMATS, archive, m_ImgSubFolder,
+                    baseName + segmentName, positions == null ? null : new SegmentPosition[] { positions[i] },
+                    new int[] { segmentNfiq[i] }));
         }
+        return saves;
+    }
 
-        String strFolder = m_ImgSaveFolder + File.separator + m_ImgSubFolder;
-        File dirs = new File(strFolder);
-        if (!dirs.exists()) {
-            if (!dirs.mkdirs()) {
-                return;
+    /**
+     * The capture archive in the given folder, opened on first use and kept open until exit.
+     */
+    protected CaptureArchive _GetArchive(String strFolder) throws IOException {
+        synchronized (m_archives) {
+            CaptureArchive archive = m_archives.get(strFolder);
+            if (archive == null) {
+                archive = new CaptureArchive(new File(strFolder).toPath());
+                m_archives.put(strFolder, archive);
             }
-        }
-
-        String strFileName = strFolder + File.separator + "Image_" + m_nCurrentCaptureStep + "_" + fingerName + ".png";
-
-        try {
-            getIBScanDevice().SavePngImage(strFileName, image.buffer, image.width, image.height, image.pitch, image.resolutionX, image.resolutionY);
-        } catch (IBScanException e) {
-            e.printStackTrace();
+            return archive;
         }
     }
 
-    protected void _SaveJP2Image(ImageData image, String fingerName) {
-        if (m_ImgSaveFolder == "" || m_ImgSubFolder == "") {
-            return;
-        }
-
-        String strFolder = m_ImgSaveFolder + File.separator + m_ImgSubFolder;
-        File dirs = new File(strFolder);
-        if (!dirs.exists()) {
-            if (!dirs.mkdirs()) {
-                return;
+    protected void _CloseArchives() {
+        synchronized (m_archives) {
+            for (CaptureArchive archive : m_archives.values()) {
+                try {
+                    archive.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
             }
-        }
-
-        String strFileName = strFolder + File.separator + "Image_" + m_nCurrentCaptureStep + "_" + fingerName + ".jp2";
-
-        try {
-            getIBScanDevice().SaveJP2Image(strFileName, image.buffer, image.width, image.height, image.pitch, image.resolutionX, image.resolutionY, 80);
-        } catch (IBScanException e) {
-            e.printStackTrace();
-        } catch (StackOverflowError e) {
-            System.out.println("Exception :" + e);
-            e.printStackTrace();
+            m_archives.clear();
         }
     }
 
@@ -1845,10 +1898,22 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
             public void run() {
                 int destWidth = pnlImagePreview.getWidth() - 20;
                 int destHeight = pnlImagePreview.getHeight() - 20;
-//				int outImageSize = destWidth * destHeight;
-
-//				byte[] outImage = new byte[outImageSize];
-//				Arrays.fill(outImage, (byte) 255);
+                if (destWidth <= 0 || destHeight <= 0) {
+                    return;
+                }
+                int outImageSize = destWidth * destHeight;
+
+                // The display buffer comes from the device pool; the images are
+                // only reallocated when the preview panel changes size.
+                if (m_grayscaleImageJ == null || m_grayscaleImageJ.getWidth() != destWidth
+                        || m_grayscaleImageJ.getHeight() != destHeight) {
+                    m_grayscaleImageJ = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_BYTE_GRAY);
+                    m_grayscaleImageData = ((DataBufferByte) m_grayscaleImageJ.getRaster().getDataBuffer()).getData();
+                    m_drawImageJ = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_3BYTE_BGR);
+                    m_drawIcon = new ImageIcon(m_drawImageJ);
+                }
+                FrameBufferPool pool = FrameBufferPool.forDevice(device);
+                m_drawBuffer = pool.borrow(outImageSize);
                 try {
                     if (image.isFinal) {
                         ibScanDevice.generateDisplayImage(image.buffer, image.width, image.height,
@@ -1857,16 +1922,15 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
                         ibScanDevice.generateDisplayImage(image.buffer, image.width, image.height,
                                 m_drawBuffer, destWidth, destHeight, (byte) 255, 0 /*IBSU_IMG_FORMAT_GRAY*/, 0 /*LOW QUALITY*/, true);
                     }
+                    System.arraycopy(m_drawBuffer, 0, m_grayscaleImageData, 0, outImageSize);
                 } catch (IBScanException e) {
                     e.printStackTrace();
+                } finally {
+                    pool.release(m_drawBuffer);
+                    m_drawBuffer = null;
                 }
 
                 // /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-/*				BufferedImage m_drawImageJ = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_4BYTE_ABGR);
-				byte[] drawImageData = ((DataBufferByte)m_drawImageJ.getRaster().getDataBuffer()).getData();
-				System.arraycopy(m_drawBuffer, 0, drawImageData, 0, m_drawBuffer.length);
-                 */
-                System.arraycopy(m_drawBuffer, 0, m_grayscaleImageData, 0, m_drawBuffer.length);
                 m_drawImageJ.createGraphics().drawImage(m_grayscaleImageJ, 0, 0, null);
 
                 Graphics2D g = (Graphics2D) m_drawImageJ.getGraphics();
@@ -1876,8 +1940,11 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
                 _DrawOverlay_ResultSegmentImage(g, image, destWidth, destHeight);
                 _DrawOverlay_RollGuideLine(g, image, destWidth, destHeight);
 
-                ImageIcon imageIcon = new ImageIcon(m_drawImageJ);
-                m_lblImagePreview.setIcon(imageIcon);
+                if (m_lblImagePreview.getIcon() != m_drawIcon) {
+                    m_lblImagePreview.setIcon(m_drawIcon);
+                } else {
+                    m_lblImagePreview.repaint();
+                }
             }
         });
     }
@@ -2269,36 +2336,23 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
             CaptureInfo info = m_vecCaptureSeq.elementAt(m_nCurrentCaptureStep);
             _SetLEDs(info, __LED_COLOR_GREEN__, false);
 
-            // SAVE IMAGE
-            if (m_chkSaveImages.isSelected()) {
-                _SetStatusBarMessage("Saving image...");
-                _SaveBitmapImage(image, info.fingerName);
-                _SaveWsqImage(image, info.fingerName);
-                _SavePngImage(image, info.fingerName);
-                _SaveJP2Image(image, info.fingerName);
-
-                //save segmented fingers
-                for (int i = 0; i < detectedFingerCount; i++) {
-                    String segmentName = info.fingerName + "_Segment_" + String.valueOf(i);
-                    _SaveBitmapImage(segmentImageArray[i], segmentName);
-                    _SaveWsqImage(segmentImageArray[i], segmentName);
-                    _SavePngImage(segmentImageArray[i], segmentName);
-                    _SaveJP2Image(segmentImageArray[i], segmentName);
-                }
-            }
-
             if (m_chkDrawSegmentImage.isSelected()) {
                 m_nSegmentImageArrayCount = detectedFingerCount;
                 m_SegmentPositionArray = segmentPositionArray;
             }
 
-            // NFIQ
+            // NFIQ, scored before saving so that the archive records carry it
+            int[] segmentNfiq = new int[detectedFingerCount];
             if (m_chkNFIQScore.isSelected()) {
                 byte[] nfiq_score = {0, 0, 0, 0};
                 try {
                     for (int i = 0, segment_pos = 0; i < 4; i++) {
                         if (m_FingerQuality[i].ordinal() != IBScanDevice.FingerQualityState.FINGER_NOT_PRESENT.ordinal()) {
-                            nfiq_score[i] = (byte) getIBScanDevice().calculateNfiqScore(segmentImageArray[segment_pos++]);
+                            nfiq_score[i] = (byte) getIBScanDevice().calculateNfiqScore(segmentImageArray[segment_pos]);
+                            if (segment_pos < segmentNfiq.length) {
+                                segmentNfiq[segment_pos] = nfiq_score[i];
+                            }
+                            segment_pos++;
                         }
                     }
                 } catch (IBScanException ibse) {
@@ -2308,6 +2362,12 @@ public class IBScanUltimate_Sample extends JFrame implements IBScanListener, IBS
                 OnMsg_SetTxtNFIQScore("" + nfiq_score[0] + "-" + nfiq_score[1] + "-" + nfiq_score[2] + "-" + nfiq_score[3]);
             }
 
+            // SAVE IMAGE
+            if (m_chkSaveImages.isSelected()) {
+                _SetStatusBarMessage("Saving image...");
+                _SaveImages(image, info.fingerName, segmentImageArray, segmentPositionArray, segmentNfiq, detectedFingerCount);
+            }
+
             if (imageStatus == null /*STATUS_OK*/) {
                 m_strImageMessage = "Acquisition completed successfully";
                 _SetImageMessage(m_strImageMessage);
@@ -0,0 +1,178 @@
+package kojak.com.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+
+/**
+ * Encodes <code>ImageData</code> to a stream or a <code>ByteBuffer</code>
+ * instead of a file: the in-memory counterpart of the device's
+ * <code>SaveBitmapImage</code>, <code>SavePngImage</code> and
+ * <code>SaveJP2Image</code>, plus WSQ. Every format carries the image's
+ * <code>resolutionX</code>/<code>resolutionY</code>, as the native savers do.
+ * <p>
+ * BMP, PNG and WSQ are encoded in Java. JPEG 2000 has no Java encoder here,
+ * so it goes through the native saver with a leased {@link ScratchFiles} name
+ * that is deleted again before the call returns; it needs a device.
+ */
+public class ImageExport {
+
+    /** JPEG 2000 quality used by the sample's save path. */
+    public static final int DEFAULT_JP2_QUALITY = 80;
+
+    public enum Format {
+        BMP("bmp", "image/bmp"),
+        PNG("png", "image/png"),
+        JP2("jp2", "image/jp2"),
+        WSQ("wsq", "image/x-wsq");
+
+        private final String suffix;
+        private final String mediaType;
+
+        Format(String suffix, String mediaType) {
+            this.suffix = suffix;
+            this.mediaType = mediaType;
+        }
+
+        /** File name suffix without the dot. */
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * The format for a file suffix such as <code>png</code>, ignoring case.
+         */
+        public static Format forSuffix(String suffix) {
+            for (Format format : values()) {
+                if (format.suffix.equalsIgnoreCase(suffix)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown image format: " + suffix);
+        }
+    }
+
+    private final IBScanDevice device;
+    private final ScratchFiles scratch;
+    private final WsqCodec wsq;
+    private final int jp2Quality;
+
+    /**
+     * An exporter for the Java-encoded formats only; JPEG 2000 fails with an
+     * <code>IOException</code>.
+     */
+    public ImageExport() {
+        this(null, null, new WsqCodec(), DEFAULT_JP2_QUALITY);
+    }
+
+    /**
+     * @param device     device whose native saver encodes JPEG 2000, or null
+     * @param scratch    scratch area for the native saver; the shared one if null
+     * @param wsq        WSQ codec, which fixes the bit rate
+     * @param jp2Quality JPEG 2000 quality passed to the native saver
+     */
+    public ImageExport(IBScanDevice device, ScratchFiles scratch, WsqCodec wsq, int jp2Quality) {
+        this.device = device;
+        this.scratch = scratch;
+        this.wsq = wsq;
+        this.jp2Quality = jp2Quality;
+    }
+
+    /**
+     * Write the image in the given format.
+     */
+    public void write(ImageData image, Format format, OutputStream out) throws IOException {
+        switch (format) {
+        case BMP:
+            GrayscaleEncoder.forCurrentThread().writeBmp(image, out);
+            break;
+        case PNG:
+            GrayscaleEncoder.forCurrentThread().writePng(image, out);
+            break;
+        case WSQ:
+            wsq.encode(image, out);
+            break;
+        case JP2:
+            writeJp2(image, out);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+    }
+
+    /**
+     * Write the image in the given format into <code>target</code>, starting at
+     * its position.
+     *
+     * @throws java.nio.BufferOverflowException if the encoded image does not fit
+     */
+    public void write(ImageData image, Format format, ByteBuffer target) throws IOException {
+        write(image, format, new OutputStream() {
+            @Override
+            public void write(int b) {
+                target.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                target.put(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * The encoded image in a heap buffer, positioned at 0 with its limit at the
+     * end of the data. The buffer wraps the encoder's own array, so there is no
+     * trailing copy.
+     */
+    public ByteBuffer encode(ImageData image, Format format) throws IOException {
+        if (format == Format.BMP) {
+            GrayBmpInputStream bmp = new GrayBmpInputStream(image);
+            byte[] bytes = new byte[bmp.length()];
+            int off = 0;
+            int n;
+            while (off < bytes.length && (n = bmp.read(bytes, off, bytes.length - off)) > 0) {
+                off += n;
+            }
+            return ByteBuffer.wrap(bytes);
+        }
+        Bytes bytes = new Bytes(image.width * image.height / (format == Format.PNG ? 2 : 8));
+        write(image, format, bytes);
+        return bytes.toByteBuffer();
+    }
+
+    private void writeJp2(ImageData image, OutputStream out) throws IOException {
+        if (device == null) {
+            throw new IOException("JPEG 2000 needs a device for the native encoder");
+        }
+        ScratchFiles files = scratch != null ? scratch : ScratchFiles.shared();
+        try (ScratchFiles.Lease file = files.lease("." + Format.JP2.getSuffix())) {
+            device.SaveJP2Image(file.getFileName(), image.buffer, image.width, image.height, image.pitch,
+                    image.resolutionX, image.resolutionY, jp2Quality);
+            Files.copy(file.getPath(), out);
+        } catch (IBScanException ex) {
+            throw new IOException("JPEG 2000 encoding failed", ex);
+        }
+    }
+
+    /* Exposes the internal array so the result can be wrapped, not copied. */
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes(int capacity) {
+            super(Math.max(capacity, 1024));
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package kojak.com.sample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+
+/**
+ * Saves captured images off the SDK callback thread. A save request is
+ * encoded by the worker pool of its format and handed to a single writer
+ * thread, which writes whatever has accumulated, syncs the batch and then
+ * completes the returned futures. A future therefore completes only once its
+ * file or {@link CaptureArchive} record is on stable storage, and fails if it
+ * could not be encoded or written.
+ * <p>
+ * At most <code>capacity</code> files are queued or in progress. A further
+ * request waits up to <code>waitMillis</code> for a slot, holding up the
+ * caller (and with it the next capture) until the writer catches up, and only
+ * then fails with a <code>RejectedExecutionException</code>. Images must not
+ * be modified after they are submitted.
+ */
+public class ImagePersistence implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ImagePersistence.class.getName());
+
+    /* Files written and synced together at most. */
+    private static final int MAX_BATCH = 32;
+
+    private final Semaphore capacity;
+    private final long waitMillis;
+    private final Map<ImageExport.Format, ExecutorService> encoders = new EnumMap<ImageExport.Format, ExecutorService>(
+            ImageExport.Format.class);
+    private final LinkedBlockingQueue<Request<?>> written = new LinkedBlockingQueue<Request<?>>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+    /* Set once the encoders have stopped, so nothing more reaches the writer. */
+    private volatile boolean encoded = false;
+
+    /**
+     * A pipeline whose requests fail at once when it is full.
+     */
+    public ImagePersistence(int capacity, int threads) {
+        this(capacity, threads, 0);
+    }
+
+    /**
+     * @param capacity   files that may be queued or in progress at once
+     * @param threads    encoder threads per format; JPEG 2000 always gets one,
+     *                   since it goes through the device
+     * @param waitMillis how long a request waits for a slot when all are taken
+     */
+    public ImagePersistence(int capacity, int threads, long waitMillis) {
+        this.capacity = new Semaphore(capacity);
+        this.waitMillis = waitMillis;
+        for (ImageExport.Format format : ImageExport.Format.values()) {
+            encoders.put(format, pool("save-" + format.getSuffix(), format == ImageExport.Format.JP2 ? 1 : threads));
+        }
+        this.writer = new Thread(this::writeLoop, "save-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static ExecutorService pool(final String name, int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue an image to be saved in one format, waiting for a slot if the
+     * pipeline is full.
+     *
+     * @return completes with <code>file</code> once it is durable
+     */
+    public CompletableFuture<Path> save(ImageExport export, ImageData image, ImageExport.Format format, Path file) {
+        return submit(new FileRequest(file), export, image, format);
+    }
+
+    /**
+     * Queue an image to be appended to an archive in one format, waiting for a
+     * slot if the pipeline is full.
+     *
+     * @return completes with the stored record once it is durable
+     */
+    public CompletableFuture<CaptureArchive.Record> archive(ImageExport export, ImageData image,
+            ImageExport.Format format, CaptureArchive archive, String session, String finger,
+            SegmentPosition[] positions, int[] nfiq) {
+        return submit(new ArchiveRequest(archive, session, finger, format, image, positions, nfiq), export, image,
+                format);
+    }
+
+    private <T> CompletableFuture<T> submit(final Request<T> request, final ImageExport export, final ImageData image,
+            final ImageExport.Format format) {
+        if (closed || !acquire()) {
+            request.done.completeExceptionally(new RejectedExecutionException("Image save queue is full"));
+            return request.done;
+        }
+        try {
+            encoders.get(format).execute(() -> {
+                try {
+                    request.data = export.encode(image, format);
+                    written.add(request);
+                } catch (Throwable ex) {
+                    request.fail(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            request.fail(ex);
+        }
+        return request.done;
+    }
+
+    /* Take a queue slot, waiting up to waitMillis for one. */
+    private boolean acquire() {
+        try {
+            return capacity.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queue an image in several formats, as <code>baseName.suffix</code> in
+     * <code>directory</code>.
+     *
+     * @return completes with the saved files once all of them are durable
+     */
+    public CompletableFuture<List<Path>> saveAll(ImageExport export, ImageData image, Set<ImageExport.Format> formats,
+            Path directory, String baseName) {
+        List<CompletableFuture<Path>> files = new ArrayList<CompletableFuture<Path>>();
+        for (ImageExport.Format format : formats) {
+            files.add(save(export, image, format, directory.resolve(baseName + "." + format.getSuffix())));
+        }
+        return all(files);
+    }
+
+    /**
+     * Queue an image to be archived in several formats under one session and
+     * finger.
+     *
+     * @return completes with the stored records once all of them are durable
+     */
+    public CompletableFuture<List<CaptureArchive.Record>> archiveAll(ImageExport export, ImageData image,
+            Set<ImageExport.Format> formats, CaptureArchive archive, String session, String finger,
+            SegmentPosition[] positions, int[] nfiq) {
+        List<CompletableFuture<CaptureArchive.Record>> records = new ArrayList<CompletableFuture<CaptureArchive.Record>>();
+        for (ImageExport.Format format : formats) {
+            records.add(archive(export, image, format, archive, session, finger, positions, nfiq));
+        }
+        return all(records);
+    }
+
+    private static <T> CompletableFuture<List<T>> all(final List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<T> results = new ArrayList<T>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    private void writeLoop() {
+        final List<Request<?>> batch = new ArrayList<Request<?>>(MAX_BATCH);
+        while (!encoded || !written.isEmpty()) {
+            try {
+                Request<?> first = written.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                written.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException | Error ex) {
+                // Keep the only writer alive; requests not yet finished fail with the cause
+                LOG.log(Level.SEVERE, "Cannot write saved images", ex);
+                for (Request<?> request : batch) {
+                    request.fail(ex);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /*
+     * Write every file and record of the batch before syncing any of them, so
+     * the kernel can schedule the writeback together, then sync each file, each
+     * archive and each new directory entry's directory once per batch.
+     */
+    private static void writeBatch(List<Request<?>> batch) {
+        List<FileChannel> channels = new ArrayList<FileChannel>(batch.size());
+        Set<CaptureArchive> archives = new LinkedHashSet<CaptureArchive>();
+        for (Request<?> request : batch) {
+            FileChannel channel = null;
+            try {
+                if (request instanceof FileRequest) {
+                    channel = FileChannel.open(((FileRequest) request).path, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    while (request.data.hasRemaining()) {
+                        channel.write(request.data);
+                    }
+                } else {
+                    ArchiveRequest record = (ArchiveRequest) request;
+                    record.append();
+                    archives.add(record.archive);
+                }
+            } catch (IOException | RuntimeException ex) {
+                close(channel);
+                channel = null;
+                request.fail(ex);
+            }
+            channels.add(channel);
+        }
+
+        Set<Path> directories = new LinkedHashSet<Path>();
+        for (int i = 0; i < batch.size(); i++) {
+            FileChannel channel = channels.get(i);
+            if (channel == null) {
+                continue;
+            }
+            FileRequest file = (FileRequest) batch.get(i);
+            try {
+                channel.force(true);
+                directories.add(file.path.toAbsolutePath().getParent());
+            } catch (IOException | RuntimeException ex) {
+                file.fail(ex);
+            } finally {
+                close(channel);
+            }
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+        for (CaptureArchive archive : archives) {
+            try {
+                archive.force();
+            } catch (IOException | RuntimeException ex) {
+                for (Request<?> request : batch) {
+                    if (request instanceof ArchiveRequest && ((ArchiveRequest) request).archive == archive) {
+                        request.fail(ex);
+                    }
+                }
+            }
+        }
+
+        for (Request<?> request : batch) {
+            request.succeed();
+        }
+    }
+
+    /* Makes new directory entries durable; not supported on every platform. */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Cannot sync directory " + directory, ex);
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.WARNING, "Cannot close saved image", ex);
+        }
+    }
+
+    /**
+     * Stop accepting images, finish the queued ones and stop the threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ExecutorService encoder : encoders.values()) {
+            encoder.shutdown();
+        }
+        try {
+            for (ExecutorService encoder : encoders.values()) {
+                encoder.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            encoded = true;
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * One file or record to save. Its queue slot is given back before the
+     * future completes, so a caller woken by the future can queue the next one.
+     */
+    private abstract class Request<T> {
+        final CompletableFuture<T> done = new CompletableFuture<T>();
+        ByteBuffer data;
+        private boolean finished = false;
+
+        abstract T result();
+
+        void succeed() {
+            if (finish()) {
+                done.complete(result());
+            }
+        }
+
+        void fail(Throwable ex) {
+            if (finish()) {
+                done.completeExceptionally(ex);
+            }
+        }
+
+        private synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            capacity.release();
+            return true;
+        }
+    }
+
+    private final class FileRequest extends Request<Path> {
+        final Path path;
+
+        FileRequest(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        Path result() {
+            return path;
+        }
+    }
+
+    private final class ArchiveRequest extends Request<CaptureArchive.Record> {
+        final CaptureArchive archive;
+        final String session;
+        final String finger;
+        final ImageExport.Format format;
+        final ImageData image;
+        final SegmentPosition[] positions;
+        final int[] nfiq;
+        CaptureArchive.Record record;
+
+        ArchiveRequest(CaptureArchive archive, String session, String finger, ImageExport.Format format,
+                ImageData image, SegmentPosition[] positions, int[] nfiq) {
+            this.archive = archive;
+            this.session = session;
+            this.finger = finger;
+            this.format = format;
+            this.image = image;
+            this.positions = positions;
+            this.nfiq = nfiq;
+        }
+
+        void append() throws IOException {
+            record = archive.append(session, finger, format, image, positions, nfiq, data);
+        }
+
+        @Override
+        CaptureArchive.Record result() {
+            return record;
+        }
+    }
+}
@@ -12,12 +12,15 @@ import java.io.IOException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.util.Base64;
 import java.util.Base64.Decoder;
 import java.util.Base64.Encoder;
 
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
 public class ImageUtils {
 
     /**
@@ -58,8 +61,7 @@ public class ImageUtils {
             byte[] imageBytes = bos.toByteArray();
 
             Encoder decoder = Base64.getEncoder();
-            imageString = decoder.encodeToString(imageBytes);
-            imageString = imageString.replaceAll("(?:\\n|\\r)", ""); //Kojak device image has carriage returns
+            imageString = decoder.encodeToString(imageBytes); // basic encoder never emits line breaks
 
             bos.close();
         } catch (IOException e) {
@@ -82,6 +84,57 @@ public class ImageUtils {
         return imageBytes;
     }
 
+    /**
+     * Encode 8-bit image data; PNG and BMP use {@link GrayscaleEncoder}, WSQ
+     * uses {@link WsqCodec} at its default bit rate, other types go through
+     * ImageIO.
+     *
+     * @param image The 8-bit grayscale image
+     * @param type png, bmp, wsq, jpeg, ...
+     */
+    public static void encodeTo(ImageData image, String type, OutputStream out) throws IOException {
+        if ("png".equalsIgnoreCase(type)) {
+            GrayscaleEncoder.forCurrentThread().writePng(image, out);
+        } else if ("bmp".equalsIgnoreCase(type)) {
+            GrayscaleEncoder.forCurrentThread().writeBmp(image, out);
+        } else if ("wsq".equalsIgnoreCase(type)) {
+            new WsqCodec().encode(image, out);
+        } else {
+            ImageIO.write(image.toImage(), type, out);
+        }
+    }
+
+    public static byte[] encodeToBytes(ImageData image, String type) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            encodeTo(image, type, bos);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return bos.toByteArray();
+    }
+
+    public static String encodeToString(ImageData image, String type) {
+        byte[] imageBytes = encodeToBytes(image, type);
+        return imageBytes == null ? null : Base64.getEncoder().encodeToString(imageBytes);
+    }
+
+    /**
+     * Write the 8-bit pixels of an image as top-down rows of <code>width</code>
+     * bytes, honouring the sign and padding of <code>pitch</code>.
+     *
+     * @param image The 8-bit grayscale image
+     * @param out stream receiving <code>width * height</code> bytes
+     */
+    public static void writeGrayRows(ImageData image, OutputStream out) throws IOException {
+        int stride = image.pitch == 0 ? image.width : Math.abs(image.pitch);
+        for (int row = 0; row < image.height; row++) {
+            int srcRow = image.pitch < 0 ? image.height - 1 - row : row;
+            out.write(image.buffer, srcRow * stride, image.width);
+        }
+    }
+
     public static void main(String args[]) throws IOException {
         System.out.println("Date:: "+(new java.util.Date().getYear()+1900));
         /* Test image to string and string to image start */
@@ -2,8 +2,14 @@ package kojak.com.sample;
 
 import java.awt.image.BufferedImage;
 
-import com.integratedbiometrics.IB.controller.IbScanController;
-import com.integratedbiometrics.ibscanultimate.IBScan;
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureStep;
+import com.integratedbiometrics.IB.capture.CaptureSession;
+import com.integratedbiometrics.IB.capture.CaptureSessionRegistry;
+import com.integratedbiometrics.IB.capture.Slap;
+import com.integratedbiometrics.IB.capture.SlapEncoder;
+import com.integratedbiometrics.IB.device.DeviceExecutor;
+import com.integratedbiometrics.IB.preview.PreviewHub;
 import com.integratedbiometrics.ibscanultimate.IBScanDevice;
 import com.integratedbiometrics.ibscanultimate.IBScanDeviceListener;
 import com.integratedbiometrics.ibscanultimate.IBScanException;
@@ -18,7 +24,11 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -36,85 +46,144 @@ import org.springframework.stereotype.Service;
  */
 public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 
-	protected IBScan ibScan = null;
+	private static final Logger LOG = Logger.getLogger(InvokeDevice.class.getName());
+
+	/* Beeps sleep between tones, so they are played off the SDK callback threads. */
+	private static final ExecutorService BEEPER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "device-beeper");
+		t.setDaemon(true);
+		return t;
+	});
+
 	protected IBScanDevice ibScanDevice = null;
 	protected BufferedImage lastScanImage = null;
+	protected final CaptureSessionRegistry sessionRegistry;
+	protected final PreviewHub previewHub;
+	protected final SlapEncoder slapEncoder;
+	protected final CaptureMetrics metrics;
+	protected final String serialNumber;
+	/* Start of the capture phase in progress (System.nanoTime) and its image type. */
+	protected volatile long phaseStartedAt;
+	protected volatile ImageType phaseImageType;
+	/* Finger qualities last reported during the placement in progress. */
+	protected volatile FingerQualityState[] fingerQualities;
+	/* Session being captured; set by the scheduler thread, read by SDK callback threads. */
+	protected volatile String sessionId = null;
 	public static IBScanException.Type errorcode;
 
-//	public static void main(String[] args) {
-//		new InvokeDevice().captureImages(1);
-//	}
+	/**
+	 * Create the listener for an already opened device. The device stays open
+	 * across captures; see <code>ScannerPool</code>.
+	 */
+	public InvokeDevice(CaptureSessionRegistry sessionRegistry, PreviewHub previewHub, SlapEncoder slapEncoder,
+			CaptureMetrics metrics, String serialNumber, IBScanDevice ibScanDevice) {
+		this.sessionRegistry = sessionRegistry;
+		this.previewHub = previewHub;
+		this.slapEncoder = slapEncoder;
+		this.metrics = metrics;
+		this.serialNumber = serialNumber;
+		this.ibScanDevice = ibScanDevice;
+		ibScanDevice.setScanDeviceListener(this);
+	}
 
-	public void captureImages(String hand) {
-		try {
-			ibScan = IBScan.getInstance();
-			ibScan.setScanListener(this);
-			IBScan.SdkVersion sdkVersion = ibScan.getSdkVersion();
-			int deviceCount = ibScan.getDeviceCount();
-			IBScan.DeviceDesc deviceDesc = ibScan.getDeviceDescription(0);
-			if (ibScanDevice != null) {
-				if (ibScanDevice.isOpened()) {
-					ibScanDevice.close();
-				}
-			}
-			ibScanDevice = ibScan.openDevice(0);
-			_BeepOk(ibScanDevice);
-			ibScanDevice.setScanDeviceListener(this);
+	/**
+	 * One-time device set-up done when the device is added to the pool, so that
+	 * captures only pay for <code>beginCaptureImage</code>.
+	 */
+	public void warmUp() throws IBScanException {
+		_BeepOk(ibScanDevice);
+		DeviceExecutor.forDevice(ibScanDevice).run(() -> {
 			String propertyValue = ibScanDevice.getProperty(IBScanDevice.PropertyId.DEVICE_ID);
 			IBScanDevice.LEOperationMode leOperationMode = ibScanDevice.getLEOperationMode();
 			IBScanDevice.LedState ledState = ibScanDevice.getOperableLEDs();
 			// long activeLEDs = ibScanDevice.getLEDs();
 			// ibScanDevice.setLEDs(IBScanDevice.IBSU_LED_F_BLINK_RED);
-			IBScanDevice.ImageResolution imageResolution = IBScanDevice.ImageResolution.RESOLUTION_500;
-			boolean active = ibScanDevice.isCaptureActive();
-			boolean available = false;
 			ibScanDevice.setContrast(21);
-			switch (hand) {
-			case "left":
-			case "right":
-				ibScanDevice.beginCaptureImage(IBScanDevice.ImageType.FLAT_FOUR_FINGERS, imageResolution,
-						IBScanDevice.OPTION_AUTO_CONTRAST);
-				available = ibScanDevice.isCaptureAvailable(IBScanDevice.ImageType.FLAT_FOUR_FINGERS, imageResolution);
-				break;
-			case "thumbs":
-				ibScanDevice.beginCaptureImage(IBScanDevice.ImageType.FLAT_TWO_FINGERS, imageResolution,
-						IBScanDevice.OPTION_AUTO_CONTRAST);
-				available = ibScanDevice.isCaptureAvailable(IBScanDevice.ImageType.FLAT_TWO_FINGERS, imageResolution);
-				break;
-			case "single":
-				ibScanDevice.beginCaptureImage(IBScanDevice.ImageType.FLAT_SINGLE_FINGER, imageResolution,
-						IBScanDevice.OPTION_AUTO_CONTRAST);
-				available = ibScanDevice.isCaptureAvailable(IBScanDevice.ImageType.FLAT_SINGLE_FINGER, imageResolution);
-				break;
-			}
-			// boolean isfptouching = ibScanDevice.isFingerTouching();
-			int contrastValue = ibScanDevice.getContrast();
+		});
+	}
 
-			// ibScanDevice.cancelCaptureImage(); //Cancel capture image
-			// ibScanDevice.close();
+	public IBScanDevice getDevice() {
+		return ibScanDevice;
+	}
+
+	/**
+	 * Start a capture for the given session. The session is completed when
+	 * <code>deviceImageResultExtendedAvailable</code> delivers the result of its
+	 * last step, or failed if a capture could not be started.
+	 */
+	public void captureImages(CaptureSession session) {
+		sessionId = session.getId();
+		session.getResult().whenComplete((json, ex) -> previewHub.complete(session.getId()));
+		beginStep(session);
+	}
+
+	/* Begin the capture of the session's current step. */
+	protected void beginStep(CaptureSession session) {
+		CaptureStep step = session.getCurrentStep();
+		if (step == null || session.isDone()) {
+			return;
+		}
+		try {
+			LOG.info("Place " + step.getName() + " (" + step.getNumberOfFingers() + " fingers) on " + serialNumber);
+			long start = System.nanoTime();
+			fingerQualities = null;
+			// The SDK captures once the fingers are placed well; preview frames stream until then.
+			// Waits for a native call in progress on the device, e.g. scoring of the previous slap.
+			DeviceExecutor.forDevice(ibScanDevice).run(() -> ibScanDevice.beginCaptureImage(step.getImageType(),
+					session.getImageResolution(), IBScanDevice.OPTION_AUTO_CONTRAST | IBScanDevice.OPTION_AUTO_CAPTURE));
+			phaseImageType = step.getImageType();
+			phaseStartedAt = System.nanoTime();
+			metrics.record(CaptureMetrics.BEGIN, serialNumber, step.getImageType(), phaseStartedAt - start);
 		} catch (IBScanException ex) { // Handle errors here
 			errorcode = ex.getType();
-			ex.printStackTrace();
+			LOG.log(Level.WARNING, "Could not begin capture of " + step.getName() + " on " + serialNumber, ex);
+			session.fail(ex);
 		}
 	}
 
+	/**
+	 * Abort a capture that is still waiting for its result, e.g. when the
+	 * client deadline has passed.
+	 */
+	public void cancelCapture(CaptureSession session) {
+		if (session.isDone()) {
+			return;
+		}
+		try {
+			if (session.getId().equals(sessionId)) {
+				DeviceExecutor.forDevice(ibScanDevice).run(() -> {
+					if (ibScanDevice.isCaptureActive()) {
+						ibScanDevice.cancelCaptureImage();
+					}
+				});
+			}
+		} catch (IBScanException ex) {
+			LOG.log(Level.WARNING, "Could not cancel capture on " + serialNumber, ex);
+		}
+		session.getResult().cancel(false);
+	}
+
 	public void scanDeviceCountChanged(int i) {
-		System.out.println("scanDeviceCountChanged");
+		LOG.fine("scanDeviceCountChanged");
 	}
 
 	public void scanDeviceInitProgress(int i, int i1) {
-		System.out.println("Progress:: " + i1);
+		LOG.fine("Progress:: " + i1);
 	}
 
 	public void scanDeviceOpenComplete(int i, IBScanDevice ibsd, IBScanException ibse) {
-		System.out.println("scanDeviceOpenComplete");
+		LOG.fine("scanDeviceOpenComplete");
 	}
 
 	public void deviceCommunicationBroken(IBScanDevice ibsd) {
+		CaptureSession session = sessionRegistry.get(sessionId);
+		if (session != null) {
+			session.fail(new IllegalStateException("Device communication broken"));
+		}
 		try {
 			_BeepFail(ibScanDevice);
-			ibScanDevice.close();
-			System.out.println("deviceCommunicationBroken");
+			DeviceExecutor.forDevice(ibScanDevice).run(() -> ibScanDevice.close());
+			LOG.warning("deviceCommunicationBroken: " + serialNumber);
 		} catch (IBScanException ex) {
 			if (ex.getType().equals(IBScanException.Type.RESOURCE_LOCKED)) {
 				deviceCommunicationBroken(ibsd);
@@ -123,31 +192,34 @@ public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 	}
 
 	public void deviceImagePreviewAvailable(IBScanDevice ibsd, ImageData id) throws IBScanException {
-		_BeepSuccess(ibScanDevice);
-		ibScanDevice.captureImageManually();
-		System.out.println("deviceImagePreviewAvailable");
+		previewHub.publish(sessionId, ibsd, id);
+		LOG.fine("deviceImagePreviewAvailable");
 	}
 
 	public void deviceFingerCountChanged(IBScanDevice ibsd, FingerCountState fcs) {
 		// Handle here if wrong number of finger are placed
 		// Expected outputs:
 		// FINGER_COUNT_OK,FINGER_NOT_PRESENT,TOO_FEW_FINGERS,NON_FINGER
-		System.out.println("deviceFingerCountChanged:" + fcs.name());
+		LOG.fine("deviceFingerCountChanged:" + fcs.name());
 	}
 
 	public void deviceFingerQualityChanged(IBScanDevice ibsd, FingerQualityState[] fqss) {
 		// Expected outputs: GOOD,POOR,FAIR
-		System.out.println("deviceFingerQualityChanged: " + fqss[0]);
+		// Kept for the result; the array may be reused by the SDK
+		fingerQualities = fqss == null ? null : fqss.clone();
+		LOG.fine("deviceFingerQualityChanged: " + Arrays.toString(fqss));
 	}
 
 	public void deviceAcquisitionBegun(IBScanDevice ibsd, ImageType it) {
+		endPhase(CaptureMetrics.ACQUISITION_BEGUN, it);
 		// _BeepSuccess(ibScanDevice);
-		System.out.println("deviceAcquisitionBegun");
+		LOG.fine("deviceAcquisitionBegun");
 	}
 
 	public void deviceAcquisitionCompleted(IBScanDevice ibsd, ImageType it) {
-		_BeepSuccess(ibScanDevice);
-		System.out.println("deviceAcquisitionCompleted");
+		endPhase(CaptureMetrics.ACQUISITION_COMPLETED, it);
+		BEEPER.execute(() -> _BeepSuccess(ibScanDevice));
+		LOG.fine("deviceAcquisitionCompleted");
 	}
 
 	public void deviceImageResultAvailable(IBScanDevice ibsd, ImageData id, ImageType it, ImageData[] ids) {
@@ -161,33 +233,44 @@ public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 		// System.out.println("Image:: " + imageString);
 	}
 
+	/* Record the time since the previous capture callback as the given phase. */
+	protected void endPhase(String phase, ImageType imageType) {
+		long now = System.nanoTime();
+		if (phaseStartedAt != 0 && imageType == phaseImageType) {
+			metrics.record(phase, serialNumber, imageType, now - phaseStartedAt);
+		}
+		phaseStartedAt = now;
+		phaseImageType = imageType;
+	}
+
 	public void devicePlatenStateChanged(IBScanDevice ibsd, PlatenState ps) {
-		System.out.println("devicePlatenStateChanged");
+		LOG.fine("devicePlatenStateChanged");
 	}
 
 	public void deviceWarningReceived(IBScanDevice ibsd, IBScanException ibse) {
-		System.out.println("deviceWarningReceived");
+		LOG.log(Level.WARNING, "deviceWarningReceived from " + serialNumber, ibse);
 	}
 
 	public void devicePressedKeyButtons(IBScanDevice ibsd, int i) {
-		System.out.println("devicePressedKeyButtons");
+		LOG.fine("devicePressedKeyButtons");
 	}
 
 	protected void _BeepFail(IBScanDevice ibScanDevice) {
 		try {
-			IBScanDevice.BeeperType beeperType = ibScanDevice.getOperableBeeper();
+			DeviceExecutor calls = DeviceExecutor.forDevice(ibScanDevice);
+			IBScanDevice.BeeperType beeperType = calls.call(() -> ibScanDevice.getOperableBeeper());
 			if (beeperType != IBScanDevice.BeeperType.BEEPER_TYPE_NONE) {
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
-						12/* 300ms = 12*25ms */, 0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						12/* 300ms = 12*25ms */, 0, 0));
 				_Sleep(150);
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 6/* 150ms = 6*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						6/* 150ms = 6*25ms */, 0, 0));
 				_Sleep(150);
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 6/* 150ms = 6*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						6/* 150ms = 6*25ms */, 0, 0));
 				_Sleep(150);
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 6/* 150ms = 6*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						6/* 150ms = 6*25ms */, 0, 0));
 			}
 		} catch (IBScanException ibse) {
 			try {
@@ -207,13 +290,14 @@ public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 
 	protected void _BeepSuccess(IBScanDevice ibScanDevice) {
 		try {
-			IBScanDevice.BeeperType beeperType = ibScanDevice.getOperableBeeper();
+			DeviceExecutor calls = DeviceExecutor.forDevice(ibScanDevice);
+			IBScanDevice.BeeperType beeperType = calls.call(() -> ibScanDevice.getOperableBeeper());
 			if (beeperType != IBScanDevice.BeeperType.BEEPER_TYPE_NONE) {
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 4/* 100ms = 4*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						4/* 100ms = 4*25ms */, 0, 0));
 				_Sleep(50);
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 4/* 100ms = 4*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						4/* 100ms = 4*25ms */, 0, 0));
 			}
 		} catch (IBScanException ibse) {
 			try {
@@ -229,10 +313,11 @@ public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 
 	protected void _BeepOk(IBScanDevice ibScanDevice) {
 		try {
-			IBScanDevice.BeeperType beeperType = ibScanDevice.getOperableBeeper();
+			DeviceExecutor calls = DeviceExecutor.forDevice(ibScanDevice);
+			IBScanDevice.BeeperType beeperType = calls.call(() -> ibScanDevice.getOperableBeeper());
 			if (beeperType != IBScanDevice.BeeperType.BEEPER_TYPE_NONE) {
-				ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */, 4/* 100ms = 4*25ms */,
-						0, 0);
+				calls.run(() -> ibScanDevice.setBeeper(IBScanDevice.BeepPattern.BEEP_PATTERN_GENERIC, 2/* Sol */,
+						4/* 100ms = 4*25ms */, 0, 0));
 			}
 		} catch (IBScanException ibse) {
 			try {
@@ -254,34 +339,29 @@ public class InvokeDevice implements IBScanListener, IBScanDeviceListener {
 	public void deviceImageResultExtendedAvailable(IBScanDevice device, IBScanException imageStatus, ImageData image,
 			ImageType imageType, int detectedFingerCount, ImageData[] segmentImageArray,
 			SegmentPosition[] segmentPositionArray) {
-		// Finger positions
-		JSONArray jsonArray = new JSONArray();
-		
+		endPhase(CaptureMetrics.RESULT, imageType);
+		if (image != null) {
+			metrics.recordFrameTime(serialNumber, imageType, image.frameTime);
+		}
+		CaptureSession session = sessionRegistry.get(sessionId);
+		if (session == null) {
+			// Nobody is waiting any more (cancelled or timed out)
+			LOG.info("deviceImageResultExtendedAvailable: no active session " + sessionId);
+			return;
+		}
 		try {
-//            ibScanDevice.SaveBitmapImage("D:\\Projects\\Equity\\KOJAK\\Kojak\\sample.bmp", image.buffer, image.width, image.height, image.pitch, image.resolutionX, image.resolutionY);
-			for (int i = 0; i < detectedFingerCount; i++) {
-				JSONObject jsonObject = new JSONObject();
-				BufferedImage bufferedImage = image.toImage(segmentImageArray[i].buffer, segmentImageArray[i].width,
-						segmentImageArray[i].height);
-				String encodeToString = ImageUtils.encodeToString(bufferedImage, "bmp");
-
-//                ibScanDevice.SaveBitmapImage("D:\\Projects\\Equity\\KOJAK\\Kojak\\sample" + i + ".bmp",
-//                        segmentImageArray[i].buffer, segmentImageArray[i].width, segmentImageArray[i].height,
-//                        segmentImageArray[i].pitch, segmentImageArray[i].resolutionX, segmentImageArray[i].resolutionY);
-				// System.out.println("Split:: " + i + encodeToString);
-				jsonObject.put("Position", String.valueOf(i));
-				jsonObject.put("fingerprint", encodeToString);
-				jsonObject.put("quality", "80");
-				jsonArray.add(jsonObject);
+			CaptureStep step = session.getCurrentStep();
+			Slap slap = new Slap(step.getName(), serialNumber, image, imageType, detectedFingerCount, segmentImageArray,
+					segmentPositionArray, fingerQualities);
+			// Segments are scored on the encoder's workers while the next
+			// placement is captured; the SDK thread returns at once
+			if (session.addSlap(slapEncoder.encode(slap, device))) {
+				CompletableFuture.runAsync(() -> beginStep(session));
 			}
-			IbScanController.response=new JSONObject();
-			IbScanController.response.put(IbScanController.jsonrequest.get("name").toString() + "Hand", jsonArray);
-			IbScanController.response.put("hand", IbScanController.jsonrequest.get("name"));
-			IbScanController.response.put("status", true);
-
-			System.out.println("deviceImageResultExtendedAvailable");
+			LOG.fine("deviceImageResultExtendedAvailable");
 		} catch (Exception ex) {
-			Logger.getLogger(InvokeDevice.class.getName()).log(Level.SEVERE, null, ex);
+			LOG.log(Level.SEVERE, "Could not process the result of " + sessionId, ex);
+			session.fail(ex);
 		}
 	}
 }
@@ -0,0 +1,140 @@
+package kojak.com.sample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scratch files for native calls that can only write to a filename, such as
+ * <code>IBScanDevice.SaveJP2Image</code>. Files live in a private directory on
+ * tmpfs (<code>/dev/shm</code>) when the system has one, so the round trip
+ * never touches the disk.
+ * <p>
+ * File names are pooled: a name is leased with {@link #lease(String)} and
+ * given back, with its file deleted, when the lease is closed, so a long
+ * running service reuses a handful of names instead of creating new ones per
+ * image. The directory and anything left in it are removed by {@link #close()}
+ * or, for the shared instance, at JVM exit.
+ */
+public class ScratchFiles implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ScratchFiles.class.getName());
+
+    private static final Path TMPFS = Paths.get("/dev/shm");
+
+    private static ScratchFiles shared;
+
+    private final Path directory;
+    private final ConcurrentMap<String, ConcurrentLinkedDeque<Path>> free = new ConcurrentHashMap<String, ConcurrentLinkedDeque<Path>>();
+    private final AtomicInteger names = new AtomicInteger();
+
+    /**
+     * A private scratch directory below <code>parent</code>.
+     */
+    public ScratchFiles(Path parent) throws IOException {
+        this.directory = Files.createTempDirectory(parent, "ib-scratch-");
+    }
+
+    /**
+     * The scratch area of this process, on tmpfs when available and in
+     * <code>java.io.tmpdir</code> otherwise. Created on first use and removed
+     * at exit.
+     */
+    public static synchronized ScratchFiles shared() throws IOException {
+        if (shared == null) {
+            final ScratchFiles scratch = new ScratchFiles(defaultParent());
+            Runtime.getRuntime().addShutdownHook(new Thread(scratch::close, "scratch-cleanup"));
+            shared = scratch;
+        }
+        return shared;
+    }
+
+    private static Path defaultParent() {
+        if (Files.isDirectory(TMPFS) && Files.isWritable(TMPFS)) {
+            return TMPFS;
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Lease a file name with the given suffix (e.g. <code>".jp2"</code>). The
+     * file does not exist yet; it is deleted when the lease is closed.
+     */
+    public Lease lease(String suffix) {
+        ConcurrentLinkedDeque<Path> pool = free.computeIfAbsent(suffix, s -> new ConcurrentLinkedDeque<Path>());
+        Path path = pool.pollFirst();
+        if (path == null) {
+            path = directory.resolve("scratch-" + names.incrementAndGet() + suffix);
+        }
+        return new Lease(path, pool);
+    }
+
+    /**
+     * Delete every scratch file and the directory. Leases still open are
+     * cleaned up too; their files must no longer be used.
+     */
+    @Override
+    public void close() {
+        free.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Could not remove scratch directory " + directory, ex);
+        }
+    }
+
+    /**
+     * A leased scratch file name; closing it deletes the file and returns the
+     * name to the pool.
+     */
+    public static final class Lease implements Closeable {
+        private final Path path;
+        private final ConcurrentLinkedDeque<Path> pool;
+        private boolean closed = false;
+
+        private Lease(Path path, ConcurrentLinkedDeque<Path> pool) {
+            this.path = path;
+            this.pool = pool;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /** The path as a string, for native calls taking a filename. */
+        public String getFileName() {
+            return path.toString();
+        }
+
+        public File toFile() {
+            return path.toFile();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Files.deleteIfExists(path);
+            pool.addFirst(path);
+        }
+    }
+}
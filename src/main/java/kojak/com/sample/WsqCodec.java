@@ -0,0 +1,672 @@
+package kojak.com.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * Encodes and decodes 8-bit grayscale fingerprint images as WSQ (FBI WSQ 3.1,
+ * the layout of the NBIS reference codec) in memory, as an alternative to
+ * <code>IBScanDevice.wsqEncodeToFile</code> which can only write files.
+ * <p>
+ * The wavelet passes, the per-subband variance and quantization work, and the
+ * Huffman coding of the three coefficient blocks run in parallel when the
+ * codec is created with <code>parallel</code> set. A codec has no mutable
+ * state and may be shared between threads.
+ */
+public class WsqCodec {
+
+    /** Bit rate of the IBScanUltimate samples, about 15:1 for 500 ppi prints. */
+    public static final double DEFAULT_BITRATE = 0.75;
+
+    /** Smallest supported width and height; the wavelet tree has five levels. */
+    public static final int MIN_SIZE = 80;
+
+    private static final int SOI = 0xffa0;
+    private static final int EOI = 0xffa1;
+    private static final int SOF = 0xffa2;
+    private static final int SOB = 0xffa3;
+    private static final int DTT = 0xffa4;
+    private static final int DQT = 0xffa5;
+    private static final int DHT = 0xffa6;
+    private static final int DRT = 0xffa7;
+    private static final int COM = 0xffa8;
+
+    /* Subband blocks: 0-18 use table 0, 19-51 and 52-59 share table 1. */
+    private static final int START_BLOCK_2 = 19;
+    private static final int START_BLOCK_3 = 52;
+    private static final int START_REGION_2 = 4;
+    private static final int START_REGION_3 = 51;
+    private static final double VARIANCE_THRESHOLD = 1.01;
+    /* Bin center, as written to the quantization table (0.44). */
+    private static final int BIN_CENTER = 44;
+    private static final int ENCODER_NUMBER = 2;
+
+    private final double bitRate;
+    private final boolean parallel;
+
+    public WsqCodec() {
+        this(DEFAULT_BITRATE, true);
+    }
+
+    /**
+     * @param bitRate  target bits per pixel, e.g. 0.75 (about 15:1) or 2.25 (about 5:1)
+     * @param parallel whether to spread the work over the common fork/join pool
+     */
+    public WsqCodec(double bitRate, boolean parallel) {
+        if (!(bitRate > 0)) {
+            throw new IllegalArgumentException("Bit rate must be positive: " + bitRate);
+        }
+        this.bitRate = bitRate;
+        this.parallel = parallel;
+    }
+
+    public double getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * Encode an 8-bit grayscale image, honouring the sign and padding of its
+     * <code>pitch</code>.
+     */
+    public void encode(ImageData image, OutputStream out) throws IOException {
+        encode(image.buffer, image.width, image.height, image.pitch, (int) Math.round(image.resolutionX), out);
+    }
+
+    public byte[] encode(ImageData image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.width * image.height / 8);
+        encode(image, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode 8-bit gray pixel rows.
+     *
+     * @param pitch row stride in bytes; negative for bottom-up rows, 0 for
+     *              packed rows
+     * @param ppi   resolution for the NIST comment, or 0 if unknown
+     */
+    public void encode(byte[] pixels, int width, int height, int pitch, int ppi, OutputStream out)
+            throws IOException {
+        if (width < MIN_SIZE || height < MIN_SIZE || width > 0xffff || height > 0xffff) {
+            throw new IllegalArgumentException("WSQ needs " + MIN_SIZE + " to 65535 pixels per side, not " + width
+                    + "x" + height);
+        }
+        int stride = pitch == 0 ? width : Math.abs(pitch);
+
+        // Normalize to zero mean and a range of about +-128
+        long sum = 0;
+        int low = 255;
+        int high = 0;
+        for (int y = 0; y < height; y++) {
+            int row = (pitch < 0 ? height - 1 - y : y) * stride;
+            for (int x = 0; x < width; x++) {
+                int pix = pixels[row + x] & 0xff;
+                sum += pix;
+                low = Math.min(low, pix);
+                high = Math.max(high, pix);
+            }
+        }
+        float shift = (float) sum / (width * height);
+        float scale = Math.max(shift - low, high - shift) / 128.0f;
+        if (scale == 0.0f) {
+            scale = 1.0f; // flat image: every subband quantizes to nothing
+        }
+        float[] data = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            int row = (pitch < 0 ? height - 1 - y : y) * stride;
+            for (int x = 0; x < width; x++) {
+                data[y * width + x] = ((pixels[row + x] & 0xff) - shift) / scale;
+            }
+        }
+
+        WsqTransform transform = new WsqTransform(width, height);
+        transform.decompose(data, WsqTransform.LO_FILTER, WsqTransform.HI_FILTER, parallel);
+
+        double[] binWidths = binWidths(transform, data);
+        int[] offsets = new int[WsqTransform.NUM_SUBBANDS + 1];
+        for (int k = 0; k < WsqTransform.NUM_SUBBANDS; k++) {
+            offsets[k + 1] = offsets[k] + (binWidths[k] > 0 ? transform.size(k) : 0);
+        }
+        short[] coefficients = new short[offsets[WsqTransform.NUM_SUBBANDS]];
+        subbands(k -> quantize(transform, data, k, binWidths[k], coefficients, offsets[k]));
+
+        int block2 = offsets[START_BLOCK_2];
+        int block3 = offsets[START_BLOCK_3];
+        int end = coefficients.length;
+        WsqHuffman[] tables = new WsqHuffman[2];
+        byte[][] blocks = new byte[3][];
+        tasks(() -> {
+            tables[0] = WsqHuffman.build(coefficients, 0, block2);
+            blocks[0] = tables[0].encode(coefficients, 0, block2);
+        }, () -> {
+            tables[1] = WsqHuffman.build(coefficients, block2, block3, block3, end);
+            if (parallel) {
+                tasks(() -> blocks[1] = tables[1].encode(coefficients, block2, block3),
+                        () -> blocks[2] = tables[1].encode(coefficients, block3, end));
+            } else {
+                blocks[1] = tables[1].encode(coefficients, block2, block3);
+                blocks[2] = tables[1].encode(coefficients, block3, end);
+            }
+        });
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeShort(SOI);
+        writeComment(dos, width, height, ppi);
+        writeTransformTable(dos);
+        writeQuantizationTable(dos, binWidths);
+        writeFrameHeader(dos, width, height, shift, scale);
+        writeHuffmanTable(dos, 0, tables[0]);
+        writeBlock(dos, 0, blocks[0]);
+        if (end > block2) {
+            writeHuffmanTable(dos, 1, tables[1]);
+            if (block3 > block2) {
+                writeBlock(dos, 1, blocks[1]);
+            }
+            if (end > block3) {
+                writeBlock(dos, 1, blocks[2]);
+            }
+        }
+        dos.writeShort(EOI);
+        dos.flush();
+    }
+
+    /**
+     * Decode a WSQ image into a packed, top-down 8-bit image. The resolution
+     * is taken from the NIST comment when present.
+     */
+    public static ImageData decode(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return decode(bytes.toByteArray());
+    }
+
+    public static ImageData decode(byte[] wsq) throws IOException {
+        return new Decoder(wsq).decode();
+    }
+
+    /* Bin widths per subband (WSQ 3.1, section A.3); 0 drops the subband. */
+    private double[] binWidths(WsqTransform transform, float[] data) {
+        final int subbands = WsqTransform.NUM_SUBBANDS;
+        double[] variance = new double[subbands];
+        for (int k = 0; k < 4; k++) {
+            variance[k] = variance(transform, data, k, true);
+        }
+        boolean whole = variance[0] + variance[1] + variance[2] + variance[3] < 20000.0;
+        subbands(k -> {
+            if (whole || k >= 4) {
+                variance[k] = variance(transform, data, k, !whole);
+            }
+        });
+
+        double[] weights = new double[subbands];
+        for (int k = 0; k < subbands; k++) {
+            weights[k] = 1.0;
+        }
+        weights[52] = 1.32;
+        weights[53] = 1.08;
+        weights[54] = 1.42;
+        weights[55] = 1.08;
+        weights[56] = 1.32;
+        weights[57] = 1.42;
+        weights[58] = 1.08;
+        weights[59] = 1.08;
+
+        double[] initial = new double[subbands];
+        double[] sigma = new double[subbands];
+        double[] m = new double[subbands];
+        boolean[] kept = new boolean[subbands];
+        for (int k = 0; k < subbands; k++) {
+            m[k] = k < START_REGION_2 ? 1.0 / 1024.0 : k < START_REGION_3 ? 1.0 / 256.0 : 1.0 / 16.0;
+            if (variance[k] >= VARIANCE_THRESHOLD) {
+                initial[k] = k < START_REGION_2 ? 1.0 : 10.0 / (weights[k] * Math.log(variance[k]));
+                sigma[k] = Math.sqrt(variance[k]);
+                kept[k] = true;
+            }
+        }
+
+        // Drop subbands that would get a non-positive bit rate until none do
+        double q = 0.0;
+        boolean dropped = true;
+        while (dropped) {
+            double s = 0.0;
+            double logP = 0.0;
+            for (int k = 0; k < subbands; k++) {
+                if (kept[k]) {
+                    s += m[k];
+                    logP += m[k] * Math.log(sigma[k] / initial[k]);
+                }
+            }
+            if (s == 0.0) {
+                break;
+            }
+            q = (Math.pow(2.0, bitRate / s - 1.0) / 2.5) / Math.exp(logP / s);
+            dropped = false;
+            for (int k = 0; k < subbands; k++) {
+                if (kept[k] && initial[k] / q >= 5.0 * sigma[k]) {
+                    kept[k] = false;
+                    dropped = true;
+                }
+            }
+        }
+
+        double[] widths = new double[subbands];
+        for (int k = 0; k < subbands; k++) {
+            widths[k] = kept[k] ? initial[k] / q : 0.0;
+        }
+        return widths;
+    }
+
+    private static double variance(WsqTransform transform, float[] data, int k, boolean cropped) {
+        WsqTransform.Node node = transform.qTree[k];
+        int x = node.x;
+        int y = node.y;
+        int lenx = node.lenx;
+        int leny = node.leny;
+        if (cropped) {
+            x += node.lenx / 8;
+            y += 9 * node.leny / 32;
+            lenx = 3 * node.lenx / 4;
+            leny = 7 * node.leny / 16;
+        }
+        int count = lenx * leny;
+        if (count < 2) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        double squares = 0.0;
+        for (int row = 0; row < leny; row++) {
+            int p = (y + row) * transform.width + x;
+            for (int col = 0; col < lenx; col++) {
+                double pix = data[p + col];
+                sum += pix;
+                squares += pix * pix;
+            }
+        }
+        return (squares - sum * sum / count) / (count - 1.0);
+    }
+
+    private static void quantize(WsqTransform transform, float[] data, int k, double binWidth, short[] out,
+            int offset) {
+        if (binWidth == 0.0) {
+            return;
+        }
+        WsqTransform.Node node = transform.qTree[k];
+        double zeroBin = 1.2 * binWidth;
+        double half = zeroBin / 2.0;
+        int o = offset;
+        for (int row = 0; row < node.leny; row++) {
+            int p = (node.y + row) * transform.width + node.x;
+            for (int col = 0; col < node.lenx; col++) {
+                double c = data[p + col];
+                int value;
+                if (-half <= c && c <= half) {
+                    value = 0;
+                } else if (c > 0.0) {
+                    value = (int) ((c - half) / binWidth + 1.0);
+                } else {
+                    value = (int) ((c + half) / binWidth - 1.0);
+                }
+                out[o++] = (short) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, value));
+            }
+        }
+    }
+
+    interface Subband {
+        void run(int k);
+    }
+
+    private void subbands(Subband task) {
+        IntStream range = IntStream.range(0, WsqTransform.NUM_SUBBANDS);
+        (parallel ? range.parallel() : range).forEach(task::run);
+    }
+
+    private void tasks(Runnable first, Runnable second) {
+        if (!parallel) {
+            first.run();
+            second.run();
+            return;
+        }
+        ForkJoinTask<?> forked = ForkJoinTask.adapt(first).fork();
+        second.run();
+        forked.join();
+    }
+
+    private void writeComment(DataOutputStream out, int width, int height, int ppi) throws IOException {
+        String comment = String.format(Locale.ROOT,
+                "NIST_COM 9\nPIX_WIDTH %d\nPIX_HEIGHT %d\nPIX_DEPTH 8\nPPI %d\nLOSSY 1\n"
+                        + "COLORSPACE GRAY\nCOMPRESSION WSQ\nWSQ_BITRATE %f",
+                width, height, ppi > 0 ? ppi : -1, bitRate);
+        byte[] text = comment.getBytes(StandardCharsets.US_ASCII);
+        out.writeShort(COM);
+        out.writeShort(text.length + 2);
+        out.write(text);
+    }
+
+    private static void writeTransformTable(DataOutputStream out) throws IOException {
+        float[] lo = WsqTransform.LO_FILTER;
+        float[] hi = WsqTransform.HI_FILTER;
+        out.writeShort(DTT);
+        out.writeShort(58);
+        out.writeByte(lo.length);
+        out.writeByte(hi.length);
+        for (int i = lo.length / 2; i < lo.length; i++) {
+            writeCoefficient(out, lo[i]);
+        }
+        for (int i = hi.length / 2; i < hi.length; i++) {
+            writeCoefficient(out, hi[i]);
+        }
+    }
+
+    private static void writeCoefficient(DataOutputStream out, double value) throws IOException {
+        out.writeByte(value < 0 ? 1 : 0);
+        double v = Math.abs(value);
+        int scale = 0;
+        long digits = 0;
+        if (v != 0.0) {
+            while (v < 4294967295.0) {
+                scale++;
+                v *= 10.0;
+            }
+            scale--;
+            digits = Math.round(v / 10.0);
+        }
+        out.writeByte(scale);
+        out.writeInt((int) digits);
+    }
+
+    private static void writeQuantizationTable(DataOutputStream out, double[] binWidths) throws IOException {
+        out.writeShort(DQT);
+        out.writeShort(389);
+        out.writeByte(2);
+        out.writeShort(BIN_CENTER);
+        for (int k = 0; k < WsqTransform.Q_TREELEN; k++) {
+            double width = k < binWidths.length ? binWidths[k] : 0.0;
+            writeScaled(out, width);
+            writeScaled(out, 1.2 * width);
+        }
+    }
+
+    private static void writeFrameHeader(DataOutputStream out, int width, int height, float shift, float scale)
+            throws IOException {
+        out.writeShort(SOF);
+        out.writeShort(17);
+        out.writeByte(0); // black
+        out.writeByte(255); // white
+        out.writeShort(height);
+        out.writeShort(width);
+        writeScaled(out, shift);
+        writeScaled(out, scale);
+        out.writeByte(ENCODER_NUMBER);
+        out.writeShort(0); // software implementation
+    }
+
+    /* A value as a decimal exponent byte and 16-bit mantissa. */
+    private static void writeScaled(DataOutputStream out, double value) throws IOException {
+        int scale = 0;
+        int digits = 0;
+        if (value != 0.0) {
+            double v = value;
+            while (v < 65535.0) {
+                scale++;
+                v *= 10.0;
+            }
+            scale--;
+            digits = (int) Math.round(v / 10.0);
+        }
+        out.writeByte(scale);
+        out.writeShort(digits);
+    }
+
+    private static void writeHuffmanTable(DataOutputStream out, int id, WsqHuffman table) throws IOException {
+        out.writeShort(DHT);
+        out.writeShort(3 + WsqHuffman.MAX_HUFFBITS + table.values.length);
+        out.writeByte(id);
+        for (int count : table.bits) {
+            out.writeByte(count);
+        }
+        for (int value : table.values) {
+            out.writeByte(value);
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, int table, byte[] data) throws IOException {
+        out.writeShort(SOB);
+        out.writeShort(3);
+        out.writeByte(table);
+        out.write(data);
+    }
+
+    /* Marker parser and reconstruction of one WSQ image. */
+    private static final class Decoder {
+        private final byte[] data;
+        private int pos;
+
+        /* Synthesis filters. */
+        private float[] lo;
+        private float[] hi;
+        private double binCenter;
+        private final double[] binWidths = new double[WsqTransform.Q_TREELEN];
+        private final double[] zeroBins = new double[WsqTransform.Q_TREELEN];
+        private final WsqHuffman[] tables = new WsqHuffman[8];
+        private int width;
+        private int height;
+        private double shift;
+        private double scale;
+        private int ppi;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        ImageData decode() throws IOException {
+            if (ushort() != SOI) {
+                throw new IOException("Not a WSQ image");
+            }
+            WsqTransform transform = null;
+            short[] coefficients = null;
+            int count = 0;
+            while (true) {
+                int marker = ushort();
+                if (marker == EOI) {
+                    break;
+                }
+                switch (marker) {
+                case COM:
+                    readComment();
+                    break;
+                case DTT:
+                    readTransformTable();
+                    break;
+                case DQT:
+                    readQuantizationTable();
+                    break;
+                case DHT:
+                    readHuffmanTables();
+                    break;
+                case SOF:
+                    readFrameHeader();
+                    transform = new WsqTransform(width, height);
+                    coefficients = new short[width * height];
+                    break;
+                case SOB: {
+                    ushort(); // length
+                    int id = ubyte();
+                    if (coefficients == null || id >= tables.length || tables[id] == null) {
+                        throw new IOException("WSQ block before its frame or table");
+                    }
+                    WsqHuffman.BitReader reader = new WsqHuffman.BitReader(data, pos);
+                    count = tables[id].decode(reader, coefficients, count);
+                    pos = reader.position();
+                    break;
+                }
+                case DRT:
+                    pos += ushort() - 2;
+                    break;
+                default:
+                    throw new IOException("Unexpected WSQ marker " + Integer.toHexString(marker));
+                }
+            }
+            if (transform == null || lo == null) {
+                throw new IOException("WSQ image without frame or transform table");
+            }
+
+            float[] image = new float[width * height];
+            WsqTransform t = transform;
+            short[] q = coefficients;
+            int[] offsets = new int[WsqTransform.NUM_SUBBANDS + 1];
+            for (int k = 0; k < WsqTransform.NUM_SUBBANDS; k++) {
+                offsets[k + 1] = offsets[k] + (binWidths[k] != 0.0 ? t.size(k) : 0);
+            }
+            IntStream.range(0, WsqTransform.NUM_SUBBANDS).parallel()
+                    .forEach(k -> unquantize(t, q, offsets[k], k, image));
+            transform.reconstruct(image, lo, hi, true);
+
+            byte[] pixels = new byte[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                double pix = image[i] * scale + shift + 0.5;
+                pixels[i] = (byte) (pix < 0.0 ? 0 : pix > 255.0 ? 255 : (int) pix);
+            }
+            return new ImageData(pixels, width, height, ppi, ppi, 0, width, (short) 8, 0, true, 0) {
+            };
+        }
+
+        private void unquantize(WsqTransform transform, short[] q, int offset, int k, float[] image) {
+            double binWidth = binWidths[k];
+            if (binWidth == 0.0) {
+                return;
+            }
+            double half = zeroBins[k] / 2.0;
+            WsqTransform.Node node = transform.qTree[k];
+            int o = offset;
+            for (int row = 0; row < node.leny; row++) {
+                int p = (node.y + row) * width + node.x;
+                for (int col = 0; col < node.lenx; col++) {
+                    int value = q[o++];
+                    if (value > 0) {
+                        image[p + col] = (float) (binWidth * (value - binCenter) + half);
+                    } else if (value < 0) {
+                        image[p + col] = (float) (binWidth * (value + binCenter) - half);
+                    }
+                }
+            }
+        }
+
+        private void readComment() throws IOException {
+            int length = ushort() - 2;
+            String text = new String(data, pos, Math.min(length, data.length - pos), StandardCharsets.US_ASCII);
+            pos += length;
+            if (text.startsWith("NIST_COM")) {
+                for (String line : text.split("\n")) {
+                    if (line.startsWith("PPI ")) {
+                        try {
+                            ppi = Math.max(0, Integer.parseInt(line.substring(4).trim()));
+                        } catch (NumberFormatException ex) {
+                            // keep unknown
+                        }
+                    }
+                }
+            }
+        }
+
+        /* The table holds the analysis filters; reconstruction uses their duals. */
+        private void readTransformTable() throws IOException {
+            ushort(); // length
+            int loSize = ubyte();
+            int hiSize = ubyte();
+            hi = WsqTransform.modulate(readFilter(loSize));
+            lo = WsqTransform.modulate(readFilter(hiSize));
+        }
+
+        /* Symmetric odd-length filters, stored from the center outwards. */
+        private float[] readFilter(int size) throws IOException {
+            if (size % 2 == 0) {
+                throw new IOException("Unsupported WSQ filter length " + size);
+            }
+            float[] filter = new float[size];
+            int half = size / 2;
+            for (int i = 0; i <= half; i++) {
+                int sign = ubyte();
+                int scale = ubyte();
+                double value = (((long) ushort() << 16) | ushort()) / Math.pow(10, scale);
+                filter[half + i] = (float) (sign != 0 ? -value : value);
+                filter[half - i] = filter[half + i];
+            }
+            return filter;
+        }
+
+        private void readQuantizationTable() throws IOException {
+            ushort(); // length
+            binCenter = scaled();
+            for (int k = 0; k < WsqTransform.Q_TREELEN; k++) {
+                binWidths[k] = scaled();
+                zeroBins[k] = scaled();
+            }
+        }
+
+        private void readHuffmanTables() throws IOException {
+            int end = pos + ushort();
+            while (pos < end) {
+                int id = ubyte();
+                int[] bits = new int[WsqHuffman.MAX_HUFFBITS];
+                int total = 0;
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] = ubyte();
+                    total += bits[i];
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = ubyte();
+                }
+                if (id >= tables.length) {
+                    throw new IOException("Invalid WSQ Huffman table " + id);
+                }
+                tables[id] = new WsqHuffman(bits, values);
+            }
+        }
+
+        private void readFrameHeader() throws IOException {
+            ushort(); // length
+            ubyte(); // black
+            ubyte(); // white
+            height = ushort();
+            width = ushort();
+            shift = scaled();
+            scale = scaled();
+            ubyte(); // encoder
+            ushort(); // software
+            if (width < MIN_SIZE || height < MIN_SIZE) {
+                throw new IOException("Unsupported WSQ size " + width + "x" + height);
+            }
+        }
+
+        private double scaled() throws IOException {
+            int scale = ubyte();
+            int digits = ushort();
+            return digits / Math.pow(10, scale);
+        }
+
+        private int ubyte() throws IOException {
+            if (pos >= data.length) {
+                throw new IOException("Truncated WSQ data");
+            }
+            return data[pos++] & 0xff;
+        }
+
+        private int ushort() throws IOException {
+            return (ubyte() << 8) | ubyte();
+        }
+    }
+}
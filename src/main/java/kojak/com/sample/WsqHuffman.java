@@ -0,0 +1,379 @@
+package kojak.com.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * WSQ Huffman coding of quantized coefficients: symbols 1-100 are zero runs,
+ * 101-106 escape larger coefficients and runs, and 107-254 are the
+ * coefficients -73..74 (offset by 180). Tables are built per image with the
+ * JPEG length-limiting procedure, so no code is longer than 16 bits and none
+ * is all ones.
+ */
+final class WsqHuffman {
+
+    static final int MAX_HUFFBITS = 16;
+    private static final int MAX_HUFFCOUNTS = 256;
+    private static final int MAX_COEFF = 74;
+    private static final int MAX_ZRUN = 100;
+
+    /* Number of codes of each length 1-16, and the symbols in code order. */
+    final int[] bits;
+    final int[] values;
+
+    /* Encoding: code and length per symbol. */
+    private final int[] codes = new int[MAX_HUFFCOUNTS];
+    private final int[] sizes = new int[MAX_HUFFCOUNTS];
+
+    /* Decoding (JPEG F.2.2.3), indexed by code length. */
+    private final int[] maxCode = new int[MAX_HUFFBITS + 2];
+    private final int[] minCode = new int[MAX_HUFFBITS + 1];
+    private final int[] valPtr = new int[MAX_HUFFBITS + 1];
+
+    WsqHuffman(int[] bits, int[] values) {
+        this.bits = bits;
+        this.values = values;
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= MAX_HUFFBITS; length++) {
+            valPtr[length] = k;
+            minCode[length] = code;
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[k]] = code;
+                sizes[values[k]] = length;
+                k++;
+                code++;
+            }
+            maxCode[length] = bits[length - 1] > 0 ? code - 1 : -1;
+            code <<= 1;
+        }
+        maxCode[MAX_HUFFBITS + 1] = Integer.MAX_VALUE;
+    }
+
+    /**
+     * The optimal table for the coefficients of the given blocks.
+     *
+     * @param ranges pairs of start and end offsets into <code>data</code>
+     */
+    static WsqHuffman build(short[] data, int... ranges) {
+        final int[] freq = new int[MAX_HUFFCOUNTS + 1];
+        for (int i = 0; i < ranges.length; i += 2) {
+            symbols(data, ranges[i], ranges[i + 1], (symbol, extraBits, extra) -> freq[symbol]++);
+        }
+        boolean empty = true;
+        for (int i = 0; i < MAX_HUFFCOUNTS && empty; i++) {
+            empty = freq[i] == 0;
+        }
+        if (empty) {
+            freq[1] = 1; // keep the table valid for blocks without coefficients
+        }
+        freq[MAX_HUFFCOUNTS] = 1; // reserved, so that no code is all ones
+
+        // Code lengths (JPEG K.2)
+        int[] codeSize = new int[MAX_HUFFCOUNTS + 1];
+        int[] others = new int[MAX_HUFFCOUNTS + 1];
+        Arrays.fill(others, -1);
+        while (true) {
+            int v1 = -1;
+            int v2 = -1;
+            for (int i = 0; i <= MAX_HUFFCOUNTS; i++) {
+                if (freq[i] == 0) {
+                    continue;
+                }
+                if (v1 < 0 || freq[i] <= freq[v1]) {
+                    v2 = v1;
+                    v1 = i;
+                } else if (v2 < 0 || freq[i] <= freq[v2]) {
+                    v2 = i;
+                }
+            }
+            if (v2 < 0) {
+                break;
+            }
+            freq[v1] += freq[v2];
+            freq[v2] = 0;
+            codeSize[v1]++;
+            while (others[v1] >= 0) {
+                v1 = others[v1];
+                codeSize[v1]++;
+            }
+            others[v1] = v2;
+            codeSize[v2]++;
+            while (others[v2] >= 0) {
+                v2 = others[v2];
+                codeSize[v2]++;
+            }
+        }
+
+        // Count codes per length and limit them to 16 bits (JPEG K.3)
+        int[] count = new int[2 * MAX_HUFFCOUNTS + 1];
+        for (int i = 0; i <= MAX_HUFFCOUNTS; i++) {
+            if (codeSize[i] > 0) {
+                count[codeSize[i]]++;
+            }
+        }
+        for (int i = count.length - 1; i > MAX_HUFFBITS; i--) {
+            while (count[i] > 0) {
+                int j = i - 2;
+                while (count[j] == 0) {
+                    j--;
+                }
+                count[i] -= 2;
+                count[i - 1]++;
+                count[j + 1] += 2;
+                count[j]--;
+            }
+        }
+        int longest = MAX_HUFFBITS;
+        while (count[longest] == 0) {
+            longest--;
+        }
+        count[longest]--; // drop the reserved code
+
+        int[] bits = Arrays.copyOfRange(count, 1, MAX_HUFFBITS + 1);
+        int total = 0;
+        for (int b : bits) {
+            total += b;
+        }
+        int[] values = new int[total];
+        int k = 0;
+        for (int size = 1; size < count.length && k < total; size++) {
+            for (int i = 0; i < MAX_HUFFCOUNTS; i++) {
+                if (codeSize[i] == size) {
+                    values[k++] = i;
+                }
+            }
+        }
+        return new WsqHuffman(bits, values);
+    }
+
+    /**
+     * Huffman-code the coefficients <code>[from, to)</code> as one block,
+     * with 0xFF bytes stuffed and the last byte padded with ones.
+     */
+    byte[] encode(short[] data, int from, int to) {
+        final BitWriter out = new BitWriter((to - from) / 4 + 16);
+        symbols(data, from, to, (symbol, extraBits, extra) -> {
+            out.write(codes[symbol], sizes[symbol]);
+            if (extraBits > 0) {
+                out.write(extra, extraBits);
+            }
+        });
+        return out.finish();
+    }
+
+    /**
+     * Decode one block into <code>out</code> starting at <code>offset</code>,
+     * up to the next marker.
+     *
+     * @return the offset after the last decoded coefficient
+     */
+    int decode(BitReader in, short[] out, int offset) throws IOException {
+        int k = offset;
+        while (true) {
+            int code = in.bit();
+            if (code < 0) {
+                return k;
+            }
+            int length = 1;
+            while (code > maxCode[length]) {
+                int bit = in.bit();
+                if (bit < 0) {
+                    return k; // padding before the marker
+                }
+                code = (code << 1) | bit;
+                if (++length > MAX_HUFFBITS) {
+                    throw new IOException("Invalid WSQ Huffman code");
+                }
+            }
+            int symbol = values[valPtr[length] + code - minCode[length]];
+            int run = 0;
+            int value = 0;
+            if (symbol > 0 && symbol <= MAX_ZRUN) {
+                run = symbol;
+            } else if (symbol > 106 && symbol < 0xff) {
+                value = symbol - 180;
+            } else if (symbol == 101) {
+                value = in.bits(8);
+            } else if (symbol == 102) {
+                value = -in.bits(8);
+            } else if (symbol == 103) {
+                value = in.bits(16);
+            } else if (symbol == 104) {
+                value = -in.bits(16);
+            } else if (symbol == 105) {
+                run = in.bits(8);
+            } else if (symbol == 106) {
+                run = in.bits(16);
+            } else {
+                throw new IOException("Invalid WSQ Huffman symbol " + symbol);
+            }
+            int n = run > 0 ? run : 1;
+            if (k + n > out.length) {
+                throw new IOException("Too many WSQ coefficients");
+            }
+            if (run == 0) {
+                out[k] = (short) value;
+            }
+            k += n;
+        }
+    }
+
+    interface SymbolSink {
+        void symbol(int symbol, int extraBits, int extra);
+    }
+
+    /* The symbol stream of a block, shared by counting and coding. */
+    private static void symbols(short[] data, int from, int to, SymbolSink sink) {
+        int run = 0;
+        for (int i = from; i < to; i++) {
+            int pix = data[i];
+            if (pix == 0 && run < 0xFFFF) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                run(run, sink);
+                run = 0;
+            }
+            if (pix == 0) {
+                run = 1;
+            } else {
+                coefficient(pix, sink);
+            }
+        }
+        if (run > 0) {
+            run(run, sink);
+        }
+    }
+
+    private static void run(int run, SymbolSink sink) {
+        if (run <= MAX_ZRUN) {
+            sink.symbol(run, 0, 0);
+        } else if (run <= 0xFF) {
+            sink.symbol(105, 8, run);
+        } else {
+            sink.symbol(106, 16, run);
+        }
+    }
+
+    private static void coefficient(int pix, SymbolSink sink) {
+        if (pix > MAX_COEFF) {
+            if (pix > 255) {
+                sink.symbol(103, 16, pix);
+            } else {
+                sink.symbol(101, 8, pix);
+            }
+        } else if (pix < 1 - MAX_COEFF) {
+            if (pix < -255) {
+                sink.symbol(104, 16, -pix);
+            } else {
+                sink.symbol(102, 8, -pix);
+            }
+        } else {
+            sink.symbol(pix + 180, 0, 0);
+        }
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current;
+        private int count;
+
+        BitWriter(int capacity) {
+            out = new ByteArrayOutputStream(capacity);
+        }
+
+        void write(int code, int size) {
+            for (int i = size - 1; i >= 0; i--) {
+                current = (current << 1) | ((code >> i) & 1);
+                if (++count == 8) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            out.write(current);
+            if (current == 0xFF) {
+                out.write(0);
+            }
+            current = 0;
+            count = 0;
+        }
+
+        byte[] finish() {
+            if (count > 0) {
+                while (count < 8) {
+                    current = (current << 1) | 1;
+                    count++;
+                }
+                flush();
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads entropy-coded bits, removing stuffed zero bytes and stopping at
+     * the next marker.
+     */
+    static final class BitReader {
+        private final byte[] data;
+        private int pos;
+        private int current;
+        private int count;
+        private boolean atMarker;
+
+        BitReader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        /** Position of the marker that ended the block. */
+        int position() {
+            return pos;
+        }
+
+        /** The next bit, or -1 at a marker. */
+        int bit() throws IOException {
+            if (count == 0) {
+                if (atMarker) {
+                    return -1;
+                }
+                if (pos >= data.length) {
+                    throw new IOException("Truncated WSQ data");
+                }
+                int b = data[pos] & 0xff;
+                if (b == 0xFF) {
+                    if (pos + 1 >= data.length) {
+                        throw new IOException("Truncated WSQ data");
+                    }
+                    if (data[pos + 1] != 0) {
+                        atMarker = true;
+                        return -1;
+                    }
+                    pos++;
+                }
+                pos++;
+                current = b;
+                count = 8;
+            }
+            count--;
+            return (current >> count) & 1;
+        }
+
+        int bits(int n) throws IOException {
+            int value = 0;
+            for (int i = 0; i < n; i++) {
+                int bit = bit();
+                if (bit < 0) {
+                    throw new IOException("Truncated WSQ coefficient");
+                }
+                value = (value << 1) | bit;
+            }
+            return value;
+        }
+    }
+}
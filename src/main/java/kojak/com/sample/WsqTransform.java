@@ -0,0 +1,823 @@
+package kojak.com.sample;
+
+import java.util.stream.IntStream;
+
+/**
+ * The WSQ subband layout and wavelet transform (FBI WSQ 3.1, as in NBIS): the
+ * 20-node wavelet tree that splits the image into 64 subbands, and the
+ * symmetric-extension filter passes that decompose and reconstruct it.
+ * <p>
+ * The rows (or columns) of one filter pass are independent, so large passes
+ * are split over the common fork/join pool when <code>parallel</code> is set.
+ */
+final class WsqTransform {
+
+    static final int W_TREELEN = 20;
+    static final int Q_TREELEN = 64;
+    static final int NUM_SUBBANDS = 60;
+
+    /* 9/7 analysis filters of the reference encoder. */
+    static final float[] LO_FILTER = { 0.03782845550726404f, -0.023849465019556843f, -0.11062440441843718f,
+            0.37740285561283066f, 0.8526986790088938f, 0.37740285561283066f, -0.11062440441843718f,
+            -0.023849465019556843f, 0.03782845550726404f };
+    static final float[] HI_FILTER = { 0.06453888262869706f, -0.04068941760916406f, -0.41809227322161724f,
+            0.7884856164055829f, -0.41809227322161724f, -0.04068941760916406f, 0.06453888262869706f };
+
+    /* Matching synthesis filters, as a decoder derives them from the transform table. */
+    static final float[] LO_SYNTHESIS = modulate(HI_FILTER);
+    static final float[] HI_SYNTHESIS = modulate(LO_FILTER);
+
+    /* Passes smaller than this many samples are not worth splitting. */
+    private static final int PARALLEL_THRESHOLD = 32 * 1024;
+
+    static final class Node {
+        int x, y, lenx, leny;
+        boolean invRow, invCol;
+    }
+
+    final int width;
+    final int height;
+    final Node[] wTree = nodes(W_TREELEN);
+    final Node[] qTree = nodes(Q_TREELEN);
+
+    WsqTransform(int width, int height) {
+        this.width = width;
+        this.height = height;
+        buildWTree();
+        buildQTree();
+    }
+
+    /**
+     * Number of coefficients in subband <code>k</code>.
+     */
+    int size(int k) {
+        return qTree[k].lenx * qTree[k].leny;
+    }
+
+    /**
+     * Transform the image in place into its subbands.
+     */
+    void decompose(float[] data, float[] lo, float[] hi, boolean parallel) {
+        float[] tmp = new float[width * height];
+        for (Node node : wTree) {
+            int base = node.y * width + node.x;
+            forEach(node.leny, node.lenx, parallel,
+                    (from, to) -> getLets(tmp, 0, data, base, node.lenx, width, 1, hi, lo, node.invRow, from, to));
+            forEach(node.lenx, node.leny, parallel,
+                    (from, to) -> getLets(data, base, tmp, 0, node.leny, 1, width, hi, lo, node.invCol, from, to));
+        }
+    }
+
+    /**
+     * Rebuild the image in place from its subbands, with the synthesis
+     * filters.
+     */
+    void reconstruct(float[] data, float[] lo, float[] hi, boolean parallel) {
+        float[] tmp = new float[width * height];
+        for (int i = W_TREELEN - 1; i >= 0; i--) {
+            Node node = wTree[i];
+            int base = node.y * width + node.x;
+            forEach(node.lenx, node.leny, parallel,
+                    (from, to) -> joinLets(tmp, 0, data, base, node.leny, 1, width, hi, lo, node.invCol, from, to));
+            forEach(node.leny, node.lenx, parallel,
+                    (from, to) -> joinLets(data, base, tmp, 0, node.lenx, width, 1, hi, lo, node.invRow, from, to));
+        }
+    }
+
+    interface Range {
+        void run(int from, int to);
+    }
+
+    /* Run lines [0, count) of length len, in chunks when the pass is large. */
+    private static void forEach(int count, int len, boolean parallel, Range range) {
+        if (!parallel || (long) count * len < PARALLEL_THRESHOLD) {
+            range.run(0, count);
+            return;
+        }
+        int chunks = Math.min(count, 4 * Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, chunks).parallel()
+                .forEach(c -> range.run(c * count / chunks, (c + 1) * count / chunks));
+    }
+
+    /*
+     * One analysis pass: split lines [from, to) of len2 samples into low- and
+     * high-pass halves, with symmetric extension at both ends.
+     */
+    static void getLets(float[] dst, int dstBase, float[] src, int srcBase, int len2, int pitch, int stride,
+            float[] hi, float[] lo, boolean inv, int from, int to) {
+        int lsz = lo.length;
+        int hsz = hi.length;
+        boolean oddData = len2 % 2 != 0;
+        boolean oddFilter = lsz % 2 != 0;
+        int loc, hoc;
+        boolean olle, ohle, olre, ohre;
+        if (oddFilter) {
+            loc = (lsz - 1) / 2;
+            hoc = (hsz - 1) / 2 - 1;
+            olle = ohle = olre = ohre = false;
+        } else {
+            loc = lsz / 2 - 2;
+            hoc = hsz / 2 - 2;
+            olle = ohle = olre = ohre = true;
+            if (loc == -1) {
+                loc = 0;
+                olle = false;
+            }
+            if (hoc == -1) {
+                hoc = 0;
+                ohle = false;
+            }
+            hi = negate(hi);
+        }
+        int pstr = stride;
+        int nstr = -stride;
+        int llen = oddData ? (len2 + 1) / 2 : len2 / 2;
+        int hlen = oddData ? llen - 1 : llen;
+
+        for (int line = from; line < to; line++) {
+            int lopass, hipass;
+            if (inv) {
+                hipass = dstBase + line * pitch;
+                lopass = hipass + hlen * stride;
+            } else {
+                lopass = dstBase + line * pitch;
+                hipass = lopass + llen * stride;
+            }
+            int p0 = srcBase + line * pitch;
+            int p1 = p0 + (len2 - 1) * stride;
+
+            int lspx = p0 + loc * stride;
+            int lspxstr = nstr;
+            boolean lle2 = olle;
+            boolean lre2 = olre;
+            int hspx = p0 + hoc * stride;
+            int hspxstr = nstr;
+            boolean hle2 = ohle;
+            boolean hre2 = ohre;
+            for (int pix = 0; pix < hlen; pix++) {
+                int lpxstr = lspxstr;
+                int lpx = lspx;
+                boolean lle = lle2;
+                boolean lre = lre2;
+                float sum = src[lpx] * lo[0];
+                for (int i = 1; i < lsz; i++) {
+                    if (lpx == p0) {
+                        if (lle) {
+                            lpxstr = 0;
+                            lle = false;
+                        } else {
+                            lpxstr = pstr;
+                        }
+                    }
+                    if (lpx == p1) {
+                        if (lre) {
+                            lpxstr = 0;
+                            lre = false;
+                        } else {
+                            lpxstr = nstr;
+                        }
+                    }
+                    lpx += lpxstr;
+                    sum += src[lpx] * lo[i];
+                }
+                dst[lopass] = sum;
+                lopass += stride;
+
+                int hpxstr = hspxstr;
+                int hpx = hspx;
+                boolean hle = hle2;
+                boolean hre = hre2;
+                sum = src[hpx] * hi[0];
+                for (int i = 1; i < hsz; i++) {
+                    if (hpx == p0) {
+                        if (hle) {
+                            hpxstr = 0;
+                            hle = false;
+                        } else {
+                            hpxstr = pstr;
+                        }
+                    }
+                    if (hpx == p1) {
+                        if (hre) {
+                            hpxstr = 0;
+                            hre = false;
+                        } else {
+                            hpxstr = nstr;
+                        }
+                    }
+                    hpx += hpxstr;
+                    sum += src[hpx] * hi[i];
+                }
+                dst[hipass] = sum;
+                hipass += stride;
+
+                for (int i = 0; i < 2; i++) {
+                    if (lspx == p0) {
+                        if (lle2) {
+                            lspxstr = 0;
+                            lle2 = false;
+                        } else {
+                            lspxstr = pstr;
+                        }
+                    }
+                    lspx += lspxstr;
+                    if (hspx == p0) {
+                        if (hle2) {
+                            hspxstr = 0;
+                            hle2 = false;
+                        } else {
+                            hspxstr = pstr;
+                        }
+                    }
+                    hspx += hspxstr;
+                }
+            }
+            if (oddData) {
+                int lpxstr = lspxstr;
+                int lpx = lspx;
+                boolean lle = lle2;
+                boolean lre = lre2;
+                float sum = src[lpx] * lo[0];
+                for (int i = 1; i < lsz; i++) {
+                    if (lpx == p0) {
+                        if (lle) {
+                            lpxstr = 0;
+                            lle = false;
+                        } else {
+                            lpxstr = pstr;
+                        }
+                    }
+                    if (lpx == p1) {
+                        if (lre) {
+                            lpxstr = 0;
+                            lre = false;
+                        } else {
+                            lpxstr = nstr;
+                        }
+                    }
+                    lpx += lpxstr;
+                    sum += src[lpx] * lo[i];
+                }
+                dst[lopass] = sum;
+            }
+        }
+    }
+
+    /*
+     * One synthesis pass: merge the low- and high-pass halves of lines
+     * [from, to) back into len2 samples; the inverse of getLets.
+     */
+    static void joinLets(float[] dst, int dstBase, float[] src, int srcBase, int len2, int pitch, int stride,
+            float[] hi, float[] lo, boolean inv, int from, int to) {
+        int lsz = lo.length;
+        int hsz = hi.length;
+        boolean oddData = len2 % 2 != 0;
+        boolean oddFilter = lsz % 2 != 0;
+        int pstr = stride;
+        int nstr = -stride;
+        int llen = oddData ? (len2 + 1) / 2 : len2 / 2;
+        int hlen = oddData ? llen - 1 : llen;
+
+        boolean asym;
+        float ssfac;
+        int ofhre;
+        int loc, hoc, lotap, hotap;
+        boolean olle, olre, ohle, ohre;
+        if (oddFilter) {
+            asym = false;
+            ssfac = 1.0f;
+            ofhre = 0;
+            loc = (lsz - 1) / 4;
+            hoc = (hsz + 1) / 4 - 1;
+            lotap = ((lsz - 1) / 2) % 2;
+            hotap = ((hsz + 1) / 2) % 2;
+            if (oddData) {
+                olle = false;
+                olre = false;
+                ohle = true;
+                ohre = true;
+            } else {
+                olle = false;
+                olre = true;
+                ohle = true;
+                ohre = false;
+            }
+        } else {
+            asym = true;
+            ssfac = -1.0f;
+            ofhre = 2;
+            loc = lsz / 4 - 1;
+            hoc = hsz / 4 - 1;
+            lotap = (lsz / 2) % 2;
+            hotap = (hsz / 2) % 2;
+            olle = true;
+            olre = !oddData;
+            ohle = true;
+            ohre = true;
+            if (loc == -1) {
+                loc = 0;
+                olle = false;
+            }
+            if (hoc == -1) {
+                hoc = 0;
+                ohle = false;
+            }
+            hi = negate(hi);
+        }
+
+        for (int line = from; line < to; line++) {
+            int limg = dstBase + line * pitch;
+            int himg = limg;
+            dst[himg] = 0.0f;
+            if (len2 > 1) {
+                dst[himg + stride] = 0.0f;
+            }
+            int lopass, hipass;
+            if (inv) {
+                hipass = srcBase + line * pitch;
+                lopass = hipass + stride * hlen;
+            } else {
+                lopass = srcBase + line * pitch;
+                hipass = lopass + stride * llen;
+            }
+
+            int lp0 = lopass;
+            int lp1 = lp0 + (llen - 1) * stride;
+            int lspx = lp0 + loc * stride;
+            int lspxstr = nstr;
+            int lstap = lotap;
+            boolean lle2 = olle;
+            boolean lre2 = olre;
+
+            int hp0 = hipass;
+            int hp1 = hp0 + (hlen - 1) * stride;
+            int hspx = hp0 + hoc * stride;
+            int hspxstr = nstr;
+            int hstap = hotap;
+            boolean hle2 = ohle;
+            boolean hre2 = ohre;
+            float osfac = ssfac;
+            int fhre = 0;
+
+            for (int pix = 0; pix < hlen; pix++) {
+                for (int tap = lstap; tap >= 0; tap--) {
+                    boolean lle = lle2;
+                    boolean lre = lre2;
+                    int lpx = lspx;
+                    int lpxstr = lspxstr;
+                    float sum = src[lpx] * lo[tap];
+                    for (int i = tap + 2; i < lsz; i += 2) {
+                        if (lpx == lp0) {
+                            if (lle) {
+                                lpxstr = 0;
+                                lle = false;
+                            } else {
+                                lpxstr = pstr;
+                            }
+                        }
+                        if (lpx == lp1) {
+                            if (lre) {
+                                lpxstr = 0;
+                                lre = false;
+                            } else {
+                                lpxstr = nstr;
+                            }
+                        }
+                        lpx += lpxstr;
+                        sum += src[lpx] * lo[i];
+                    }
+                    dst[limg] = sum;
+                    limg += stride;
+                }
+                if (lspx == lp0) {
+                    if (lle2) {
+                        lspxstr = 0;
+                        lle2 = false;
+                    } else {
+                        lspxstr = pstr;
+                    }
+                }
+                lspx += lspxstr;
+                lstap = 1;
+
+                for (int tap = hstap; tap >= 0; tap--) {
+                    boolean hle = hle2;
+                    boolean hre = hre2;
+                    int hpx = hspx;
+                    int hpxstr = hspxstr;
+                    fhre = ofhre;
+                    float sfac = osfac;
+                    for (int i = tap; i < hsz; i += 2) {
+                        if (hpx == hp0) {
+                            if (hle) {
+                                hpxstr = 0;
+                                hle = false;
+                            } else {
+                                hpxstr = pstr;
+                                sfac = 1.0f;
+                            }
+                        }
+                        if (hpx == hp1) {
+                            if (hre) {
+                                hpxstr = 0;
+                                hre = false;
+                                if (asym && oddData) {
+                                    hre = true;
+                                    fhre--;
+                                    sfac = fhre;
+                                    if (sfac == 0.0f) {
+                                        hre = false;
+                                    }
+                                }
+                            } else {
+                                hpxstr = nstr;
+                                if (asym) {
+                                    sfac = -1.0f;
+                                }
+                            }
+                        }
+                        dst[himg] += src[hpx] * hi[i] * sfac;
+                        hpx += hpxstr;
+                    }
+                    himg += stride;
+                }
+                if (hspx == hp0) {
+                    if (hle2) {
+                        hspxstr = 0;
+                        hle2 = false;
+                    } else {
+                        hspxstr = pstr;
+                        osfac = 1.0f;
+                    }
+                }
+                hspx += hspxstr;
+                hstap = 1;
+            }
+
+            if (oddData) {
+                lstap = lotap != 0 ? 1 : 0;
+            } else {
+                lstap = lotap != 0 ? 2 : 1;
+            }
+            for (int tap = 1; tap >= lstap; tap--) {
+                boolean lle = lle2;
+                boolean lre = lre2;
+                int lpx = lspx;
+                int lpxstr = lspxstr;
+                float sum = src[lpx] * lo[tap];
+                for (int i = tap + 2; i < lsz; i += 2) {
+                    if (lpx == lp0) {
+                        if (lle) {
+                            lpxstr = 0;
+                            lle = false;
+                        } else {
+                            lpxstr = pstr;
+                        }
+                    }
+                    if (lpx == lp1) {
+                        if (lre) {
+                            lpxstr = 0;
+                            lre = false;
+                        } else {
+                            lpxstr = nstr;
+                        }
+                    }
+                    lpx += lpxstr;
+                    sum += src[lpx] * lo[i];
+                }
+                dst[limg] = sum;
+                limg += stride;
+            }
+
+            if (oddData) {
+                hstap = hotap != 0 ? 1 : 0;
+                if (hsz == 2) {
+                    hspx -= hspxstr;
+                    fhre = 1;
+                }
+            } else {
+                hstap = hotap != 0 ? 2 : 1;
+            }
+            for (int tap = 1; tap >= hstap; tap--) {
+                boolean hle = hle2;
+                boolean hre = hre2;
+                int hpx = hspx;
+                int hpxstr = hspxstr;
+                float sfac = osfac;
+                if (hsz != 2) {
+                    fhre = ofhre;
+                }
+                for (int i = tap; i < hsz; i += 2) {
+                    if (hpx == hp0) {
+                        if (hle) {
+                            hpxstr = 0;
+                            hle = false;
+                        } else {
+                            hpxstr = pstr;
+                            sfac = 1.0f;
+                        }
+                    }
+                    if (hpx == hp1) {
+                        if (hre) {
+                            hpxstr = 0;
+                            hre = false;
+                            if (asym && oddData) {
+                                hre = true;
+                                fhre--;
+                                sfac = fhre;
+                                if (sfac == 0.0f) {
+                                    hre = false;
+                                }
+                            }
+                        } else {
+                            hpxstr = nstr;
+                            if (asym) {
+                                sfac = -1.0f;
+                            }
+                        }
+                    }
+                    dst[himg] += src[hpx] * hi[i] * sfac;
+                    hpx += hpxstr;
+                }
+                himg += stride;
+            }
+        }
+    }
+
+    /**
+     * The filter with the sign of every other tap, counted from the center,
+     * flipped: turns an analysis filter into the synthesis filter of the other
+     * band.
+     */
+    static float[] modulate(float[] filter) {
+        float[] modulated = new float[filter.length];
+        int center = filter.length / 2;
+        for (int i = 0; i < filter.length; i++) {
+            modulated[i] = (i - center) % 2 == 0 ? filter[i] : -filter[i];
+        }
+        return modulated;
+    }
+
+    private static float[] negate(float[] filter) {
+        float[] negated = new float[filter.length];
+        for (int i = 0; i < filter.length; i++) {
+            negated[i] = -filter[i];
+        }
+        return negated;
+    }
+
+    private static Node[] nodes(int count) {
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = new Node();
+        }
+        return nodes;
+    }
+
+    private void buildWTree() {
+        Node[] w = wTree;
+        for (int node : new int[] { 2, 4, 7, 9, 11, 13, 16, 18 }) {
+            w[node].invRow = true;
+        }
+        for (int node : new int[] { 3, 5, 8, 9, 12, 13, 17, 18 }) {
+            w[node].invCol = true;
+        }
+        wTree4(0, 1, width, height, 0, 0, true);
+
+        int lenx, lenx2, leny, leny2;
+        if (w[1].lenx % 2 == 0) {
+            lenx = w[1].lenx / 2;
+            lenx2 = lenx;
+        } else {
+            lenx = (w[1].lenx + 1) / 2;
+            lenx2 = lenx - 1;
+        }
+        if (w[1].leny % 2 == 0) {
+            leny = w[1].leny / 2;
+            leny2 = leny;
+        } else {
+            leny = (w[1].leny + 1) / 2;
+            leny2 = leny - 1;
+        }
+        wTree4(4, 6, lenx2, leny, lenx, 0, false);
+        wTree4(5, 10, lenx, leny2, 0, leny, false);
+        wTree4(14, 15, lenx, leny, 0, 0, false);
+
+        w[19].x = 0;
+        w[19].y = 0;
+        w[19].lenx = (w[15].lenx + 1) / 2;
+        w[19].leny = (w[15].leny + 1) / 2;
+    }
+
+    private void wTree4(int start1, int start2, int lenx, int leny, int x, int y, boolean stop1) {
+        Node[] w = wTree;
+        int p1 = start1;
+        int p2 = start2;
+        boolean oddx = lenx % 2 != 0;
+        boolean oddy = leny % 2 != 0;
+
+        w[p1].x = x;
+        w[p1].y = y;
+        w[p1].lenx = lenx;
+        w[p1].leny = leny;
+
+        w[p2].x = x;
+        w[p2 + 2].x = x;
+        w[p2].y = y;
+        w[p2 + 1].y = y;
+
+        if (!oddx) {
+            w[p2].lenx = lenx / 2;
+            w[p2 + 1].lenx = w[p2].lenx;
+        } else if (p1 == 4) {
+            w[p2].lenx = (lenx - 1) / 2;
+            w[p2 + 1].lenx = w[p2].lenx + 1;
+        } else {
+            w[p2].lenx = (lenx + 1) / 2;
+            w[p2 + 1].lenx = w[p2].lenx - 1;
+        }
+        w[p2 + 1].x = w[p2].lenx + x;
+        if (!stop1) {
+            w[p2 + 3].lenx = w[p2 + 1].lenx;
+            w[p2 + 3].x = w[p2 + 1].x;
+        }
+        w[p2 + 2].lenx = w[p2].lenx;
+
+        if (!oddy) {
+            w[p2].leny = leny / 2;
+            w[p2 + 2].leny = w[p2].leny;
+        } else if (p1 == 5) {
+            w[p2].leny = (leny - 1) / 2;
+            w[p2 + 2].leny = w[p2].leny + 1;
+        } else {
+            w[p2].leny = (leny + 1) / 2;
+            w[p2 + 2].leny = w[p2].leny - 1;
+        }
+        w[p2 + 2].y = w[p2].leny + y;
+        if (!stop1) {
+            w[p2 + 3].leny = w[p2 + 2].leny;
+            w[p2 + 3].y = w[p2 + 2].y;
+        }
+        w[p2 + 1].leny = w[p2].leny;
+    }
+
+    private void buildQTree() {
+        Node[] w = wTree;
+        qTree16(3, w[14].lenx, w[14].leny, w[14].x, w[14].y, false, false);
+        qTree16(19, w[4].lenx, w[4].leny, w[4].x, w[4].y, false, true);
+        qTree16(48, w[0].lenx, w[0].leny, w[0].x, w[0].y, false, false);
+        qTree16(35, w[5].lenx, w[5].leny, w[5].x, w[5].y, true, false);
+        qTree4(0, w[19].lenx, w[19].leny, w[19].x, w[19].y);
+    }
+
+    private void qTree16(int p, int lenx, int leny, int x, int y, boolean rw, boolean cl) {
+        Node[] q = qTree;
+        int tempx, temp2x, tempy, temp2y;
+        if (lenx % 2 == 0) {
+            tempx = lenx / 2;
+            temp2x = tempx;
+        } else if (cl) {
+            temp2x = (lenx + 1) / 2;
+            tempx = temp2x - 1;
+        } else {
+            tempx = (lenx + 1) / 2;
+            temp2x = tempx - 1;
+        }
+        if (leny % 2 == 0) {
+            tempy = leny / 2;
+            temp2y = tempy;
+        } else if (rw) {
+            temp2y = (leny + 1) / 2;
+            tempy = temp2y - 1;
+        } else {
+            tempy = (leny + 1) / 2;
+            temp2y = tempy - 1;
+        }
+
+        // Top left: four subbands of the tempx by tempy quadrant
+        q[p].x = x;
+        q[p + 2].x = x;
+        q[p].y = y;
+        q[p + 1].y = y;
+        if (tempx % 2 == 0) {
+            q[p].lenx = tempx / 2;
+            q[p + 1].lenx = q[p].lenx;
+        } else {
+            q[p].lenx = (tempx + 1) / 2;
+            q[p + 1].lenx = q[p].lenx - 1;
+        }
+        q[p + 2].lenx = q[p].lenx;
+        q[p + 3].lenx = q[p + 1].lenx;
+        q[p + 1].x = x + q[p].lenx;
+        q[p + 3].x = q[p + 1].x;
+        if (tempy % 2 == 0) {
+            q[p].leny = tempy / 2;
+            q[p + 2].leny = q[p].leny;
+        } else {
+            q[p].leny = (tempy + 1) / 2;
+            q[p + 2].leny = q[p].leny - 1;
+        }
+        q[p + 1].leny = q[p].leny;
+        q[p + 3].leny = q[p + 2].leny;
+        q[p + 2].y = y + q[p].leny;
+        q[p + 3].y = q[p + 2].y;
+
+        // Top right: temp2x wide, same rows as the top left
+        q[p + 4].x = x + tempx;
+        q[p + 6].x = q[p + 4].x;
+        q[p + 4].y = y;
+        q[p + 5].y = y;
+        q[p + 6].y = q[p + 2].y;
+        q[p + 7].y = q[p + 2].y;
+        q[p + 4].leny = q[p].leny;
+        q[p + 5].leny = q[p].leny;
+        q[p + 6].leny = q[p + 2].leny;
+        q[p + 7].leny = q[p + 2].leny;
+        if (temp2x % 2 == 0) {
+            q[p + 4].lenx = temp2x / 2;
+            q[p + 5].lenx = q[p + 4].lenx;
+        } else {
+            q[p + 5].lenx = (temp2x + 1) / 2;
+            q[p + 4].lenx = q[p + 5].lenx - 1;
+        }
+        q[p + 6].lenx = q[p + 4].lenx;
+        q[p + 7].lenx = q[p + 5].lenx;
+        q[p + 5].x = q[p + 4].x + q[p + 4].lenx;
+        q[p + 7].x = q[p + 5].x;
+
+        // Bottom left: temp2y high, same columns as the top left
+        q[p + 8].x = x;
+        q[p + 9].x = q[p + 1].x;
+        q[p + 10].x = x;
+        q[p + 11].x = q[p + 1].x;
+        q[p + 8].y = y + tempy;
+        q[p + 9].y = q[p + 8].y;
+        q[p + 8].lenx = q[p].lenx;
+        q[p + 9].lenx = q[p + 1].lenx;
+        q[p + 10].lenx = q[p].lenx;
+        q[p + 11].lenx = q[p + 1].lenx;
+        if (temp2y % 2 == 0) {
+            q[p + 8].leny = temp2y / 2;
+            q[p + 10].leny = q[p + 8].leny;
+        } else {
+            q[p + 10].leny = (temp2y + 1) / 2;
+            q[p + 8].leny = q[p + 10].leny - 1;
+        }
+        q[p + 9].leny = q[p + 8].leny;
+        q[p + 11].leny = q[p + 10].leny;
+        q[p + 10].y = q[p + 8].y + q[p + 8].leny;
+        q[p + 11].y = q[p + 10].y;
+
+        // Bottom right: columns of the top right, rows of the bottom left
+        q[p + 12].x = q[p + 4].x;
+        q[p + 13].x = q[p + 5].x;
+        q[p + 14].x = q[p + 4].x;
+        q[p + 15].x = q[p + 5].x;
+        q[p + 12].y = q[p + 8].y;
+        q[p + 13].y = q[p + 8].y;
+        q[p + 14].y = q[p + 10].y;
+        q[p + 15].y = q[p + 10].y;
+        q[p + 12].lenx = q[p + 4].lenx;
+        q[p + 13].lenx = q[p + 5].lenx;
+        q[p + 14].lenx = q[p + 4].lenx;
+        q[p + 15].lenx = q[p + 5].lenx;
+        q[p + 12].leny = q[p + 8].leny;
+        q[p + 13].leny = q[p + 8].leny;
+        q[p + 14].leny = q[p + 10].leny;
+        q[p + 15].leny = q[p + 10].leny;
+    }
+
+    private void qTree4(int p, int lenx, int leny, int x, int y) {
+        Node[] q = qTree;
+        q[p].x = x;
+        q[p + 2].x = x;
+        q[p].y = y;
+        q[p + 1].y = y;
+        if (lenx % 2 == 0) {
+            q[p].lenx = lenx / 2;
+            q[p + 1].lenx = q[p].lenx;
+            q[p + 2].lenx = q[p].lenx;
+            q[p + 3].lenx = q[p].lenx;
+        } else {
+            q[p].lenx = (lenx + 1) / 2;
+            q[p + 1].lenx = q[p].lenx - 1;
+            q[p + 2].lenx = q[p].lenx;
+            q[p + 3].lenx = q[p + 1].lenx;
+        }
+        q[p + 1].x = x + q[p].lenx;
+        q[p + 3].x = q[p + 1].x;
+        if (leny % 2 == 0) {
+            q[p].leny = leny / 2;
+            q[p + 1].leny = q[p].leny;
+            q[p + 2].leny = q[p].leny;
+            q[p + 3].leny = q[p].leny;
+        } else {
+            q[p].leny = (leny + 1) / 2;
+            q[p + 1].leny = q[p].leny;
+            q[p + 2].leny = q[p].leny - 1;
+            q[p + 3].leny = q[p + 2].leny;
+        }
+        q[p + 2].y = y + q[p].leny;
+        q[p + 3].y = q[p + 2].y;
+    }
+}
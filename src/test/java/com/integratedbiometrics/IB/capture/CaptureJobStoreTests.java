@@ -0,0 +1,49 @@
+package com.integratedbiometrics.IB.capture;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class CaptureJobStoreTests {
+
+	@Test
+	void retryReturnsExistingJob() {
+		CaptureJobStore store = new CaptureJobStore(4, 60000);
+		CaptureSession first = new CaptureSession("job-1", "left");
+
+		assertNull(store.putIfAbsent(first));
+		assertSame(first, store.putIfAbsent(new CaptureSession("job-1", "left")));
+	}
+
+	@Test
+	void finishedJobsExpireAfterTtl() throws Exception {
+		CaptureJobStore store = new CaptureJobStore(4, 10);
+		CaptureSession running = new CaptureSession("running", "left");
+		CaptureSession finished = new CaptureSession("finished", "right");
+		store.putIfAbsent(running);
+		store.putIfAbsent(finished);
+		finished.fail(new RuntimeException("done"));
+
+		Thread.sleep(50);
+
+		assertSame(running, store.get("running"));
+		assertNull(store.get("finished"));
+	}
+
+	@Test
+	void fullStoreEvictsOldestFinishedJob() {
+		CaptureJobStore store = new CaptureJobStore(2, 60000);
+		CaptureSession a = new CaptureSession("a", "left");
+		CaptureSession b = new CaptureSession("b", "left");
+		store.putIfAbsent(a);
+		store.putIfAbsent(b);
+		b.fail(new RuntimeException("done"));
+
+		assertNull(store.putIfAbsent(new CaptureSession("c", "left")));
+		assertSame(a, store.get("a"));
+		assertNull(store.get("b"));
+		assertThrows(IllegalStateException.class, () -> store.putIfAbsent(new CaptureSession("d", "left")));
+	}
+}
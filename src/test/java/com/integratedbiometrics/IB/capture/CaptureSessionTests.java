@@ -0,0 +1,64 @@
+package com.integratedbiometrics.IB.capture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class CaptureSessionTests {
+
+	@Test
+	void tenprintRunsFourFourTwoSequence() {
+		CaptureSession session = new CaptureSession("s", "tenprint");
+		CompletableFuture<Slap> thumbs = new CompletableFuture<Slap>();
+
+		assertEquals("right", session.getCurrentStep().getName());
+		assertTrue(session.addSlap(CompletableFuture.completedFuture(slap("right"))));
+		assertEquals("left", session.getCurrentStep().getName());
+		assertTrue(session.addSlap(CompletableFuture.completedFuture(slap("left"))));
+		assertEquals("thumbs", session.getCurrentStep().getName());
+		assertFalse(session.addSlap(thumbs));
+		assertNull(session.getCurrentStep());
+
+		// The result waits for the last slap to finish scoring
+		assertFalse(session.isDone());
+		thumbs.complete(slap("thumbs"));
+		CaptureResult result = session.getResult().join();
+		assertEquals(3, result.getSlaps().size());
+		assertEquals("thumbs", result.getSlaps().get(2).getName());
+	}
+
+	@Test
+	void nextStepBeginsWhileThePreviousSlapIsScored() {
+		CaptureSession session = new CaptureSession("s", "tenprint");
+		CompletableFuture<Slap> right = new CompletableFuture<Slap>();
+		CompletableFuture<Slap> left = new CompletableFuture<Slap>();
+		CompletableFuture<Slap> thumbs = new CompletableFuture<Slap>();
+
+		// The device moves on to the next placement without waiting for scoring
+		assertTrue(session.addSlap(right));
+		assertEquals("left", session.getCurrentStep().getName());
+		assertTrue(session.addSlap(left));
+		assertEquals("thumbs", session.getCurrentStep().getName());
+		assertFalse(session.addSlap(thumbs));
+		assertFalse(right.isDone());
+
+		// Scoring may finish in any order; the result keeps the capture order
+		thumbs.complete(slap("thumbs"));
+		left.complete(slap("left"));
+		assertFalse(session.isDone());
+		right.complete(slap("right"));
+		CaptureResult result = session.getResult().join();
+		assertEquals("right", result.getSlaps().get(0).getName());
+		assertEquals("left", result.getSlaps().get(1).getName());
+		assertEquals("thumbs", result.getSlaps().get(2).getName());
+	}
+
+	private static Slap slap(String name) {
+		return new Slap(name, null, null, null, 0, null, null);
+	}
+}
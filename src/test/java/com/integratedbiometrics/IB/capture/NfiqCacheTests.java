@@ -0,0 +1,45 @@
+package com.integratedbiometrics.IB.capture;
+
+import static com.integratedbiometrics.ibscanultimate.TestImages.image;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class NfiqCacheTests {
+
+	@Test
+	void hashIgnoresRowPaddingAndOrder() {
+		int width = 30, height = 20;
+		byte[] topDown = new byte[width * height];
+		byte[] bottomUp = new byte[(width + 2) * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				topDown[y * width + x] = (byte) (x * 7 + y * 3);
+				bottomUp[(height - 1 - y) * (width + 2) + x] = (byte) (x * 7 + y * 3);
+			}
+		}
+
+		long hash = NfiqCache.contentHash(image(topDown, width, height, 0));
+		assertEquals(hash, NfiqCache.contentHash(image(bottomUp, width, height, -(width + 2))));
+		assertNotEquals(hash, NfiqCache.contentHash(image(topDown, height, width, 0)));
+		topDown[width * height - 1]++;
+		assertNotEquals(hash, NfiqCache.contentHash(image(topDown, width, height, width)));
+	}
+
+	@Test
+	void leastRecentlyUsedScoresAreEvicted() {
+		NfiqCache cache = new NfiqCache(2);
+		cache.put(1, 1);
+		cache.put(2, 2);
+		cache.get(1);
+		cache.put(3, 3);
+		cache.put(4, 0);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.get(1));
+		assertEquals(0, cache.get(2));
+		assertEquals(3, cache.get(3));
+		assertEquals(0, cache.get(4));
+	}
+}
@@ -0,0 +1,79 @@
+package com.integratedbiometrics.IB.capture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscancommon.IBCommon.FingerPosition;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import kojak.com.sample.FingerRecordWriter;
+
+class RecordResultWriterTests {
+
+	@Test
+	void tenPrintSegmentsGetTheirFingerPositions() {
+		CaptureResult result = new CaptureResult("id", "tenprint",
+				Arrays.asList(slap("right", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4),
+						slap("left", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4),
+						slap("thumbs", IBScanDevice.ImageType.FLAT_TWO_FINGERS, 2)));
+
+		List<FingerRecordWriter.Finger> fingers = RecordResultWriter.fingersOf(result);
+
+		int[] expected = { 2, 3, 4, 5, 10, 9, 8, 7, 6, 1 };
+		assertEquals(expected.length, fingers.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], fingers.get(i).getPosition().toCode());
+		}
+	}
+
+	@Test
+	void incompleteSlapsAreNotGuessed() {
+		CaptureResult result = new CaptureResult("id", "right",
+				Arrays.asList(slap("right", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 3)));
+
+		for (FingerRecordWriter.Finger finger : RecordResultWriter.fingersOf(result)) {
+			assertEquals(FingerPosition.UNKNOWN, finger.getPosition());
+		}
+	}
+
+	@Test
+	void fingersAreEncodedAndTimedOnTheGivenExecutor() throws Exception {
+		CaptureResult result = new CaptureResult("id", "right",
+				Arrays.asList(slap("right", IBScanDevice.ImageType.FLAT_FOUR_FINGERS, 4)));
+		AtomicInteger encoded = new AtomicInteger();
+		Executor executor = task -> {
+			encoded.incrementAndGet();
+			task.run();
+		};
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		new RecordResultWriter(result, FingerRecordWriter.Standard.ISO_19794_4, executor,
+				new CaptureMetrics(registry)).writeTo(out);
+
+		assertEquals(4, encoded.get());
+		assertTrue(out.size() > 0);
+		assertEquals(4, registry.get(CaptureMetrics.PHASE_TIMER).tag("phase", CaptureMetrics.ENCODING).timer()
+				.count());
+	}
+
+	private static Slap slap(String name, IBScanDevice.ImageType type, int fingers) {
+		ImageData[] segments = new ImageData[fingers];
+		for (int i = 0; i < fingers; i++) {
+			segments[i] = TestImages.image(TestImages.ridges(100, 100), 100, 100, 100);
+		}
+		return new Slap(name, "serial", null, type, fingers, segments, null);
+	}
+}
@@ -0,0 +1,80 @@
+package com.integratedbiometrics.IB.capture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.FingerQualityState;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SlapEncoderTests {
+
+	@Test
+	void segmentsKeepTheirOrderAndPositions() {
+		NfiqCache cache = new NfiqCache(16);
+		SlapEncoder encoder = new SlapEncoder(new CaptureMetrics(new SimpleMeterRegistry()), cache, 4);
+		ImageData[] segments = new ImageData[4];
+		SegmentPosition[] positions = new SegmentPosition[4];
+		for (int i = 0; i < 4; i++) {
+			// largest segment first, so it finishes last
+			int width = 400 - 80 * i;
+			segments[i] = TestImages.image(new byte[width * 300], width, 300, width);
+			positions[i] = new SegmentPosition(i, i, i, i, i, i, i, i) {
+			};
+			cache.put(NfiqCache.contentHash(segments[i]), i + 1);
+		}
+		Slap slap = new Slap("right", "serial", null, null, 4, segments, positions);
+		try {
+			assertSame(slap, encoder.encode(slap, null).join());
+		} finally {
+			encoder.shutdown();
+		}
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 1, slap.getNfiq(i));
+			assertSame(segments[i], slap.getSegment(i));
+			assertSame(positions[i], slap.getSegmentPosition(i));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void cachedScoresAndFingerQualityReachTheResponse() {
+		NfiqCache cache = new NfiqCache(16);
+		SlapEncoder encoder = new SlapEncoder(new CaptureMetrics(new SimpleMeterRegistry()), cache, 2);
+		ImageData[] segments = new ImageData[2];
+		for (int i = 0; i < 2; i++) {
+			byte[] pixels = new byte[50 * 60];
+			Arrays.fill(pixels, (byte) i);
+			segments[i] = TestImages.image(pixels, 50, 60, 50);
+		}
+		cache.put(NfiqCache.contentHash(segments[0]), 2);
+		Slap slap = new Slap("right", "serial", null, null, 2, segments, null,
+				new FingerQualityState[] { FingerQualityState.GOOD, FingerQualityState.POOR });
+		try {
+			encoder.encode(slap, null).join();
+		} finally {
+			encoder.shutdown();
+		}
+
+		assertEquals(2, slap.getNfiq(0));
+		assertEquals(0, slap.getNfiq(1));
+		List<Map<String, Object>> fingers = (List<Map<String, Object>>) new CaptureResult("id", "right",
+				Arrays.asList(slap)).toMetadataJson().get("rightHand");
+		assertEquals(2, fingers.get(0).get("nfiq"));
+		assertEquals("80", fingers.get(0).get("quality"));
+		assertEquals("GOOD", fingers.get(0).get("fingerQuality"));
+		assertNull(fingers.get(1).get("nfiq"));
+		assertNull(fingers.get(1).get("quality"));
+		assertEquals("POOR", fingers.get(1).get("fingerQuality"));
+	}
+}
@@ -0,0 +1,114 @@
+package com.integratedbiometrics.IB.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collection;
+
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.integratedbiometrics.IB.capture.CaptureMetrics;
+import com.integratedbiometrics.IB.capture.CaptureScheduler;
+import com.integratedbiometrics.IB.capture.CaptureSessionRegistry;
+import com.integratedbiometrics.IB.device.PooledScanner;
+import com.integratedbiometrics.IB.device.ScannerPool;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class IbScanControllerTests {
+
+	private CaptureScheduler scheduler;
+
+	@AfterEach
+	void shutdown() {
+		if (scheduler != null) {
+			scheduler.cancelAll();
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	void fullQueueIsRejectedWithRetryAfter() {
+		IbScanController controller = controller(1, 10);
+
+		assertNull(getImage(controller, "a").getResult());
+		ResponseEntity<?> rejected = (ResponseEntity<?>) getImage(controller, "b").getResult();
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+		// one capture ahead plus this one, at the assumed 5 s each
+		assertEquals("10", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+	}
+
+	@Test
+	void clientOverItsShareIsRejectedWithRetryAfter() {
+		IbScanController controller = controller(10, 1);
+
+		assertNull(getImage(controller, "a").getResult());
+		ResponseEntity<?> rejected = (ResponseEntity<?>) getImage(controller, "a").getResult();
+		ResponseEntity<?> other = (ResponseEntity<?>) getImage(controller, "b").getResult();
+
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+		// one capture ahead plus this one, at the assumed 5 s each
+		assertEquals("10", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		assertNull(other);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void requestedTimeoutIsClampedToTheMaximum() {
+		JSONObject request = new JSONObject();
+		assertEquals(30000, CaptureResponses.timeoutOf(request, 30000, 120000));
+		request.put("timeout", 5000);
+		assertEquals(5000, CaptureResponses.timeoutOf(request, 30000, 120000));
+		request.put("timeout", 86400000);
+		assertEquals(120000, CaptureResponses.timeoutOf(request, 30000, 120000));
+	}
+
+	private IbScanController controller(int queueDepth, int perClient) {
+		// One scanner that supports everything and is always busy, so sessions stay queued
+		ScannerPool pool = new ScannerPool(null, null, null, null) {
+			@Override
+			public boolean isSupported(Collection<IBScanDevice.ImageType> imageTypes,
+					IBScanDevice.ImageResolution imageResolution) {
+				return true;
+			}
+
+			@Override
+			public PooledScanner tryLease(Collection<IBScanDevice.ImageType> imageTypes,
+					IBScanDevice.ImageResolution imageResolution) {
+				return null;
+			}
+
+			@Override
+			public int size() {
+				return 1;
+			}
+		};
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		scheduler = new CaptureScheduler(pool, meterRegistry, queueDepth, perClient);
+		IbScanController controller = new IbScanController();
+		ReflectionTestUtils.setField(controller, "sessionRegistry", new CaptureSessionRegistry());
+		ReflectionTestUtils.setField(controller, "captureScheduler", scheduler);
+		ReflectionTestUtils.setField(controller, "captureMetrics", new CaptureMetrics(meterRegistry));
+		ReflectionTestUtils.setField(controller, "defaultTimeout", 30000L);
+		ReflectionTestUtils.setField(controller, "maxTimeout", 120000L);
+		return controller;
+	}
+
+	private static DeferredResult<ResponseEntity<StreamingResponseBody>> getImage(IbScanController controller,
+			String clientId) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(CaptureResponses.CLIENT_ID_HEADER, clientId);
+		return controller.getImage("{\"name\":\"right\"}", null, request);
+	}
+}
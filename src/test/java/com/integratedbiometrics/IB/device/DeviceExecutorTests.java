@@ -0,0 +1,55 @@
+package com.integratedbiometrics.IB.device;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class DeviceExecutorTests {
+
+	@Test
+	void callsOfOneDeviceNeverOverlap() {
+		Object device = new Object();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		CompletableFuture<?>[] callers = new CompletableFuture<?>[8];
+		for (int i = 0; i < callers.length; i++) {
+			callers[i] = CompletableFuture.runAsync(() -> {
+				for (int j = 0; j < 20; j++) {
+					try {
+						DeviceExecutor.forDevice(device).run(() -> {
+							if (running.incrementAndGet() > 1) {
+								overlaps.incrementAndGet();
+							}
+							Thread.yield();
+							running.decrementAndGet();
+						});
+					} catch (Exception ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+			});
+		}
+		CompletableFuture.allOf(callers).join();
+
+		assertEquals(0, overlaps.get());
+		assertSame(DeviceExecutor.forDevice(device), DeviceExecutor.forDevice(device));
+	}
+
+	@Test
+	void nestedCallRunsOnTheDeviceThread() throws Exception {
+		DeviceExecutor executor = new DeviceExecutor("nested");
+		Thread[] threads = new Thread[2];
+
+		executor.run(() -> {
+			threads[0] = Thread.currentThread();
+			executor.run(() -> threads[1] = Thread.currentThread());
+		});
+
+		assertSame(threads[0], threads[1]);
+		assertEquals("device-nested", threads[0].getName());
+	}
+}
@@ -0,0 +1,79 @@
+package com.integratedbiometrics.IB.device;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+
+class ScannerPoolTests {
+
+	private static final List<IBScanDevice.ImageType> TYPES = Collections
+			.singletonList(IBScanDevice.ImageType.FLAT_FOUR_FINGERS);
+
+	@Test
+	void failedReopenIsRetriedWithTheScannerKept() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		ScannerPool pool = new ScannerPool(null, null, null, null) {
+			@Override
+			PooledScanner openScanner(int index) {
+				return attempts.incrementAndGet() < 2 ? null : scanner(index, true);
+			}
+		};
+		CountDownLatch available = new CountDownLatch(1);
+		pool.addAvailabilityListener(available::countDown);
+		pool.add(scanner(0, false));
+
+		assertNull(pool.tryLease(TYPES, IBScanDevice.ImageResolution.RESOLUTION_500));
+		// still counted, so sessions keep queueing for it
+		assertEquals(1, pool.size());
+		assertTrue(pool.isSupported(TYPES, IBScanDevice.ImageResolution.RESOLUTION_500));
+
+		assertTrue(available.await(ScannerPool.MIN_REOPEN_DELAY + 10000, TimeUnit.MILLISECONDS));
+		assertEquals(2, attempts.get());
+		assertEquals(1, pool.size());
+		assertNotNull(pool.tryLease(TYPES, IBScanDevice.ImageResolution.RESOLUTION_500));
+	}
+
+	@Test
+	void scannerOpenedAfterCloseIsNotPooled() {
+		ScannerPool pool = new ScannerPool(null, null, null, null);
+		pool.close();
+
+		assertFalse(pool.add(scanner(0, true)));
+		assertEquals(0, pool.size());
+		assertNull(pool.tryLease(TYPES, IBScanDevice.ImageResolution.RESOLUTION_500));
+	}
+
+	static PooledScanner scanner(int index, final boolean healthy) {
+		// DeviceDesc can only be built by the SDK; nothing here needs one
+		return new PooledScanner(index, null, null) {
+			@Override
+			public boolean isHealthy() {
+				return healthy;
+			}
+
+			@Override
+			public boolean supports(Collection<IBScanDevice.ImageType> imageTypes,
+					IBScanDevice.ImageResolution imageResolution) {
+				return true;
+			}
+
+			@Override
+			public String toString() {
+				return "scanner[" + index + "]";
+			}
+		};
+	}
+}
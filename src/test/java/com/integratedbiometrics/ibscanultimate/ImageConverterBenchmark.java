@@ -0,0 +1,97 @@
+package com.integratedbiometrics.ibscanultimate;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares {@link ImageConverter} with the former <code>ImageData.toImage()</code> path
+ * (32bpp BMP built per pixel, written to a temp file and read back with ImageIO) for a
+ * 1600x1500 four-finger image. Run with <code>main</code>; not part of the test suite.
+ */
+public class ImageConverterBenchmark {
+
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 1500;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		byte[] pixels = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = (byte) (i * 31);
+		}
+
+		run("legacy temp-file BMP", iterations, () -> legacyToImage(pixels));
+		run("ImageConverter bottom-up", iterations,
+				() -> ImageConverter.toBufferedImage(pixels, WIDTH, HEIGHT, -WIDTH, IBScanDevice.ImageFormat.GRAY, 8));
+		run("ImageConverter top-down", iterations,
+				() -> ImageConverter.toBufferedImage(pixels, WIDTH, HEIGHT, WIDTH, IBScanDevice.ImageFormat.GRAY, 8));
+	}
+
+	interface Conversion {
+		BufferedImage convert() throws IOException;
+	}
+
+	private static void run(String name, int iterations, Conversion conversion) throws IOException {
+		for (int i = 0; i < Math.max(5, iterations / 5); i++) {
+			conversion.convert(); // warm-up
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			conversion.convert();
+		}
+		long nanos = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+		System.out.printf("%-26s %8.2f ms/op %10.1f KiB/op%n", name, nanos / 1e6 / iterations,
+				allocated / 1024.0 / iterations);
+	}
+
+	/* The conversion as it was before ImageConverter: 32bpp BMP, temp file, ImageIO.read. */
+	private static BufferedImage legacyToImage(byte[] buffer) throws IOException {
+		int imageSize = WIDTH * HEIGHT * 4;
+		int fileSize = imageSize + 54;
+		byte[] imageBmp = new byte[fileSize + WIDTH * 4];
+		imageBmp[0] = 'B';
+		imageBmp[1] = 'M';
+		putInt(imageBmp, 2, fileSize);
+		putInt(imageBmp, 10, 54);
+		putInt(imageBmp, 14, 40);
+		putInt(imageBmp, 18, WIDTH);
+		putInt(imageBmp, 22, HEIGHT);
+		imageBmp[26] = 1;
+		imageBmp[28] = 32;
+		putInt(imageBmp, 34, imageSize);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				imageBmp[(14 + y * WIDTH + x) * 4] = imageBmp[(14 + y * WIDTH + x) * 4 + 2] = imageBmp[(14
+						+ y * WIDTH + x) * 4 + 3] = buffer[y * WIDTH + x];
+				imageBmp[(14 + y * WIDTH + x) * 4 + 1] = 0;
+			}
+		}
+		File temp = File.createTempFile("ibscandevice-", ".bmp");
+		try {
+			try (OutputStream output = new FileOutputStream(temp)) {
+				output.write(imageBmp);
+			}
+			return ImageIO.read(temp);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void putInt(byte[] b, int off, int value) {
+		b[off] = (byte) value;
+		b[off + 1] = (byte) (value >> 8);
+		b[off + 2] = (byte) (value >> 16);
+		b[off + 3] = (byte) (value >> 24);
+	}
+}
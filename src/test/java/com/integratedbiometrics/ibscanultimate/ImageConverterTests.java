@@ -0,0 +1,33 @@
+package com.integratedbiometrics.ibscanultimate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+class ImageConverterTests {
+
+	@Test
+	void paddedRowsSkipPadding() {
+		int width = 3, height = 2, pitch = 4;
+		byte[] pixels = { 1, 2, 3, 99, 4, 5, 6, 99 };
+		BufferedImage image = ImageConverter.toBufferedImage(pixels, width, height, -pitch,
+				IBScanDevice.ImageFormat.GRAY, 8);
+
+		assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+		assertEquals(4, image.getRaster().getSample(0, 0, 0));
+		assertEquals(3, image.getRaster().getSample(2, 1, 0));
+	}
+
+	@Test
+	void colorImagesKeepTheirLayout() {
+		byte[] bgr = { 10, 20, 30, 40, 50, 60 };
+		BufferedImage image = ImageConverter.toBufferedImage(bgr, 2, 1, 6, IBScanDevice.ImageFormat.RGB24, 24);
+
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+		assertEquals((30 << 16) | (20 << 8) | 10, image.getRGB(0, 0) & 0xffffff);
+		assertNull(ImageConverter.toBufferedImage(bgr, 2, 2, 6, IBScanDevice.ImageFormat.RGB24, 24));
+	}
+}
@@ -0,0 +1,38 @@
+package com.integratedbiometrics.ibscanultimate;
+
+import static com.integratedbiometrics.ibscanultimate.TestImages.image;
+import static com.integratedbiometrics.ibscanultimate.TestImages.pixels;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.junit.jupiter.api.Test;
+
+class ImageDataTests {
+
+	@Test
+	void topDownImageWrapsBuffer() {
+		int width = 13, height = 5;
+		byte[] buffer = pixels(width, height);
+		BufferedImage image = image(buffer, width, height, width).toImage();
+
+		assertSame(buffer, ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+		assertEquals(buffer[2 * width + 3] & 0xff, image.getRaster().getSample(3, 2, 0));
+	}
+
+	@Test
+	void bottomUpImageIsFlipped() {
+		int width = 13, height = 5;
+		byte[] buffer = pixels(width, height);
+		BufferedImage image = image(buffer, width, height, -width).toSaveImage();
+
+		assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(buffer[(height - 1 - y) * width + x] & 0xff, image.getRaster().getSample(x, y, 0));
+			}
+		}
+	}
+}
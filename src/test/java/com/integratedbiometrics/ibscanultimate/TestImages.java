@@ -0,0 +1,53 @@
+package com.integratedbiometrics.ibscanultimate;
+
+import java.util.Random;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+/**
+ * 8-bit test images shared by the tests of every package. Kept in the SDK
+ * package, where the protected <code>ImageData</code> constructor is
+ * accessible.
+ */
+public final class TestImages {
+
+	private TestImages() {
+	}
+
+	/**
+	 * An image at 500 ppi.
+	 *
+	 * @param pitch row stride in bytes; negative for bottom-up rows
+	 */
+	public static ImageData image(byte[] buffer, int width, int height, int pitch) {
+		return image(buffer, width, height, pitch, 500, 500);
+	}
+
+	public static ImageData image(byte[] buffer, int width, int height, int pitch, double resolutionX,
+			double resolutionY) {
+		return new ImageData(buffer, width, height, resolutionX, resolutionY, 0, pitch, (short) 8, 0, true, 0);
+	}
+
+	/* Top-down gradient with a distinct value per pixel. */
+	public static byte[] pixels(int width, int height) {
+		byte[] buffer = new byte[width * height];
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = (byte) (i * 7);
+		}
+		return buffer;
+	}
+
+	/* Synthetic fingerprint-like pattern: concentric ridges with some noise. */
+	public static byte[] ridges(int width, int height) {
+		byte[] pixels = new byte[width * height];
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double r = Math.hypot(x - width / 2.0, y - height / 2.0);
+				double v = 128 + 90 * Math.sin(r / 1.6) + random.nextGaussian() * 6;
+				pixels[y * width + x] = (byte) Math.max(0, Math.min(255, (int) v));
+			}
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,118 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class CaptureArchiveTests {
+
+	@Test
+	void recordsKeepTheirMetadataAndBytes(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[40 * 30], 40, 30, -40);
+		SegmentPosition[] positions = { new SegmentPosition(1, 2, 3, 4, 5, 6, 7, 8) {
+		}, new SegmentPosition(10, 20, 30, 40, 50, 60, 70, 80) {
+		} };
+		try (CaptureArchive archive = new CaptureArchive(directory)) {
+			archive.append("2026-10-16", "Image_0_Left hand", ImageExport.Format.PNG, image, positions,
+					new int[] { 2, 3 }, bytes("png"));
+			archive.append("2026-10-16", "Image_0_Left hand", ImageExport.Format.WSQ, image, positions,
+					new int[] { 2, 3 }, bytes("wsq"));
+
+			CaptureArchive.Record record = archive.find("2026-10-16", "Image_0_Left hand", ImageExport.Format.PNG);
+			assertEquals(40, record.getWidth());
+			assertEquals(30, record.getHeight());
+			assertEquals(500.0, record.getResolutionX());
+			assertEquals(-40, record.getPitch());
+			assertEquals(8, record.getBitsPerPixel());
+			assertEquals(image.format, record.getImageFormat());
+			assertEquals(2, record.getSegmentPositionCount());
+			assertArrayEquals(new int[] { 10, 20, 30, 40, 50, 60, 70, 80 }, record.getSegmentPosition(1));
+			assertArrayEquals(new int[] { 2, 3 }, record.getNfiq());
+			assertEquals("png", transfer(archive, "2026-10-16", "Image_0_Left hand", ImageExport.Format.PNG));
+			assertEquals("wsq", transfer(archive, "2026-10-16", "Image_0_Left hand", ImageExport.Format.WSQ));
+			assertNull(archive.find("2026-10-16", "Image_0_Left hand", ImageExport.Format.BMP));
+			assertEquals(-1, archive.transferTo("2026-10-16", "Image_1", ImageExport.Format.PNG,
+					Channels.newChannel(new ByteArrayOutputStream())));
+		}
+	}
+
+	@Test
+	void laterAppendsReplaceEarlierOnes(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[4], 2, 2, 2);
+		try (CaptureArchive archive = new CaptureArchive(directory)) {
+			archive.append("s", "f", ImageExport.Format.BMP, image, null, null, bytes("first"));
+			archive.append("s", "f", ImageExport.Format.BMP, image, null, null, bytes("second"));
+
+			assertEquals(1, archive.size());
+			assertEquals("second", transfer(archive, "s", "f", ImageExport.Format.BMP));
+		}
+	}
+
+	@Test
+	void manyRecordsRollSegmentsAndGrowTheIndex(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[4], 2, 2, 2);
+		int count = 20000;
+		try (CaptureArchive archive = new CaptureArchive(directory, 1 << 20)) {
+			for (int i = 0; i < count; i++) {
+				archive.append("s", "finger-" + i, ImageExport.Format.PNG, image, null, new int[] { i % 5 + 1 },
+						bytes("image " + i));
+			}
+			assertEquals(count, archive.size());
+			assertTrue(archive.find("s", "finger-" + (count - 1), ImageExport.Format.PNG).getSegment() > 1);
+		}
+		try (CaptureArchive archive = new CaptureArchive(directory, 1 << 20)) {
+			assertEquals(count, archive.size());
+			for (int i = 0; i < count; i += 997) {
+				assertEquals("image " + i, transfer(archive, "s", "finger-" + i, ImageExport.Format.PNG));
+			}
+		}
+	}
+
+	@Test
+	void reopeningRecoversUnindexedRecordsAndDropsATornTail(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[4], 2, 2, 2);
+		try (CaptureArchive archive = new CaptureArchive(directory)) {
+			archive.append("s", "a", ImageExport.Format.BMP, image, null, null, bytes("a"));
+			archive.append("s", "b", ImageExport.Format.BMP, image, null, null, bytes("b"));
+		}
+		Path segment = directory.resolve("segment-000001.dat");
+		long complete = Files.size(segment);
+		Files.write(segment, new byte[] { 'I', 'B', 'C', 'R', 0, 0 }, StandardOpenOption.APPEND);
+		Files.delete(directory.resolve("index.dat"));
+
+		try (CaptureArchive archive = new CaptureArchive(directory)) {
+			assertEquals(complete, Files.size(segment));
+			assertEquals("a", transfer(archive, "s", "a", ImageExport.Format.BMP));
+			assertEquals("b", transfer(archive, "s", "b", ImageExport.Format.BMP));
+			archive.append("s", "c", ImageExport.Format.BMP, image, null, null, bytes("c"));
+			assertEquals(3, archive.size());
+		}
+	}
+
+	private static ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String transfer(CaptureArchive archive, String session, String finger, ImageExport.Format format)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		archive.transferTo(archive.find(session, finger, format), Channels.newChannel(out));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
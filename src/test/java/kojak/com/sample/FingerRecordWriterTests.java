@@ -0,0 +1,133 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscancommon.IBCommon.FingerPosition;
+import com.integratedbiometrics.ibscancommon.IBCommon.ImpressionType;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class FingerRecordWriterTests {
+
+	@Test
+	void isoRecordHoldsEveryFingerAsTopDownRows() throws Exception {
+		byte[] pixels = TestImages.pixels(20, 10);
+		ImageData topDown = TestImages.image(pixels, 20, 10, 20);
+		ImageData bottomUp = TestImages.image(flip(pixels, 20, 10), 20, 10, -20);
+		List<FingerRecordWriter.Finger> fingers = Arrays.asList(
+				new FingerRecordWriter.Finger(topDown, FingerPosition.RIGHT_INDEX_FINGER, ImpressionType.LIVE_SCAN_PLAIN, 1),
+				new FingerRecordWriter.Finger(bottomUp, FingerPosition.RIGHT_INDEX_FINGER, ImpressionType.LIVE_SCAN_PLAIN, 0));
+
+		ByteBuffer record = write(new FingerRecordWriter(FingerRecordWriter.Standard.ISO_19794_4,
+				FingerRecordWriter.Compression.NONE), fingers);
+
+		assertEquals("FIR\u0000010\u0000", new String(record.array(), 0, 8, StandardCharsets.US_ASCII));
+		assertEquals(record.limit(), (record.getShort(8) & 0xffffL) << 32 | (record.getInt(10) & 0xffffffffL));
+		assertEquals(2, record.get(18));
+		assertEquals(500, record.getShort(20));
+		assertEquals(8, record.get(28));
+		assertEquals(0, record.get(29));
+		for (int i = 0, at = 32; i < 2; i++) {
+			assertEquals(14 + 200, record.getInt(at));
+			assertEquals(2, record.get(at + 4)); // right index
+			assertEquals(2, record.get(at + 5)); // views
+			assertEquals(i + 1, record.get(at + 6));
+			assertEquals(i == 0 ? 100 : 0, record.get(at + 7));
+			assertEquals(20, record.getShort(at + 9));
+			assertEquals(10, record.getShort(at + 11));
+			assertArrayEquals(pixels, Arrays.copyOfRange(record.array(), at + 14, at + 214));
+			at += 214;
+		}
+	}
+
+	@Test
+	void type4RecordsFollowEachOther() throws Exception {
+		ImageData image = TestImages.image(TestImages.ridges(120, 100), 120, 100, 120);
+		List<FingerRecordWriter.Finger> fingers = Arrays.asList(
+				new FingerRecordWriter.Finger(image, FingerPosition.LEFT_THUMB, ImpressionType.LIVE_SCAN_PLAIN, 2),
+				new FingerRecordWriter.Finger(image, FingerPosition.RIGHT_THUMB, ImpressionType.LIVE_SCAN_ROLLED, 3));
+
+		ByteBuffer records = write(new FingerRecordWriter(FingerRecordWriter.Standard.ANSI_NIST_TYPE_4,
+				FingerRecordWriter.Compression.WSQ), fingers);
+
+		int at = 0;
+		for (int i = 0; i < 2; i++) {
+			int length = records.getInt(at);
+			assertEquals(i + 1, records.get(at + 4));
+			assertEquals(fingers.get(i).getImpression().toCode(), records.get(at + 5));
+			assertEquals(fingers.get(i).getPosition().toCode(), records.get(at + 6));
+			assertEquals((byte) 255, records.get(at + 7));
+			assertEquals(0, records.get(at + 12));
+			assertEquals(120, records.getShort(at + 13));
+			assertEquals(100, records.getShort(at + 15));
+			assertEquals(1, records.get(at + 17));
+			ImageData decoded = WsqCodec.decode(Arrays.copyOfRange(records.array(), at + 18, at + length));
+			assertEquals(120, decoded.width);
+			at += length;
+		}
+		assertEquals(records.limit(), at);
+	}
+
+	@Test
+	void type14LengthCountsItself() throws Exception {
+		ImageData image = TestImages.image(new byte[30 * 40], 30, 40, 30);
+		List<FingerRecordWriter.Finger> fingers = Arrays.asList(
+				new FingerRecordWriter.Finger(image, FingerPosition.LEFT_INDEX_FINGER, ImpressionType.LIVE_SCAN_PLAIN, 4));
+
+		ByteBuffer record = write(new FingerRecordWriter(FingerRecordWriter.Standard.ANSI_NIST_TYPE_14,
+				FingerRecordWriter.Compression.NONE), fingers);
+
+		String text = new String(record.array(), 0, record.limit() - 30 * 40 - 1, StandardCharsets.US_ASCII);
+		assertTrue(text.startsWith("14.001:" + record.limit() + "\u001d14.002:1\u001d14.003:0\u001d"), text);
+		assertTrue(text.contains("\u001d14.011:NONE\u001d14.012:8\u001d14.013:7\u001d14.022:7\u001f4\u001d"), text);
+		assertTrue(text.endsWith("\u001d14.999:"), text);
+		assertEquals(0x1c, record.get(record.limit() - 1));
+	}
+
+	@Test
+	void parallelPackingWritesTheSameRecords() throws Exception {
+		List<FingerRecordWriter.Finger> fingers = new ArrayList<FingerRecordWriter.Finger>();
+		for (int i = 0; i < 10; i++) {
+			ImageData image = TestImages.image(TestImages.ridges(100 + i, 110), 100 + i, 110,
+					-(100 + i));
+			fingers.add(new FingerRecordWriter.Finger(image, FingerPosition.fromCode(i + 1),
+					ImpressionType.LIVE_SCAN_PLAIN, i % 5 + 1));
+		}
+		WsqCodec wsq = new WsqCodec(WsqCodec.DEFAULT_BITRATE, false);
+		for (FingerRecordWriter.Standard standard : FingerRecordWriter.Standard.values()) {
+			ByteBuffer parallel = write(new FingerRecordWriter(standard, FingerRecordWriter.Compression.WSQ, wsq, true,
+					1, FingerRecordWriter.DEFAULT_SOURCE_AGENCY), fingers);
+			ByteBuffer sequential = write(new FingerRecordWriter(standard, FingerRecordWriter.Compression.WSQ, wsq,
+					false, 1, FingerRecordWriter.DEFAULT_SOURCE_AGENCY), fingers);
+			assertEquals(sequential, parallel, standard.name());
+		}
+	}
+
+	private static ByteBuffer write(FingerRecordWriter writer, List<FingerRecordWriter.Finger> fingers)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = writer.write(fingers, Channels.newChannel(out));
+		assertEquals(out.size(), written);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	private static byte[] flip(byte[] pixels, int width, int height) {
+		byte[] flipped = new byte[pixels.length];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(pixels, y * width, flipped, (height - 1 - y) * width, width);
+		}
+		return flipped;
+	}
+}
@@ -0,0 +1,35 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FrameBufferPoolTests {
+
+	@Test
+	void releasedBuffersAreReusedWithinTheirSizeClass() {
+		FrameBufferPool pool = new FrameBufferPool("test", false);
+		byte[] first = pool.borrow(280 * 200);
+		assertTrue(first.length >= 280 * 200);
+		pool.release(first);
+
+		assertSame(first, pool.borrow(280 * 200 - 1));
+		assertNotSame(first, pool.borrow(280 * 200));
+	}
+
+	@Test
+	void debugPoolTracksOutstandingBuffersAndIgnoresDoubleRelease() {
+		FrameBufferPool pool = new FrameBufferPool("test", true);
+		byte[] buffer = pool.borrow(1000);
+		assertEquals(1, pool.outstanding());
+		pool.release(buffer);
+		pool.release(buffer);
+		assertEquals(0, pool.outstanding());
+
+		assertSame(buffer, pool.borrow(1000));
+		assertNotSame(buffer, pool.borrow(1000)); // was not queued twice
+	}
+}
@@ -0,0 +1,75 @@
+package kojak.com.sample;
+
+import com.integratedbiometrics.ibscanultimate.IBScan;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanException;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+/**
+ * Compares {@link FrameScaler} with the device's
+ * <code>generateZoomOutImageEx</code> on a 1600x1500 four-finger frame scaled
+ * to the 400x375 preview, to choose <code>ib.preview.scaler</code> for a
+ * machine. The native path needs the SDK library and an attached scanner and
+ * is skipped without them. Run with <code>main</code>; not part of the test
+ * suite.
+ */
+public class FrameScalerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int width = 1600, height = 1500, outWidth = 400, outHeight = 375;
+		byte[] buffer = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				buffer[y * width + x] = (byte) (128 + 100 * Math.sin((x + y * 0.3) / 4.0) + (x * y % 7));
+			}
+		}
+		ImageData image = TestImages.image(buffer, width, height, -width);
+		byte[] out = new byte[outWidth * outHeight];
+
+		for (FrameScaler.Filter filter : FrameScaler.Filter.values()) {
+			for (boolean parallel : new boolean[] { false, true }) {
+				FrameScaler scaler = new FrameScaler(filter, parallel);
+				run("java " + filter + (parallel ? " parallel" : ""), iterations,
+						() -> scaler.scale(image, out, outWidth, outHeight, (byte) 255));
+			}
+		}
+
+		IBScanDevice device;
+		try {
+			IBScan ibScan = IBScan.getInstance();
+			if (ibScan.getDeviceCount() == 0) {
+				System.out.println("native zoom: skipped, no scanner attached");
+				return;
+			}
+			device = ibScan.openDevice(0);
+		} catch (LinkageError | IBScanException ex) {
+			System.out.println("native zoom: skipped, " + ex);
+			return;
+		}
+		try {
+			run("native zoom", iterations, () -> {
+				try {
+					device.generateZoomOutImageEx(buffer, width, height, out, outWidth, outHeight, (byte) 255);
+				} catch (IBScanException ex) {
+					throw new IllegalStateException(ex);
+				}
+			});
+		} finally {
+			device.close();
+		}
+	}
+
+	private static void run(String name, int iterations, Runnable scaling) {
+		for (int i = 0; i < Math.max(10, iterations / 5); i++) {
+			scaling.run(); // warm-up
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			scaling.run();
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%-30s %8.3f ms/frame%n", name, nanos / 1e6 / iterations);
+	}
+}
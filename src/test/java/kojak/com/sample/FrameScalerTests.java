@@ -0,0 +1,74 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class FrameScalerTests {
+
+	@Test
+	void areaAveragesTheCoveredPixels() {
+		byte[] pixels = { 0, 2, 10, 20, 4, 6, 30, 40, 100, 100, (byte) 200, (byte) 200, 100, 100, (byte) 200,
+				(byte) 200 };
+		byte[] out = new byte[4];
+
+		new FrameScaler(FrameScaler.Filter.AREA, false).scale(pixels, 4, 4, 4, out, 2, 2, (byte) 255);
+
+		assertArrayEquals(new byte[] { 3, 25, 100, (byte) 200 }, out);
+	}
+
+	@Test
+	void fittedImageIsCenteredOnTheBackground() {
+		byte[] pixels = new byte[200 * 100];
+		Arrays.fill(pixels, (byte) 80);
+		byte[] out = new byte[50 * 50];
+
+		for (FrameScaler.Filter filter : FrameScaler.Filter.values()) {
+			new FrameScaler(filter, false).scale(pixels, 200, 100, 0, out, 50, 50, (byte) 255);
+
+			for (int y = 0; y < 50; y++) {
+				// 200x100 fits as 50x25, rows 12 to 36
+				int expected = y >= 12 && y < 37 ? 80 : 255;
+				for (int x = 0; x < 50; x++) {
+					assertEquals(expected, out[y * 50 + x] & 0xff, filter + " at " + x + "," + y);
+				}
+			}
+		}
+	}
+
+	@Test
+	void bottomUpAndPaddedRowsScaleLikeTopDownRows() {
+		int width = 130, height = 97;
+		byte[] topDown = TestImages.ridges(width, height);
+		byte[] bottomUp = new byte[(width + 3) * height];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(topDown, y * width, bottomUp, (height - 1 - y) * (width + 3), width);
+		}
+		for (FrameScaler.Filter filter : FrameScaler.Filter.values()) {
+			FrameScaler scaler = new FrameScaler(filter, false);
+			byte[] expected = new byte[40 * 30];
+			byte[] actual = new byte[40 * 30];
+			scaler.scale(topDown, width, height, width, expected, 40, 30, (byte) 0);
+			scaler.scale(bottomUp, width, height, -(width + 3), actual, 40, 30, (byte) 0);
+			assertArrayEquals(expected, actual, filter.name());
+		}
+	}
+
+	@Test
+	void parallelRowsMatchSequentialRows() {
+		int width = 1600, height = 1500;
+		byte[] pixels = TestImages.ridges(width, height);
+		for (FrameScaler.Filter filter : FrameScaler.Filter.values()) {
+			byte[] expected = new byte[400 * 375];
+			byte[] actual = new byte[400 * 375];
+			new FrameScaler(filter, false).scale(pixels, width, height, -width, expected, 400, 375, (byte) 255);
+			new FrameScaler(filter, true).scale(pixels, width, height, -width, actual, 400, 375, (byte) 255);
+			assertArrayEquals(expected, actual, filter.name());
+		}
+	}
+}
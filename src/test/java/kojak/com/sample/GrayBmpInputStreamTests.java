@@ -0,0 +1,58 @@
+package kojak.com.sample;
+
+import static com.integratedbiometrics.ibscanultimate.TestImages.image;
+import static com.integratedbiometrics.ibscanultimate.TestImages.pixels;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+
+class GrayBmpInputStreamTests {
+
+	@Test
+	void topDownImageDecodesWithSamePixels() throws Exception {
+		int width = 13, height = 5; // odd width exercises row padding
+		byte[] buffer = pixels(width, height);
+		BufferedImage decoded = decode(image(buffer, width, height, width));
+
+		assertEquals(width, decoded.getWidth());
+		assertEquals(height, decoded.getHeight());
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(buffer[y * width + x] & 0xff, decoded.getRaster().getSample(x, y, 0));
+			}
+		}
+	}
+
+	@Test
+	void bottomUpImageIsFlipped() throws Exception {
+		int width = 6, height = 4;
+		byte[] buffer = pixels(width, height);
+		BufferedImage decoded = decode(image(buffer, width, height, -width));
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals(buffer[(height - 1 - y) * width + x] & 0xff, decoded.getRaster().getSample(x, y, 0));
+			}
+		}
+	}
+
+	private static BufferedImage decode(ImageData image) throws Exception {
+		GrayBmpInputStream in = new GrayBmpInputStream(image);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[100];
+		int n;
+		while ((n = in.read(chunk, 0, chunk.length)) > 0) {
+			bytes.write(chunk, 0, n);
+		}
+		assertEquals(in.length(), bytes.size());
+		return ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,66 @@
+package kojak.com.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+/**
+ * Compares {@link GrayscaleEncoder} with the ImageIO path of
+ * <code>ImageUtils.encodeToBytes(BufferedImage, type)</code> on a 400x500
+ * segmented finger. Run with <code>main</code>; not part of the test suite.
+ */
+public class GrayscaleEncoderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int width = 400, height = 500;
+		byte[] buffer = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				// ridge-like pattern with a little noise
+				buffer[y * width + x] = (byte) (128 + 100 * Math.sin((x + y * 0.3) / 4.0) + (x * y % 7));
+			}
+		}
+		ImageData image = TestImages.image(buffer, width, height, -width);
+
+		run("ImageIO png", iterations, () -> ImageUtils.encodeToBytes(image.toImage(), "png").length);
+		run("ImageIO bmp", iterations, () -> ImageUtils.encodeToBytes(image.toImage(), "bmp").length);
+		for (int level : new int[] { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION }) {
+			for (GrayscaleEncoder.Filter filter : new GrayscaleEncoder.Filter[] { GrayscaleEncoder.Filter.NONE,
+					GrayscaleEncoder.Filter.UP, GrayscaleEncoder.Filter.ADAPTIVE }) {
+				GrayscaleEncoder encoder = new GrayscaleEncoder(level, filter);
+				run("encoder png " + filter + " L" + level, iterations, () -> {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(width * height);
+					encoder.writePng(image, out);
+					return out.size();
+				});
+			}
+		}
+		GrayscaleEncoder encoder = GrayscaleEncoder.forCurrentThread();
+		run("encoder bmp", iterations, () -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(width * height + 1078);
+			encoder.writeBmp(image, out);
+			return out.size();
+		});
+	}
+
+	interface Encoding {
+		int encode() throws IOException;
+	}
+
+	private static void run(String name, int iterations, Encoding encoding) throws IOException {
+		for (int i = 0; i < Math.max(10, iterations / 5); i++) {
+			encoding.encode(); // warm-up
+		}
+		int size = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			size = encoding.encode();
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%-30s %8.3f ms/op %8d bytes%n", name, nanos / 1e6 / iterations, size);
+	}
+}
@@ -0,0 +1,49 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class GrayscaleEncoderTests {
+
+	@Test
+	void pngDecodesWithSamePixelsForEveryFilter() throws Exception {
+		int width = 13, height = 7;
+		byte[] buffer = TestImages.pixels(width, height);
+		ImageData image = TestImages.image(buffer, width, height, -width);
+
+		for (GrayscaleEncoder.Filter filter : GrayscaleEncoder.Filter.values()) {
+			GrayscaleEncoder encoder = new GrayscaleEncoder(Deflater.BEST_SPEED, filter);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			encoder.writePng(image, out);
+			encoder.writePng(image, new ByteArrayOutputStream()); // reuse must not leak state
+			BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					assertEquals(buffer[(height - 1 - y) * width + x] & 0xff, decoded.getRaster().getSample(x, y, 0),
+							filter + " at " + x + "," + y);
+				}
+			}
+		}
+	}
+
+	@Test
+	void bmpMatchesStreamingView() throws Exception {
+		ImageData image = TestImages.image(TestImages.pixels(5, 3), 5, 3, 5);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new GrayscaleEncoder(Deflater.DEFAULT_COMPRESSION, GrayscaleEncoder.Filter.NONE).writeBmp(image, out);
+
+		assertEquals(new GrayBmpInputStream(image).length(), out.size());
+	}
+}
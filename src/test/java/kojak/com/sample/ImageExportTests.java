@@ -0,0 +1,58 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class ImageExportTests {
+
+	@Test
+	void bufferAndStreamHoldTheSameBytes() throws Exception {
+		ImageData image = TestImages.image(TestImages.ridges(120, 100), 120, 100, 120);
+		ImageExport export = new ImageExport();
+
+		for (ImageExport.Format format : new ImageExport.Format[] { ImageExport.Format.BMP, ImageExport.Format.PNG,
+				ImageExport.Format.WSQ }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			export.write(image, format, out);
+			ByteBuffer buffer = export.encode(image, format);
+
+			byte[] encoded = new byte[buffer.remaining()];
+			buffer.get(encoded);
+			assertArrayEquals(out.toByteArray(), encoded, format.name());
+		}
+	}
+
+	@Test
+	void bmpCarriesTheImageResolution() throws Exception {
+		ImageData image = TestImages.image(new byte[8 * 4], 8, 4, 8, 1000, 500);
+		ByteBuffer bmp = new ImageExport().encode(image, ImageExport.Format.BMP).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(39370, bmp.getInt(38)); // pixels per meter
+		assertEquals(19685, bmp.getInt(42));
+	}
+
+	@Test
+	void jpeg2000NeedsADeviceAndLeavesNoScratchFiles(@TempDir Path parent) throws Exception {
+		ImageData image = TestImages.image(new byte[100 * 100], 100, 100, 100);
+		try (ScratchFiles scratch = new ScratchFiles(parent)) {
+			ImageExport export = new ImageExport(null, scratch, new WsqCodec(), ImageExport.DEFAULT_JP2_QUALITY);
+
+			assertThrows(IOException.class, () -> export.encode(image, ImageExport.Format.JP2));
+			assertEquals(0, Files.list(scratch.getDirectory()).count());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.SegmentPosition;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class ImagePersistenceTests {
+
+	@Test
+	void savedFilesHoldTheEncodedImages(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(TestImages.ridges(120, 100), 120, 100, -120);
+		ImageExport export = new ImageExport();
+		try (ImagePersistence saver = new ImagePersistence(8, 2)) {
+			List<Path> files = saver.saveAll(export, image,
+					EnumSet.of(ImageExport.Format.BMP, ImageExport.Format.PNG, ImageExport.Format.WSQ), directory,
+					"Image_0_thumb").get(10, TimeUnit.SECONDS);
+
+			assertEquals(3, files.size());
+			for (ImageExport.Format format : EnumSet.of(ImageExport.Format.BMP, ImageExport.Format.PNG,
+					ImageExport.Format.WSQ)) {
+				Path file = directory.resolve("Image_0_thumb." + format.getSuffix());
+				assertTrue(files.contains(file));
+				ByteBuffer expected = export.encode(image, format);
+				byte[] bytes = new byte[expected.remaining()];
+				expected.get(bytes);
+				assertArrayEquals(bytes, Files.readAllBytes(file), format.name());
+			}
+		}
+	}
+
+	@Test
+	void archivedRecordsHoldTheEncodedImages(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(TestImages.ridges(120, 100), 120, 100, -120);
+		ImageExport export = new ImageExport();
+		try (ImagePersistence saver = new ImagePersistence(8, 2);
+				CaptureArchive archive = new CaptureArchive(directory)) {
+			List<CaptureArchive.Record> records = saver.archiveAll(export, image,
+					EnumSet.of(ImageExport.Format.BMP, ImageExport.Format.WSQ), archive, "session", "Image_0_thumb",
+					null, new int[] { 3 }).get(10, TimeUnit.SECONDS);
+
+			assertEquals(2, records.size());
+			for (CaptureArchive.Record record : records) {
+				ByteBuffer expected = export.encode(image, record.getFormat());
+				ByteArrayOutputStream stored = new ByteArrayOutputStream();
+				archive.transferTo("session", "Image_0_thumb", record.getFormat(), Channels.newChannel(stored));
+				assertEquals(expected, ByteBuffer.wrap(stored.toByteArray()), record.getFormat().name());
+				assertArrayEquals(new int[] { 3 }, record.getNfiq());
+			}
+		}
+	}
+
+	@Test
+	void failedEncodingIsReportedAndFreesItsSlot(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[100 * 100], 100, 100, 100);
+		try (ImagePersistence saver = new ImagePersistence(1, 1)) {
+			CompletableFuture<Path> jp2 = saver.save(new ImageExport(), image, ImageExport.Format.JP2,
+					directory.resolve("a.jp2"));
+			ExecutionException failure = assertThrows(ExecutionException.class, () -> jp2.get(10, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof IOException);
+
+			Path bmp = saver.save(new ImageExport(), image, ImageExport.Format.BMP, directory.resolve("a.bmp"))
+					.get(10, TimeUnit.SECONDS);
+			assertTrue(Files.exists(bmp));
+		}
+	}
+
+	@Test
+	void fullQueueRejectsWithoutBlocking(@TempDir Path directory) {
+		ImageData image = TestImages.image(new byte[100 * 100], 100, 100, 100);
+		try (ImagePersistence saver = new ImagePersistence(0, 1)) {
+			CompletableFuture<Path> rejected = saver.save(new ImageExport(), image, ImageExport.Format.BMP,
+					directory.resolve("a.bmp"));
+
+			ExecutionException failure = assertThrows(ExecutionException.class, rejected::get);
+			assertTrue(failure.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	@Test
+	void fullQueueHoldsTheCallerUntilASlotFrees(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[100 * 100], 100, 100, 100);
+		CountDownLatch encoding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ImageExport slow = new ImageExport() {
+			@Override
+			public ByteBuffer encode(ImageData image, Format format) throws IOException {
+				encoding.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new IOException(ex);
+				}
+				return super.encode(image, format);
+			}
+		};
+		try (ImagePersistence saver = new ImagePersistence(1, 1, TimeUnit.SECONDS.toMillis(10))) {
+			CompletableFuture<Path> first = saver.save(slow, image, ImageExport.Format.BMP, directory.resolve("a.bmp"));
+			encoding.await();
+			CompletableFuture<CompletableFuture<Path>> second = CompletableFuture.supplyAsync(() -> saver
+					.save(new ImageExport(), image, ImageExport.Format.BMP, directory.resolve("b.bmp")));
+
+			Thread.sleep(100);
+			assertFalse(second.isDone());
+			release.countDown();
+			assertTrue(Files.exists(first.get(10, TimeUnit.SECONDS)));
+			assertTrue(Files.exists(second.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS)));
+		}
+	}
+
+	@Test
+	void uncheckedWriteFailureKeepsTheWriterRunning(@TempDir Path directory) throws Exception {
+		ImageData image = TestImages.image(new byte[100 * 100], 100, 100, 100);
+		try (ImagePersistence saver = new ImagePersistence(1, 1);
+				CaptureArchive archive = new CaptureArchive(directory) {
+					@Override
+					public synchronized Record append(String session, String finger, ImageExport.Format format,
+							ImageData image, SegmentPosition[] positions, int[] nfiq, ByteBuffer payload) {
+						throw new IllegalStateException("broken archive");
+					}
+				}) {
+			CompletableFuture<CaptureArchive.Record> record = saver.archive(new ImageExport(), image,
+					ImageExport.Format.BMP, archive, "session", "finger", null, null);
+			ExecutionException failure = assertThrows(ExecutionException.class,
+					() -> record.get(10, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof IllegalStateException);
+
+			// The single slot was given back and the writer still saves
+			Path bmp = saver.save(new ImageExport(), image, ImageExport.Format.BMP, directory.resolve("a.bmp"))
+					.get(10, TimeUnit.SECONDS);
+			assertTrue(Files.exists(bmp));
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScratchFilesTests {
+
+	@Test
+	void closedLeasesDeleteTheirFileAndReuseTheName(@TempDir Path parent) throws Exception {
+		ScratchFiles scratch = new ScratchFiles(parent);
+		Path first;
+		try (ScratchFiles.Lease lease = scratch.lease(".jp2")) {
+			first = lease.getPath();
+			Files.write(first, new byte[] { 1, 2, 3 });
+			try (ScratchFiles.Lease other = scratch.lease(".jp2")) {
+				assertNotEquals(first, other.getPath());
+			}
+		}
+		assertFalse(Files.exists(first));
+
+		try (ScratchFiles.Lease lease = scratch.lease(".jp2")) {
+			assertEquals(first, lease.getPath());
+			Files.write(lease.getPath(), new byte[] { 4 });
+			scratch.close();
+		}
+		assertFalse(Files.exists(scratch.getDirectory()));
+	}
+}
@@ -0,0 +1,81 @@
+package kojak.com.sample;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.integratedbiometrics.ibscanultimate.IBScanDevice.ImageData;
+import com.integratedbiometrics.ibscanultimate.TestImages;
+
+class WsqCodecTests {
+
+	@Test
+	void transformReconstructsItsInputForOddAndEvenSizes() {
+		for (int[] size : new int[][] { { 256, 200 }, { 333, 251 }, { 97, 130 } }) {
+			int width = size[0], height = size[1];
+			float[] data = new float[width * height];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (float) (100 * Math.sin(i * 0.37) + (i % width) * 0.5);
+			}
+			float[] original = data.clone();
+			WsqTransform transform = new WsqTransform(width, height);
+			transform.decompose(data, WsqTransform.LO_FILTER, WsqTransform.HI_FILTER, true);
+			transform.reconstruct(data, WsqTransform.LO_SYNTHESIS, WsqTransform.HI_SYNTHESIS, false);
+
+			for (int i = 0; i < data.length; i++) {
+				assertEquals(original[i], data[i], 0.01, width + "x" + height + " at " + i);
+			}
+		}
+	}
+
+	@Test
+	void subbandsFollowTheReferenceLayout() {
+		WsqTransform transform = new WsqTransform(256, 256);
+		// Each group of sixteen subbands runs top left, top right, bottom left, bottom right
+		assertArrayEquals(new int[] { 0, 48, 16, 16 }, node(transform.qTree[13]));
+		assertArrayEquals(new int[] { 32, 32, 16, 16 }, node(transform.qTree[15]));
+		assertArrayEquals(new int[] { 64, 32, 16, 16 }, node(transform.qTree[27]));
+		assertArrayEquals(new int[] { 0, 128, 64, 64 }, node(transform.qTree[56]));
+		assertArrayEquals(new int[] { 128, 128, 64, 64 }, node(transform.qTree[60]));
+	}
+
+	@Test
+	void roundTripKeepsRidgesAtTheTargetBitRate() throws Exception {
+		int width = 320, height = 401;
+		byte[] pixels = TestImages.ridges(width, height);
+		ImageData image = TestImages.image(pixels, width, height, -width);
+
+		byte[] wsq = new WsqCodec(0.75, true).encode(image);
+		ImageData decoded = WsqCodec.decode(new ByteArrayInputStream(wsq));
+
+		assertEquals(width, decoded.width);
+		assertEquals(height, decoded.height);
+		assertEquals(500, (int) decoded.resolutionX);
+		assertTrue(wsq.length < width * height / 6, "size " + wsq.length);
+		double error = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double d = (pixels[(height - 1 - y) * width + x] & 0xff) - (decoded.buffer[y * width + x] & 0xff);
+				error += d * d;
+			}
+		}
+		double psnr = 10 * Math.log10(255.0 * 255.0 / (error / (width * height)));
+		assertTrue(psnr > 28, "PSNR " + psnr);
+	}
+
+	@Test
+	void sequentialAndParallelEncodingsAreIdentical() throws Exception {
+		ImageData image = TestImages.image(TestImages.ridges(500, 500), 500, 500, 500);
+		byte[] parallel = new WsqCodec(2.25, true).encode(image);
+		byte[] sequential = new WsqCodec(2.25, false).encode(image);
+		assertArrayEquals(sequential, parallel);
+	}
+
+	private static int[] node(WsqTransform.Node node) {
+		return new int[] { node.x, node.y, node.lenx, node.leny };
+	}
+}